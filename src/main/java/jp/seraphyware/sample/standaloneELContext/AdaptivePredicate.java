@@ -0,0 +1,426 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 実行時の統計に基づいて、&amp;&amp;(and)で結合された項の評価順序を入れ替える条件式.<br>
+ * 項ごとに評価に要した時間と真となった割合を計測し、
+ * 期待される評価コストが最小になるように、安価で偽になりやすい項から評価する.<br>
+ * 一定回数の評価ごとに統計を減衰させて順序を見直すため、データの分布の変化にも追従する.<br>
+ * 順序を入れ替えるのは副作用がないと判定できた項だけであり、
+ * 副作用がありうる項(代入、ラムダ式、メソッドの呼び出し、純粋と宣言されていない関数の呼び出しを含むもの)
+ * の位置と、その前に評価される項の集合は変えない.<br>
+ * 入れ替えた順序での評価が例外となった場合は、元の式をそのまま評価し直して、その結果に従う.
+ * 例外となった項は、以降は元の位置に固定する.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class AdaptivePredicate {
+
+	/**
+	 * 既定の順序を見直す間隔(評価回数)
+	 */
+	private static final int DEFAULT_ADAPT_INTERVAL = 1024;
+
+	/**
+	 * 評価時間を計測する間隔(評価回数、2のべき乗-1のマスク)
+	 */
+	private static final int TIMING_MASK = 15;
+
+	/**
+	 * 毎回計測する、項ごとの最小の計測回数
+	 */
+	private static final int MIN_TIMINGS = 8;
+
+	/**
+	 * 括弧を続けて書くことのできる演算子
+	 */
+	private static final Set<String> OPERATORS = new HashSet<String>(
+			Arrays.asList("and", "or", "not", "empty", "div", "mod", "eq", "ne",
+					"lt", "gt", "le", "ge", "instanceof"));
+
+	/**
+	 * 項と、その統計
+	 */
+	private static final class Conjunct {
+
+		/**
+		 * 元の式での位置
+		 */
+		final int position;
+
+		final String text;
+
+		final PreparedExpression expr;
+
+		/**
+		 * 副作用がないか?
+		 */
+		final boolean pure;
+
+		/**
+		 * 入れ替えた順序で例外となったため、位置を固定するか?
+		 */
+		boolean pinned;
+
+		/**
+		 * 評価回数
+		 */
+		double evaluations;
+
+		/**
+		 * 真となった回数
+		 */
+		double passes;
+
+		/**
+		 * 時間を計測した回数
+		 */
+		double timings;
+
+		/**
+		 * 計測した時間の合計(ナノ秒)
+		 */
+		double nanos;
+
+		Conjunct(int position, String text, boolean pure) {
+			this.position = position;
+			this.text = text;
+			this.expr = new PreparedExpression("${" + text + '}', Boolean.class);
+			this.pure = pure;
+		}
+
+		/**
+		 * 評価順序の指標.<br>
+		 * 1回あたりのコストを、偽となって評価を打ち切る確率で割った値.
+		 * 小さいものから評価する.<br>
+		 */
+		double rank() {
+			if (evaluations == 0 || timings == 0) {
+				// 統計がなければ先に評価して計測する.
+				return 0;
+			}
+			double cost = nanos / timings;
+			double reject = 1 - passes / evaluations;
+			if (reject <= 0) {
+				return Double.MAX_VALUE;
+			}
+			return cost / reject;
+		}
+	}
+
+	/**
+	 * 元の式(${}で囲まないもの)
+	 */
+	private final String expression;
+
+	/**
+	 * 元の式全体
+	 */
+	private final PreparedExpression whole;
+
+	/**
+	 * 現在の評価順序の項
+	 */
+	private final List<Conjunct> order;
+
+	/**
+	 * 順序を見直す間隔
+	 */
+	private int adaptInterval = DEFAULT_ADAPT_INTERVAL;
+
+	/**
+	 * 評価回数
+	 */
+	private long evaluationCount;
+
+	/**
+	 * 元の式で評価し直した回数
+	 */
+	private int fallbackCount;
+
+	/**
+	 * コンストラクタ.<br>
+	 * 関数を呼び出す項は副作用がありうるものとして扱う.<br>
+	 *
+	 * @param expression
+	 *            条件式(${}で囲まないもの)
+	 */
+	public AdaptivePredicate(String expression) {
+		this(expression, Collections.<String> emptySet());
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param expression
+	 *            条件式(${}で囲まないもの)
+	 * @param pureFunctions
+	 *            副作用のない関数の名前("fn:length"のようにプレフィックスを含む)
+	 */
+	public AdaptivePredicate(String expression, Set<String> pureFunctions) {
+		if (expression == null || pureFunctions == null) {
+			throw new IllegalArgumentException();
+		}
+		this.expression = expression;
+		this.whole = new PreparedExpression("${" + expression + '}',
+				Boolean.class);
+		List<Conjunct> conjuncts = new ArrayList<Conjunct>();
+		List<String> terms = ELRuleNetwork.splitConjuncts(expression);
+		if (terms.size() > 1) {
+			Set<String> pure = new HashSet<String>(pureFunctions);
+			for (String term : terms) {
+				conjuncts.add(new Conjunct(conjuncts.size(), term, isPure(term,
+						pure)));
+			}
+		}
+		this.order = conjuncts;
+	}
+
+	public String getExpressionString() {
+		return expression;
+	}
+
+	/**
+	 * 順序を見直す間隔を設定する.<br>
+	 *
+	 * @param adaptInterval
+	 *            評価回数
+	 */
+	public void setAdaptInterval(int adaptInterval) {
+		if (adaptInterval <= 0) {
+			throw new IllegalArgumentException("adaptInterval=" + adaptInterval);
+		}
+		this.adaptInterval = adaptInterval;
+	}
+
+	public int getAdaptInterval() {
+		return adaptInterval;
+	}
+
+	/**
+	 * 現在の評価順序の項を取得する.<br>
+	 *
+	 * @return 項の一覧、分解できない式であれば式全体のみ
+	 */
+	public List<String> getConjuncts() {
+		List<String> texts = new ArrayList<String>();
+		for (Conjunct conjunct : order) {
+			texts.add(conjunct.text);
+		}
+		if (texts.isEmpty()) {
+			texts.add(expression.trim());
+		}
+		return texts;
+	}
+
+	/**
+	 * @return 元の式で評価し直した回数
+	 */
+	public int getFallbackCount() {
+		return fallbackCount;
+	}
+
+	/**
+	 * 条件式を評価する.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 条件を満たせばtrue
+	 */
+	public boolean test(SimpleELContext context) {
+		if (order.isEmpty()) {
+			return Boolean.TRUE.equals(whole.getValue(context));
+		}
+		evaluationCount++;
+		boolean timing = (evaluationCount & TIMING_MASK) == 0;
+		boolean result = true;
+		Conjunct current = null;
+		try {
+			for (Conjunct conjunct : order) {
+				current = conjunct;
+				// 最初の評価は式の解析を含むため計測しない.
+				// 計測回数が少ないうちは外れ値の影響が大きいため毎回計測する.
+				boolean timed = conjunct.evaluations > 0
+						&& (timing || conjunct.timings < MIN_TIMINGS);
+				long start = timed ? System.nanoTime() : 0;
+				boolean pass = Boolean.TRUE.equals(conjunct.expr.getValue(context));
+				if (timed) {
+					conjunct.nanos += System.nanoTime() - start;
+					conjunct.timings++;
+				}
+				conjunct.evaluations++;
+				if (!pass) {
+					result = false;
+					break;
+				}
+				conjunct.passes++;
+			}
+
+		} catch (RuntimeException ex) {
+			if (isOriginalOrder()) {
+				throw ex;
+			}
+			// 入れ替えたことで本来評価されない項が評価された可能性があるため、
+			// 元の式で評価し直し、例外となった項は以降入れ替えない.
+			fallbackCount++;
+			current.pinned = true;
+			restoreOriginalOrder();
+			result = Boolean.TRUE.equals(whole.getValue(context));
+		}
+		if (evaluationCount % adaptInterval == 0) {
+			adapt();
+		}
+		return result;
+	}
+
+	private void restoreOriginalOrder() {
+		Collections.sort(order, new Comparator<Conjunct>() {
+			@Override
+			public int compare(Conjunct o1, Conjunct o2) {
+				return o1.position - o2.position;
+			}
+		});
+	}
+
+	private boolean isOriginalOrder() {
+		for (int idx = 0; idx < order.size(); idx++) {
+			if (order.get(idx).position != idx) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 統計に基づいて評価順序を見直し、統計を減衰させる.<br>
+	 * 副作用のありうる項と例外となった項の位置は固定し、その間の副作用のない項だけを並べ替える.<br>
+	 */
+	private void adapt() {
+		restoreOriginalOrder();
+		List<Conjunct> original = new ArrayList<Conjunct>(order);
+		Comparator<Conjunct> byRank = new Comparator<Conjunct>() {
+			@Override
+			public int compare(Conjunct o1, Conjunct o2) {
+				int ret = Double.compare(o1.rank(), o2.rank());
+				return ret != 0 ? ret : o1.position - o2.position;
+			}
+		};
+		order.clear();
+		List<Conjunct> segment = new ArrayList<Conjunct>();
+		for (Conjunct conjunct : original) {
+			if (conjunct.pure && !conjunct.pinned) {
+				segment.add(conjunct);
+				continue;
+			}
+			Collections.sort(segment, byRank);
+			order.addAll(segment);
+			segment.clear();
+			order.add(conjunct);
+		}
+		Collections.sort(segment, byRank);
+		order.addAll(segment);
+
+		for (Conjunct conjunct : original) {
+			conjunct.evaluations /= 2;
+			conjunct.passes /= 2;
+			conjunct.timings /= 2;
+			conjunct.nanos /= 2;
+		}
+	}
+
+	/**
+	 * 項に副作用がないか判定する.<br>
+	 * 代入、セミコロン、ラムダ式、メソッドの呼び出し("obj.m()"および"obj['m']()"の形式)、
+	 * および純粋と宣言されていない関数の呼び出しを含む場合は副作用がありうるものとする.<br>
+	 *
+	 * @param term
+	 *            項
+	 * @param pureFunctions
+	 *            副作用のない関数の名前
+	 * @return 副作用がなければtrue
+	 */
+	static boolean isPure(String term, Set<String> pureFunctions) {
+		char quote = 0;
+		int len = term.length();
+		for (int pos = 0; pos < len; pos++) {
+			char c = term.charAt(pos);
+			if (quote != 0) {
+				if (c == '\\') {
+					pos++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (c == '\'' || c == '"') {
+				quote = c;
+
+			} else if (c == ';' || term.startsWith("->", pos)) {
+				return false;
+
+			} else if (c == '(') {
+				// "list['clear']()"や"f()()"のような、括弧の後の呼び出し
+				for (int prev = pos - 1; prev >= 0; prev--) {
+					char p = term.charAt(prev);
+					if (!Character.isWhitespace(p)) {
+						if (p == ']' || p == ')') {
+							return false;
+						}
+						break;
+					}
+				}
+
+			} else if (c == '=') {
+				char prev = pos > 0 ? term.charAt(pos - 1) : 0;
+				char next = pos + 1 < len ? term.charAt(pos + 1) : 0;
+				if (next == '=') {
+					pos++;
+				} else if (prev != '!' && prev != '<' && prev != '>'
+						&& prev != '+') {
+					// 代入 ("+="は文字列の結合)
+					return false;
+				}
+
+			} else if (Character.isJavaIdentifierStart(c)) {
+				int start = pos;
+				while (pos + 1 < len
+						&& (Character.isJavaIdentifierPart(term.charAt(pos + 1)) || term
+								.charAt(pos + 1) == ':')) {
+					pos++;
+				}
+				int next = pos + 1;
+				while (next < len && Character.isWhitespace(term.charAt(next))) {
+					next++;
+				}
+				if (next < len && term.charAt(next) == '(') {
+					boolean method = false;
+					for (int prev = start - 1; prev >= 0; prev--) {
+						char p = term.charAt(prev);
+						if (!Character.isWhitespace(p)) {
+							method = p == '.';
+							break;
+						}
+					}
+					String name = term.substring(start, pos + 1);
+					if (method
+							|| (!OPERATORS.contains(name) && !pureFunctions
+									.contains(name))) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
@@ -0,0 +1,18 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+/**
+ * 遅延して作成されたビーンを保持する範囲.<br>
+ */
+public enum BeanScope {
+
+	/**
+	 * 一度作成したビーンを、コンテキストがリセットされるか
+	 * 再定義されるまで保持する.<br>
+	 */
+	CONTEXT,
+
+	/**
+	 * 評価エポックの間だけ保持し、新しいエポックで参照されたときに作成し直す.<br>
+	 */
+	EPOCH
+}
@@ -0,0 +1,19 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+/**
+ * 遅延して作成されるビーンのファクトリ.<br>
+ * ビーンがEL式から最初に参照されたときに呼び出される.<br>
+ *
+ * @param <T>
+ *            ビーンの型
+ * @see SimpleELContext#defineLazyBean(String, BeanSupplier, BeanScope)
+ */
+public interface BeanSupplier<T> {
+
+	/**
+	 * ビーンを作成する.<br>
+	 *
+	 * @return ビーン
+	 */
+	T get();
+}
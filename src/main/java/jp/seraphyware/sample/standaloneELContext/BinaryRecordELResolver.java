@@ -0,0 +1,123 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.FeatureDescriptor;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
+
+/**
+ * RecordCursorが指しているバイナリレコードのフィールドを解決するELResolver.<br>
+ * ${rec.price}のように、カーソルを基底としてフィールド名を指定すると、
+ * スキーマに定義されたオフセットと型でバッファから直接値を読み込む.<br>
+ * レコードをビーンに変換しないため、カーソルを進めながら同じ式を評価しても
+ * レコードごとのオブジェクトは作成されない.
+ * (ただしELResolverの戻り値はObjectであるため、値のボクシングは避けられない.)<br>
+ * 代入はサポートしない.<br>
+ */
+public class BinaryRecordELResolver extends ELResolver {
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof RecordCursor) {
+			RecordCursor cursor = (RecordCursor) base;
+			context.setPropertyResolved(true);
+			return cursor.read(getField(cursor, property));
+		}
+		return null;
+	}
+
+	/**
+	 * フィールドを取得する.<br>
+	 *
+	 * @param cursor
+	 * @param property
+	 * @return フィールド
+	 * @throws PropertyNotFoundException
+	 *             フィールドが定義されていない場合
+	 */
+	private static RecordSchema.Field getField(RecordCursor cursor,
+			Object property) {
+		RecordSchema.Field field = cursor.getSchema().getField(property);
+		if (field == null) {
+			throw new PropertyNotFoundException("unknown field: " + property);
+		}
+		return field;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof RecordCursor) {
+			context.setPropertyResolved(true);
+			return getField((RecordCursor) base, property).getType()
+					.getValueType();
+		}
+		return null;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof RecordCursor) {
+			context.setPropertyResolved(true);
+			throw new PropertyNotWritableException("代入はサポートされていません/property="
+					+ property);
+		}
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof RecordCursor) {
+			context.setPropertyResolved(true);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(
+			ELContext context, Object base) {
+		if (!(base instanceof RecordCursor)) {
+			return null;
+		}
+		List<FeatureDescriptor> descriptors = new ArrayList<FeatureDescriptor>();
+		for (RecordSchema.Field field : ((RecordCursor) base).getSchema()
+				.getFields()) {
+			FeatureDescriptor desc = new FeatureDescriptor();
+			desc.setName(field.getName());
+			desc.setDisplayName(field.getName());
+			desc.setShortDescription(field.toString());
+			desc.setExpert(false);
+			desc.setHidden(false);
+			desc.setPreferred(true);
+			desc.setValue(ELResolver.TYPE, field.getType().getValueType());
+			desc.setValue(ELResolver.RESOLVABLE_AT_DESIGN_TIME, Boolean.TRUE);
+			descriptors.add(desc);
+		}
+		return descriptors.iterator();
+	}
+
+	@Override
+	public Class<?> getCommonPropertyType(ELContext context, Object base) {
+		if (base instanceof RecordCursor) {
+			return String.class;
+		}
+		return null;
+	}
+}
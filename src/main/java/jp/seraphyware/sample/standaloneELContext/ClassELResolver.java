@@ -1,12 +1,16 @@
 package jp.seraphyware.sample.standaloneELContext;
 
 import java.beans.FeatureDescriptor;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.el.ELContext;
 import javax.el.ELResolver;
@@ -23,9 +27,97 @@ import javax.el.PropertyNotWritableException;
  * そのフィールドの値を返す.<br>
  * このリゾルバが返すマーカーオブジェクトを標準のBeanELResolverが解決する前に
  * 解釈する必要があるため、ELResolverの順序は、それよりも前になければならない.<br>
+ * クラス名の検索結果(見つからなかったことも含む)はこのリゾルバのインスタンスごとに
+ * 上限までキャッシュされ、2回目以降は例外を発生させることなく解決される.
+ * クラスとクラスローダは弱参照で保持するため、キャッシュによってアンロードが妨げられることはない.<br>
+ * staticフィールドはクラスごとにキャッシュされる.<br>
+ * lenientモードのときは、存在しないクラスやフィールドはnullとして解決される.<br>
+ * (lenientモードでなければ、スタックトレースを持たないPropertyNotFoundExceptionとなる.)<br>
  */
 public class ClassELResolver extends ELResolver {
 
+	/**
+	 * キャッシュするクラスの数の既定の上限
+	 */
+	private static final int DEFAULT_MAX_CACHED_CLASSES = 256;
+
+	/**
+	 * クラス名の検索結果.<br>
+	 * クラスローダとクラスは弱参照で保持する.<br>
+	 */
+	private static final class ClassEntry {
+
+		/**
+		 * 検索に使用したクラスローダ
+		 */
+		final WeakReference<ClassLoader> loader;
+
+		/**
+		 * 見つかったクラス
+		 */
+		final WeakReference<Class<?>> cls;
+
+		ClassEntry(ClassLoader loader, Class<?> cls) {
+			this.loader = new WeakReference<ClassLoader>(loader);
+			this.cls = new WeakReference<Class<?>>(cls);
+		}
+	}
+
+	/**
+	 * キャッシュするクラス名の数の上限(見つかったもの、見つからなかったもののそれぞれ)
+	 */
+	private final int maxCachedClasses;
+
+	/**
+	 * クラス名をキーとする、見つかったクラスのキャッシュ
+	 */
+	private final ConcurrentHashMap<String, ClassEntry> classCache = new ConcurrentHashMap<String, ClassEntry>();
+
+	/**
+	 * 見つからなかったクラス名をキーとし、検索に使用したクラスローダの弱参照を値とするキャッシュ
+	 */
+	private final ConcurrentHashMap<String, WeakReference<ClassLoader>> missingCache = new ConcurrentHashMap<String, WeakReference<ClassLoader>>();
+
+	/**
+	 * クラスごとのpublicなstaticフィールドのキャッシュ.<br>
+	 * ClassValueはクラスのアンロードを妨げない.<br>
+	 */
+	private static final ClassValue<Map<String, Field>> STATIC_FIELDS = new ClassValue<Map<String, Field>>() {
+		@Override
+		protected Map<String, Field> computeValue(Class<?> cls) {
+			Map<String, Field> fields = new HashMap<String, Field>();
+			for (Field field : cls.getFields()) {
+				if (Modifier.isStatic(field.getModifiers())
+						&& !fields.containsKey(field.getName())) {
+					fields.put(field.getName(), field);
+				}
+			}
+			return fields;
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 */
+	public ClassELResolver() {
+		this(DEFAULT_MAX_CACHED_CLASSES);
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param maxCachedClasses
+	 *            キャッシュするクラス名の数の上限
+	 *            (見つかったもの、見つからなかったもののそれぞれ)
+	 */
+	public ClassELResolver(int maxCachedClasses) {
+		if (maxCachedClasses < 0) {
+			throw new IllegalArgumentException("maxCachedClasses="
+					+ maxCachedClasses);
+		}
+		this.maxCachedClasses = maxCachedClasses;
+	}
+
 	@Override
 	public Class<?> getCommonPropertyType(ELContext elContext, Object base) {
 		if (base == null) {
@@ -73,6 +165,96 @@ public class ClassELResolver extends ELResolver {
 		return null;
 	}
 
+	/**
+	 * クラスのpublicなstatic finalフィールドであるか判定する.<br>
+	 * 値が変化しないことが保証されているフィールドであるかを調べるために用いる.<br>
+	 *
+	 * @param cls
+	 *            クラス
+	 * @param name
+	 *            フィールド名
+	 * @return static finalフィールドであればtrue
+	 */
+	public static boolean isConstantField(Class<?> cls, String name) {
+		Field field = STATIC_FIELDS.get(cls).get(name);
+		return field != null && Modifier.isFinal(field.getModifiers());
+	}
+
+	/**
+	 * クラス名からクラスを検索する.<br>
+	 * 見つからなかったことも含めて上限に達するまでキャッシュされる.<br>
+	 * キャッシュしたときとクラスローダが異なる場合や、
+	 * クラスがアンロードされた場合は再検索する.<br>
+	 *
+	 * @param name
+	 *            クラス名
+	 * @param cl
+	 *            クラスローダ
+	 * @return クラス、見つからなければnull
+	 */
+	private Class<?> findClass(String name, ClassLoader cl) {
+		ClassEntry entry = classCache.get(name);
+		if (entry != null && entry.loader.get() == cl) {
+			Class<?> cls = entry.cls.get();
+			if (cls != null) {
+				return cls;
+			}
+		}
+		WeakReference<ClassLoader> missing = missingCache.get(name);
+		if (missing != null && missing.get() == cl) {
+			// 見つからなかったことがわかっているので、例外を発生させない.
+			return null;
+		}
+		Class<?> cls;
+		try {
+			cls = Class.forName(name, true, cl);
+
+		} catch (ClassNotFoundException e) {
+			// 例外は無視する.
+			if (entry != null) {
+				classCache.remove(name, entry);
+			}
+			if (missing != null || missingCache.size() < maxCachedClasses) {
+				missingCache.put(name, new WeakReference<ClassLoader>(cl));
+			}
+			return null;
+		}
+		if (missing != null) {
+			missingCache.remove(name, missing);
+		}
+		if (entry != null || classCache.size() < maxCachedClasses) {
+			classCache.put(name, new ClassEntry(cl, cls));
+		}
+		return cls;
+	}
+
+	/**
+	 * @return キャッシュしているクラスの数
+	 */
+	int getCachedClassCount() {
+		return classCache.size();
+	}
+
+	/**
+	 * @return キャッシュしている見つからなかったクラス名の数
+	 */
+	int getCachedMissingCount() {
+		return missingCache.size();
+	}
+
+	/**
+	 * クラスのpublicなstaticフィールドを取得する.<br>
+	 *
+	 * @param cls
+	 *            クラス
+	 * @param name
+	 *            フィールド名
+	 * @return フィールド、なければnull
+	 */
+	private Field findStaticField(Class<?> cls, String name) {
+		return STATIC_FIELDS.get(cls).get(name);
+	}
+
 	@Override
 	public Object getValue(ELContext elContext, Object base, Object property) {
 		if (elContext == null) {
@@ -104,34 +286,35 @@ public class ClassELResolver extends ELResolver {
 							}
 						});
 				// クラス名として索引する.
-				try {
-					Class<?> cls =  Class.forName(name, true, cl);
+				Class<?> cls = findClass(name, cl);
+				if (cls != null || LenientELResolver.isLenient(elContext)) {
 					elContext.setPropertyResolved(true);
 					return cls;
-
-				} catch (ClassNotFoundException e) {
-					// 例外は無視する.
 				}
 				// 他のELResolverを試す必要がないので、ここで例外を出す.
-				throw new PropertyNotFoundException("Undefined class name: " + name);
+				throw new StacklessPropertyNotFoundException(
+						"Undefined class name: " + name);
 			}
 
 			// フィールド名として検索する.
-			try {
-				Class<?> cls = (Class<?>) base;
-				Field field = cls.getField(name);
-				if (Modifier.isStatic(field.getModifiers())) {
+			Field field = findStaticField((Class<?>) base, name);
+			if (field != null) {
+				try {
 					Object value = field.get(null);
 					elContext.setPropertyResolved(true);
 					return value;
+
+				} catch (Exception ex) {
+					// 例外は無視する.
 				}
 
-			} catch (Exception ex) {
-				// 例外は無視する.
+			} else if (LenientELResolver.isLenient(elContext)) {
+				elContext.setPropertyResolved(true);
+				return null;
 			}
 			// 他のELResolverを試す必要がないので、ここで例外を出す.
-			throw new PropertyNotFoundException("Undefined field: " + name
-					+ "/class=" + base);
+			throw new StacklessPropertyNotFoundException("Undefined field: "
+					+ name + "/class=" + base);
 		}
 		return null; // 他のELResolverを試す.
 	}
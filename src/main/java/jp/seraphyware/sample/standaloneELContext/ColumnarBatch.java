@@ -0,0 +1,108 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 列ごとに配列で保持されたデータ(構造体の配列ではなく、配列の構造体).<br>
+ * 列名をキーとしてdouble[], long[], int[], boolean[]のいずれかの配列を登録する.
+ * すべての列は同じ行数でなければならない.<br>
+ * ColumnarExpressionで、列をまとめて評価するために用いる.<br>
+ */
+public class ColumnarBatch {
+
+	/**
+	 * 列名から列の配列へのマップ
+	 */
+	private final FlatStringMap<Object> columns = new FlatStringMap<Object>();
+
+	/**
+	 * 行数、列がなければ-1
+	 */
+	private int rowCount = -1;
+
+	public ColumnarBatch addColumn(String name, double[] column) {
+		return putColumn(name, column, column.length);
+	}
+
+	public ColumnarBatch addColumn(String name, long[] column) {
+		return putColumn(name, column, column.length);
+	}
+
+	public ColumnarBatch addColumn(String name, int[] column) {
+		return putColumn(name, column, column.length);
+	}
+
+	public ColumnarBatch addColumn(String name, boolean[] column) {
+		return putColumn(name, column, column.length);
+	}
+
+	/**
+	 * 列を登録する.<br>
+	 *
+	 * @param name
+	 *            列名
+	 * @param column
+	 *            列の配列
+	 * @param length
+	 *            配列の長さ
+	 * @return このバッチ
+	 * @throws IllegalArgumentException
+	 *             行数が他の列と異なる場合
+	 */
+	private ColumnarBatch putColumn(String name, Object column, int length) {
+		if (name == null) {
+			throw new IllegalArgumentException();
+		}
+		if (rowCount >= 0 && rowCount != length
+				&& !(columns.size() == 1 && columns.containsKey(name))) {
+			throw new IllegalArgumentException("row count mismatch: " + name
+					+ "=" + length + ", expected=" + rowCount);
+		}
+		columns.put(name, column);
+		rowCount = length;
+		return this;
+	}
+
+	/**
+	 * 列の配列を取得する.<br>
+	 *
+	 * @param name
+	 *            列名
+	 * @return 列の配列、なければnull
+	 */
+	public Object getColumn(String name) {
+		return columns.get(name);
+	}
+
+	/**
+	 * @return 列名の読み込み専用セット
+	 */
+	public Set<String> getColumnNames() {
+		return Collections.unmodifiableSet(columns.keySet());
+	}
+
+	/**
+	 * @return 行数、列がなければ0
+	 */
+	public int getRowCount() {
+		return Math.max(rowCount, 0);
+	}
+
+	/**
+	 * 指定した行の値を取得する.<br>
+	 *
+	 * @param name
+	 *            列名
+	 * @param row
+	 *            行
+	 * @return 値、列がなければnull
+	 */
+	public Object getValue(String name, int row) {
+		Object column = columns.get(name);
+		if (column == null) {
+			return null;
+		}
+		return PrimitiveArrayELResolver.get(column, row);
+	}
+}
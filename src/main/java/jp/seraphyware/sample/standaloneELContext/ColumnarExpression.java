@@ -0,0 +1,813 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.BitSet;
+
+import javax.el.PropertyNotFoundException;
+
+/**
+ * ColumnarBatchの列をまとめて評価するEL式.<br>
+ * EL式のうち、数値リテラル、列名、算術演算(+ - * / div % mod)、比較演算、
+ * 論理演算(&amp;&amp; || ! and or not)、括弧だけからなる式は、
+ * 一定の行数ごとに列の配列をまとめて処理するカーネルに変換される.
+ * 各演算は配列に対する単純なループであり、JITコンパイラによるベクトル化の対象となる.<br>
+ * それ以外の構文を含む式、および列の型が演算に合わない場合は、
+ * 1行ごとに列の値を変数として設定し、SimpleELContextで評価する.<br>
+ * カーネルでは数値はすべてdoubleとして扱うため、2^53を超えるlong値は精度が落ちる.
+ * また整数の剰余でも0除算は例外にならずNaNとなる.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class ColumnarExpression {
+
+	/**
+	 * カーネルが一度に処理する行数
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * カーネルに変換できない構文であることを示す例外
+	 */
+	private static final class UnsupportedSyntaxException extends Exception {
+
+		private static final long serialVersionUID = 2471930375580722447L;
+
+		UnsupportedSyntaxException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * カーネルの節
+	 */
+	private abstract static class Node {
+
+		/**
+		 * 評価結果が真偽値であるか判定する.<br>
+		 * 列の型が演算に合わなければ例外とする.<br>
+		 *
+		 * @param batch
+		 * @return 真偽値であればtrue、数値であればfalse
+		 * @throws UnsupportedSyntaxException
+		 */
+		abstract boolean isBoolean(ColumnarBatch batch)
+				throws UnsupportedSyntaxException;
+
+		/**
+		 * 数値として評価する.<br>
+		 *
+		 * @param batch
+		 * @param from
+		 *            開始行
+		 * @param len
+		 *            行数
+		 * @param out
+		 *            結果
+		 */
+		void evalNumber(ColumnarBatch batch, int from, int len, double[] out) {
+			throw new IllegalStateException();
+		}
+
+		/**
+		 * 真偽値として評価する.<br>
+		 *
+		 * @param batch
+		 * @param from
+		 *            開始行
+		 * @param len
+		 *            行数
+		 * @param out
+		 *            結果
+		 */
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * 数値リテラル
+	 */
+	private static final class NumberLiteral extends Node {
+
+		private final double value;
+
+		NumberLiteral(double value) {
+			this.value = value;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) {
+			return false;
+		}
+
+		@Override
+		void evalNumber(ColumnarBatch batch, int from, int len, double[] out) {
+			for (int i = 0; i < len; i++) {
+				out[i] = value;
+			}
+		}
+	}
+
+	/**
+	 * 真偽値リテラル
+	 */
+	private static final class BooleanLiteral extends Node {
+
+		private final boolean value;
+
+		BooleanLiteral(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) {
+			return true;
+		}
+
+		@Override
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			for (int i = 0; i < len; i++) {
+				out[i] = value;
+			}
+		}
+	}
+
+	/**
+	 * 列
+	 */
+	private static final class Column extends Node {
+
+		private final String name;
+
+		Column(String name) {
+			this.name = name;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) {
+			Object column = batch.getColumn(name);
+			if (column == null) {
+				throw new PropertyNotFoundException("unknown column: " + name);
+			}
+			return column instanceof boolean[];
+		}
+
+		@Override
+		void evalNumber(ColumnarBatch batch, int from, int len, double[] out) {
+			Object column = batch.getColumn(name);
+			if (column instanceof double[]) {
+				System.arraycopy(column, from, out, 0, len);
+
+			} else if (column instanceof long[]) {
+				long[] src = (long[]) column;
+				for (int i = 0; i < len; i++) {
+					out[i] = src[from + i];
+				}
+
+			} else {
+				int[] src = (int[]) column;
+				for (int i = 0; i < len; i++) {
+					out[i] = src[from + i];
+				}
+			}
+		}
+
+		@Override
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			System.arraycopy(batch.getColumn(name), from, out, 0, len);
+		}
+	}
+
+	/**
+	 * 単項演算子(- !)
+	 */
+	private static final class Unary extends Node {
+
+		private final boolean not;
+
+		private final Node operand;
+
+		Unary(boolean not, Node operand) {
+			this.not = not;
+			this.operand = operand;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) throws UnsupportedSyntaxException {
+			if (operand.isBoolean(batch) != not) {
+				throw new UnsupportedSyntaxException("type mismatch");
+			}
+			return not;
+		}
+
+		@Override
+		void evalNumber(ColumnarBatch batch, int from, int len, double[] out) {
+			operand.evalNumber(batch, from, len, out);
+			for (int i = 0; i < len; i++) {
+				out[i] = -out[i];
+			}
+		}
+
+		@Override
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			operand.evalBoolean(batch, from, len, out);
+			for (int i = 0; i < len; i++) {
+				out[i] = !out[i];
+			}
+		}
+	}
+
+	/**
+	 * 算術演算子
+	 */
+	private static final class Arithmetic extends Node {
+
+		private final char op;
+
+		private final Node left;
+
+		private final Node right;
+
+		private final double[] tmp = new double[CHUNK_SIZE];
+
+		Arithmetic(char op, Node left, Node right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) throws UnsupportedSyntaxException {
+			if (left.isBoolean(batch) || right.isBoolean(batch)) {
+				throw new UnsupportedSyntaxException("type mismatch");
+			}
+			return false;
+		}
+
+		@Override
+		void evalNumber(ColumnarBatch batch, int from, int len, double[] out) {
+			left.evalNumber(batch, from, len, out);
+			right.evalNumber(batch, from, len, tmp);
+			switch (op) {
+			case '+':
+				for (int i = 0; i < len; i++) {
+					out[i] += tmp[i];
+				}
+				break;
+			case '-':
+				for (int i = 0; i < len; i++) {
+					out[i] -= tmp[i];
+				}
+				break;
+			case '*':
+				for (int i = 0; i < len; i++) {
+					out[i] *= tmp[i];
+				}
+				break;
+			case '/':
+				for (int i = 0; i < len; i++) {
+					out[i] /= tmp[i];
+				}
+				break;
+			default:
+				for (int i = 0; i < len; i++) {
+					out[i] %= tmp[i];
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 比較演算子
+	 */
+	private static final class Comparison extends Node {
+
+		/**
+		 * 演算子("&lt;", "&gt;", "&lt;=", "&gt;=", "==", "!=")
+		 */
+		private final String op;
+
+		private final Node left;
+
+		private final Node right;
+
+		private final double[] lhs = new double[CHUNK_SIZE];
+
+		private final double[] rhs = new double[CHUNK_SIZE];
+
+		Comparison(String op, Node left, Node right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) throws UnsupportedSyntaxException {
+			if (left.isBoolean(batch) || right.isBoolean(batch)) {
+				throw new UnsupportedSyntaxException("type mismatch");
+			}
+			return true;
+		}
+
+		@Override
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			left.evalNumber(batch, from, len, lhs);
+			right.evalNumber(batch, from, len, rhs);
+			if (op.equals("<")) {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] < rhs[i];
+				}
+			} else if (op.equals(">")) {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] > rhs[i];
+				}
+			} else if (op.equals("<=")) {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] <= rhs[i];
+				}
+			} else if (op.equals(">=")) {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] >= rhs[i];
+				}
+			} else if (op.equals("==")) {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] == rhs[i];
+				}
+			} else {
+				for (int i = 0; i < len; i++) {
+					out[i] = lhs[i] != rhs[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * 論理演算子.<br>
+	 * 副作用がないため、両辺を常に評価する.<br>
+	 */
+	private static final class Logical extends Node {
+
+		private final boolean and;
+
+		private final Node left;
+
+		private final Node right;
+
+		private final boolean[] tmp = new boolean[CHUNK_SIZE];
+
+		Logical(boolean and, Node left, Node right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean isBoolean(ColumnarBatch batch) throws UnsupportedSyntaxException {
+			if (!left.isBoolean(batch) || !right.isBoolean(batch)) {
+				throw new UnsupportedSyntaxException("type mismatch");
+			}
+			return true;
+		}
+
+		@Override
+		void evalBoolean(ColumnarBatch batch, int from, int len, boolean[] out) {
+			left.evalBoolean(batch, from, len, out);
+			right.evalBoolean(batch, from, len, tmp);
+			if (and) {
+				for (int i = 0; i < len; i++) {
+					out[i] &= tmp[i];
+				}
+			} else {
+				for (int i = 0; i < len; i++) {
+					out[i] |= tmp[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * EL式の部分集合の構文解析器
+	 */
+	private static final class Parser {
+
+		private final String text;
+
+		private int pos;
+
+		/**
+		 * 現在の字句
+		 */
+		private String token;
+
+		/**
+		 * 現在の字句が数値であるか?
+		 */
+		private boolean number;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Node parse() throws UnsupportedSyntaxException {
+			next();
+			Node node = parseOr();
+			if (token != null) {
+				throw new UnsupportedSyntaxException(token);
+			}
+			return node;
+		}
+
+		private void next() throws UnsupportedSyntaxException {
+			int len = text.length();
+			while (pos < len && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+			number = false;
+			if (pos >= len) {
+				token = null;
+				return;
+			}
+			int start = pos;
+			char c = text.charAt(pos);
+			if (Character.isDigit(c) || c == '.') {
+				while (pos < len
+						&& (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+					pos++;
+				}
+				if (pos < len && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+					pos++;
+					if (pos < len && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+						pos++;
+					}
+					while (pos < len && Character.isDigit(text.charAt(pos))) {
+						pos++;
+					}
+				}
+				number = true;
+
+			} else if (Character.isJavaIdentifierStart(c)) {
+				while (pos < len && Character.isJavaIdentifierPart(text.charAt(pos))) {
+					pos++;
+				}
+
+			} else {
+				String[] ops = { "&&", "||", "<=", ">=", "==", "!=", "<", ">",
+						"+", "-", "*", "/", "%", "!", "(", ")" };
+				for (String op : ops) {
+					if (text.startsWith(op, pos)) {
+						pos += op.length();
+						token = op;
+						return;
+					}
+				}
+				throw new UnsupportedSyntaxException(String.valueOf(c));
+			}
+			token = text.substring(start, pos);
+		}
+
+		private boolean accept(String... candidates) {
+			if (token == null || number) {
+				return false;
+			}
+			for (String candidate : candidates) {
+				if (token.equals(candidate)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private Node parseOr() throws UnsupportedSyntaxException {
+			Node node = parseAnd();
+			while (accept("||", "or")) {
+				next();
+				node = new Logical(false, node, parseAnd());
+			}
+			return node;
+		}
+
+		private Node parseAnd() throws UnsupportedSyntaxException {
+			Node node = parseEquality();
+			while (accept("&&", "and")) {
+				next();
+				node = new Logical(true, node, parseEquality());
+			}
+			return node;
+		}
+
+		private Node parseEquality() throws UnsupportedSyntaxException {
+			Node node = parseRelational();
+			while (accept("==", "eq", "!=", "ne")) {
+				String op = token.equals("==") || token.equals("eq") ? "==" : "!=";
+				next();
+				node = new Comparison(op, node, parseRelational());
+			}
+			return node;
+		}
+
+		private Node parseRelational() throws UnsupportedSyntaxException {
+			Node node = parseAdditive();
+			while (accept("<", "lt", ">", "gt", "<=", "le", ">=", "ge")) {
+				String op;
+				if (token.equals("lt")) {
+					op = "<";
+				} else if (token.equals("gt")) {
+					op = ">";
+				} else if (token.equals("le")) {
+					op = "<=";
+				} else if (token.equals("ge")) {
+					op = ">=";
+				} else {
+					op = token;
+				}
+				next();
+				node = new Comparison(op, node, parseAdditive());
+			}
+			return node;
+		}
+
+		private Node parseAdditive() throws UnsupportedSyntaxException {
+			Node node = parseMultiplicative();
+			while (accept("+", "-")) {
+				char op = token.charAt(0);
+				next();
+				node = new Arithmetic(op, node, parseMultiplicative());
+			}
+			return node;
+		}
+
+		private Node parseMultiplicative() throws UnsupportedSyntaxException {
+			Node node = parseUnary();
+			while (accept("*", "/", "div", "%", "mod")) {
+				char op;
+				if (token.equals("div")) {
+					op = '/';
+				} else if (token.equals("mod")) {
+					op = '%';
+				} else {
+					op = token.charAt(0);
+				}
+				next();
+				node = new Arithmetic(op, node, parseUnary());
+			}
+			return node;
+		}
+
+		private Node parseUnary() throws UnsupportedSyntaxException {
+			if (accept("-")) {
+				next();
+				return new Unary(false, parseUnary());
+			}
+			if (accept("!", "not")) {
+				next();
+				return new Unary(true, parseUnary());
+			}
+			return parsePrimary();
+		}
+
+		private Node parsePrimary() throws UnsupportedSyntaxException {
+			if (token == null) {
+				throw new UnsupportedSyntaxException("unexpected end");
+			}
+			if (number) {
+				double value;
+				try {
+					value = Double.parseDouble(token);
+
+				} catch (NumberFormatException ex) {
+					throw new UnsupportedSyntaxException(token);
+				}
+				next();
+				return new NumberLiteral(value);
+			}
+			if (accept("(")) {
+				next();
+				Node node = parseOr();
+				if (!accept(")")) {
+					throw new UnsupportedSyntaxException("missing )");
+				}
+				next();
+				return node;
+			}
+			if (accept("true", "false")) {
+				boolean value = token.equals("true");
+				next();
+				return new BooleanLiteral(value);
+			}
+			if (Character.isJavaIdentifierStart(token.charAt(0))
+					&& !isReserved(token)) {
+				String name = token;
+				next();
+				if (accept("(")) {
+					// 関数呼び出し
+					throw new UnsupportedSyntaxException(name);
+				}
+				return new Column(name);
+			}
+			throw new UnsupportedSyntaxException(token);
+		}
+
+		private static boolean isReserved(String word) {
+			String[] reserved = { "and", "or", "not", "eq", "ne", "lt", "gt",
+					"le", "ge", "div", "mod", "true", "false", "null", "empty",
+					"instanceof" };
+			for (String r : reserved) {
+				if (r.equals(word)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * EL式(${}を含まない)
+	 */
+	private final String expression;
+
+	/**
+	 * カーネル、変換できない式であればnull
+	 */
+	private final Node kernel;
+
+	/**
+	 * 1行ごとに評価するためのコンテキスト
+	 */
+	private SimpleELContext fallbackContext;
+
+	/**
+	 * 1行ごとに評価するための式
+	 */
+	private PreparedExpression fallbackExpression;
+
+	/**
+	 * 最後の評価をカーネルで行ったか?
+	 */
+	private boolean vectorized;
+
+	/**
+	 * コンストラクタ.<br>
+	 * 1行ごとに評価する場合は、新しいSimpleELContextを使用する.<br>
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 */
+	public ColumnarExpression(String expression) {
+		this(expression, null);
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param fallbackContext
+	 *            1行ごとに評価する場合のコンテキスト、nullの場合は新しく作成する.
+	 *            列の値はこのコンテキストの変数として設定される.
+	 */
+	public ColumnarExpression(String expression, SimpleELContext fallbackContext) {
+		if (expression == null) {
+			throw new IllegalArgumentException();
+		}
+		this.expression = expression;
+		this.fallbackContext = fallbackContext;
+		Node node;
+		try {
+			node = new Parser(expression).parse();
+
+		} catch (UnsupportedSyntaxException ex) {
+			node = null;
+		}
+		this.kernel = node;
+	}
+
+	public String getExpressionString() {
+		return expression;
+	}
+
+	/**
+	 * 式全体をカーネルに変換できたか判定する.<br>
+	 * 変換できていても、列の型が演算に合わない場合は1行ごとに評価される.<br>
+	 *
+	 * @return 変換できていればtrue
+	 */
+	public boolean isCompiled() {
+		return kernel != null;
+	}
+
+	/**
+	 * 最後の評価をカーネルで行ったか判定する.<br>
+	 *
+	 * @return カーネルで評価した場合はtrue、1行ごとに評価した場合はfalse
+	 */
+	public boolean isVectorized() {
+		return vectorized;
+	}
+
+	/**
+	 * 式の評価結果の型がカーネルで扱えるか判定する.<br>
+	 *
+	 * @param batch
+	 * @param expectBoolean
+	 *            真偽値を期待する場合はtrue
+	 * @return カーネルで評価できればtrue
+	 */
+	private boolean canVectorize(ColumnarBatch batch, boolean expectBoolean) {
+		if (kernel == null) {
+			return false;
+		}
+		try {
+			return kernel.isBoolean(batch) == expectBoolean;
+
+		} catch (UnsupportedSyntaxException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * 条件式としてすべての行を評価し、真となった行のビットを立てる.<br>
+	 *
+	 * @param batch
+	 *            列データ
+	 * @return 真となった行のビットマップ
+	 */
+	public BitSet filter(ColumnarBatch batch) {
+		int rowCount = batch.getRowCount();
+		BitSet result = new BitSet(rowCount);
+		vectorized = canVectorize(batch, true);
+		if (vectorized) {
+			boolean[] out = new boolean[CHUNK_SIZE];
+			for (int from = 0; from < rowCount; from += CHUNK_SIZE) {
+				int len = Math.min(CHUNK_SIZE, rowCount - from);
+				kernel.evalBoolean(batch, from, len, out);
+				for (int i = 0; i < len; i++) {
+					if (out[i]) {
+						result.set(from + i);
+					}
+				}
+			}
+		} else {
+			for (int row = 0; row < rowCount; row++) {
+				if (Boolean.TRUE.equals(evaluateRow(batch, row, Boolean.class))) {
+					result.set(row);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 数式としてすべての行を評価する.<br>
+	 *
+	 * @param batch
+	 *            列データ
+	 * @return 行ごとの評価結果
+	 */
+	public double[] evaluate(ColumnarBatch batch) {
+		int rowCount = batch.getRowCount();
+		double[] result = new double[rowCount];
+		vectorized = canVectorize(batch, false);
+		if (vectorized) {
+			double[] out = new double[CHUNK_SIZE];
+			for (int from = 0; from < rowCount; from += CHUNK_SIZE) {
+				int len = Math.min(CHUNK_SIZE, rowCount - from);
+				kernel.evalNumber(batch, from, len, out);
+				System.arraycopy(out, 0, result, from, len);
+			}
+		} else {
+			for (int row = 0; row < rowCount; row++) {
+				Object value = evaluateRow(batch, row, Double.class);
+				result[row] = value != null ? ((Number) value).doubleValue()
+						: Double.NaN;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 1行分の列の値を変数に設定してEL式を評価する.<br>
+	 *
+	 * @param batch
+	 * @param row
+	 * @param expectedType
+	 * @return 評価結果
+	 */
+	private Object evaluateRow(ColumnarBatch batch, int row,
+			Class<?> expectedType) {
+		if (fallbackContext == null) {
+			fallbackContext = new SimpleELContext();
+		}
+		if (fallbackExpression == null
+				|| fallbackExpression.getExpectedType() != expectedType) {
+			fallbackExpression = fallbackContext.prepare(expression, expectedType);
+		}
+		for (String name : batch.getColumnNames()) {
+			fallbackContext.setVariable(name, batch.getValue(name, row));
+		}
+		return fallbackExpression.getValue(fallbackContext);
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
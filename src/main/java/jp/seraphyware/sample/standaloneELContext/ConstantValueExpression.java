@@ -0,0 +1,107 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import javax.el.ELContext;
+import javax.el.PropertyNotWritableException;
+import javax.el.ValueExpression;
+
+/**
+ * 定数を保持するだけの軽量なValueExpression.<br>
+ * ExpressionFactory#createValueExpression(Object, Class)の代わりに、
+ * VariableMapperに変数の値を設定するために用いる.<br>
+ * 型変換は行わず、保持している値をそのまま返す.<br>
+ * 保持している値はset(Object)で差し替えることができ、
+ * このValueExpressionを取り込んで作成済みのEL式からも差し替えた値が参照される.<br>
+ * EL式からの代入はできない.<br>
+ */
+public class ConstantValueExpression extends ValueExpression {
+
+	private static final long serialVersionUID = -6305869711236446271L;
+
+	/**
+	 * 保持している値
+	 */
+	private Object value;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param value
+	 *            値
+	 */
+	public ConstantValueExpression(Object value) {
+		this.value = value;
+	}
+
+	/**
+	 * 保持している値を取得する.<br>
+	 *
+	 * @return 値
+	 */
+	public Object get() {
+		return value;
+	}
+
+	/**
+	 * 保持している値を差し替える.<br>
+	 *
+	 * @param value
+	 *            新しい値
+	 */
+	public void set(Object value) {
+		this.value = value;
+	}
+
+	@Override
+	public Object getValue(ELContext context) {
+		return value;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object value) {
+		throw new PropertyNotWritableException("代入はサポートされていません/value="
+				+ this.value);
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context) {
+		return true;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context) {
+		return value != null ? value.getClass() : null;
+	}
+
+	@Override
+	public Class<?> getExpectedType() {
+		return Object.class;
+	}
+
+	@Override
+	public String getExpressionString() {
+		return value != null ? value.toString() : null;
+	}
+
+	@Override
+	public boolean isLiteralText() {
+		return true;
+	}
+
+	/**
+	 * 値は差し替えられるため、同一のインスタンスのみ等しいものとする.<br>
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return this == obj;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ConstantValueExpression[" + value + "]";
+	}
+}
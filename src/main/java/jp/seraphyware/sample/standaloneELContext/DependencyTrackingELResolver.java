@@ -0,0 +1,172 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.FeatureDescriptor;
+import java.util.Iterator;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+
+/**
+ * SimpleELContextのELResolverの前段に置かれ、
+ * 評価中に参照されたルート要素の名前とプロパティを記録し、
+ * ルート要素への代入をコンテキストに通知するELResolver.<br>
+ * 評価パスが設定されている場合は、解決済みのプロパティの値を再利用する.<br>
+ * インラインキャッシュが設定されている場合は、キャッシュされたアクセサで解決する.<br>
+ * 解決そのものはすべて委譲先のELResolverが行う.<br>
+ * ELResolverに渡されるELContextはEL実装によってラップされている場合があるため、
+ * 所有者となるSimpleELContextを直接保持する.<br>
+ */
+class DependencyTrackingELResolver extends ELResolver {
+
+	/**
+	 * 所有者であるコンテキスト
+	 */
+	private final SimpleELContext owner;
+
+	/**
+	 * 委譲先のELResolver
+	 */
+	private final ELResolver delegate;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param owner
+	 *            このELResolverを所有するコンテキスト
+	 * @param delegate
+	 *            委譲先のELResolver
+	 */
+	public DependencyTrackingELResolver(SimpleELContext owner, ELResolver delegate) {
+		if (owner == null || delegate == null) {
+			throw new IllegalArgumentException();
+		}
+		this.owner = owner;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		ELDependencies deps = owner.getRecorder();
+		ELEvaluationPass pass = owner.getPass();
+		ELInlineCache cache = owner.getInlineCache();
+		if (deps == null && pass == null && cache == null) {
+			return delegate.getValue(context, base, property);
+		}
+		if (deps != null && base == null && property instanceof String) {
+			// 未定義のルート要素であっても、後で定義されたときに
+			// 変更として検出できるように名前を記録しておく.
+			deps.addIdentifier((String) property);
+		}
+		Object value;
+		if (pass != null && pass.isShared(property)) {
+			// 評価パス中に解決済みであれば、その値を再利用する.
+			value = pass.get(base, property);
+			if (value != ELEvaluationPass.NOT_FOUND) {
+				context.setPropertyResolved(true);
+
+			} else {
+				value = resolve(context, base, property, cache);
+				if (context.isPropertyResolved()) {
+					pass.put(base, property, value);
+				}
+			}
+
+		} else {
+			value = resolve(context, base, property, cache);
+		}
+		if (deps != null && context.isPropertyResolved()) {
+			deps.addResolved(base, property, value);
+		}
+		return value;
+	}
+
+	/**
+	 * インラインキャッシュがあれば、キャッシュされたアクセサで解決する.<br>
+	 * キャッシュされていなければ委譲先のELResolverで解決し、そのアクセサをキャッシュする.<br>
+	 *
+	 * @param context
+	 * @param base
+	 * @param property
+	 * @param cache
+	 *            インラインキャッシュ、なければnull
+	 * @return 値
+	 */
+	private Object resolve(ELContext context, Object base, Object property,
+			ELInlineCache cache) {
+		if (cache == null || base == null) {
+			return delegate.getValue(context, base, property);
+		}
+		Object value = cache.get(base, property);
+		if (value != ELInlineCache.NOT_CACHED) {
+			context.setPropertyResolved(true);
+			return value;
+		}
+		value = delegate.getValue(context, base, property);
+		if (context.isPropertyResolved()) {
+			cache.learn(base, property, value);
+		}
+		return value;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context, Object base, Object property) {
+		return delegate.getType(context, base, property);
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		delegate.setValue(context, base, property, value);
+		ELDependencies deps = owner.getRecorder();
+		if (deps != null) {
+			deps.addSideEffect();
+		}
+		ELEvaluationPass pass = owner.getPass();
+		if (pass != null) {
+			// 代入によって解決済みの値が変化している可能性がある.
+			pass.clear();
+		}
+		if (base == null && property instanceof String
+				&& context.isPropertyResolved()) {
+			// ルート要素への代入を変更として通知する.
+			owner.touch((String) property);
+		}
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context, Object base, Object property) {
+		return delegate.isReadOnly(context, base, property);
+	}
+
+	@Override
+	public Object invoke(ELContext context, Object base, Object method,
+			Class<?>[] paramTypes, Object[] params) {
+		Object ret = delegate.invoke(context, base, method, paramTypes, params);
+		ELDependencies deps = owner.getRecorder();
+		if (deps != null) {
+			deps.addSideEffect();
+		}
+		ELEvaluationPass pass = owner.getPass();
+		if (pass != null) {
+			// メソッドによって解決済みの値が変化している可能性がある.
+			pass.clear();
+		}
+		return ret;
+	}
+
+	@Override
+	public Object convertToType(ELContext context, Object obj, Class<?> targetType) {
+		return delegate.convertToType(context, obj, targetType);
+	}
+
+	@Override
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context,
+			Object base) {
+		return delegate.getFeatureDescriptors(context, base);
+	}
+
+	@Override
+	public Class<?> getCommonPropertyType(ELContext context, Object base) {
+		return delegate.getCommonPropertyType(context, base);
+	}
+}
@@ -0,0 +1,28 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+/**
+ * 非同期に評価したEL式の結果を受け取るコールバック.<br>
+ * 評価を実行したスレッドから呼び出される.<br>
+ *
+ * @param <T>
+ *            評価結果の型
+ * @see ELAsyncEvaluator
+ */
+public interface ELAsyncCallback<T> {
+
+	/**
+	 * 評価が成功した場合に呼び出される.<br>
+	 *
+	 * @param value
+	 *            評価結果
+	 */
+	void onSuccess(T value);
+
+	/**
+	 * 評価が例外となった場合、または取り消された場合に呼び出される.<br>
+	 *
+	 * @param cause
+	 *            評価中に発生した例外、取り消された場合はCancellationException
+	 */
+	void onFailure(Throwable cause);
+}
@@ -0,0 +1,244 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * EL式を非同期に評価するクラス.<br>
+ * 評価ごとにプールからSimpleELContextを借り出し、指定されたビーンを定義して評価し、
+ * 評価が終わるとリセットしてプールに返却する.
+ * そのため、ビーン、変数、リスナなどのコンテキストの状態が評価の間で共有されることはない.<br>
+ * 評価結果はFutureとして返され、コールバックを指定した場合は評価を実行したスレッドから通知される.<br>
+ * ブロックするELResolverや関数を用いる場合に備え、
+ * 仮想スレッドをサポートするJDKであれば、タスクごとに仮想スレッドで実行するExecutorを作成できる.<br>
+ * このクラスはスレッドセーフである.<br>
+ *
+ * @see #newTaskExecutor()
+ */
+public class ELAsyncEvaluator {
+
+	/**
+	 * 評価に用いるコンテキストのプール
+	 */
+	private final SimpleELContextPool pool;
+
+	/**
+	 * 評価を実行するExecutor
+	 */
+	private final Executor executor;
+
+	/**
+	 * 評価のタスク.<br>
+	 * 完了時にコールバックに通知する.<br>
+	 *
+	 * @param <T>
+	 *            評価結果の型
+	 */
+	private static final class EvaluationTask<T> extends FutureTask<T> {
+
+		private final ELAsyncCallback<? super T> callback;
+
+		EvaluationTask(Callable<T> callable, ELAsyncCallback<? super T> callback) {
+			super(callable);
+			this.callback = callback;
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null) {
+				return;
+			}
+			T value;
+			try {
+				value = get();
+
+			} catch (ExecutionException ex) {
+				callback.onFailure(ex.getCause());
+				return;
+
+			} catch (CancellationException ex) {
+				callback.onFailure(ex);
+				return;
+
+			} catch (InterruptedException ex) {
+				// 完了後に呼び出されるため待機することはない.
+				Thread.currentThread().interrupt();
+				return;
+			}
+			callback.onSuccess(value);
+		}
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param pool
+	 *            評価に用いるコンテキストのプール
+	 * @param executor
+	 *            評価を実行するExecutor
+	 */
+	public ELAsyncEvaluator(SimpleELContextPool pool, Executor executor) {
+		if (pool == null || executor == null) {
+			throw new IllegalArgumentException();
+		}
+		this.pool = pool;
+		this.executor = executor;
+	}
+
+	public SimpleELContextPool getPool() {
+		return pool;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * EL式を非同期に評価する.<br>
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 * @param beans
+	 *            評価に用いるビーン名とビーン、なければnull
+	 * @return 評価結果のFuture
+	 */
+	public <T> Future<T> submit(String expression, Class<T> expectedType,
+			Map<String, ?> beans) {
+		return submit(expression, expectedType, beans, null);
+	}
+
+	/**
+	 * EL式を非同期に評価し、結果をコールバックに通知する.<br>
+	 * ビーンのマップは評価を開始する時点の内容が定義される.<br>
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 * @param beans
+	 *            評価に用いるビーン名とビーン、なければnull
+	 * @param callback
+	 *            結果を受け取るコールバック、なければnull
+	 * @return 評価結果のFuture
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             Executorが評価を受け付けなかった場合
+	 */
+	public <T> Future<T> submit(final String expression,
+			final Class<T> expectedType, Map<String, ?> beans,
+			ELAsyncCallback<? super T> callback) {
+		if (expression == null || expectedType == null) {
+			throw new IllegalArgumentException();
+		}
+		final Map<String, ?> definitions = beans != null ? beans : Collections
+				.<String, Object> emptyMap();
+		EvaluationTask<T> task = new EvaluationTask<T>(new Callable<T>() {
+			@Override
+			public T call() {
+				return evaluate(expression, expectedType, definitions);
+			}
+		}, callback);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * プールから借り出したコンテキストで評価する.<br>
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 * @param beans
+	 *            評価に用いるビーン名とビーン
+	 * @return 評価結果
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T evaluate(String expression, Class<T> expectedType,
+			Map<String, ?> beans) {
+		SimpleELContext context = pool.borrow();
+		try {
+			for (Map.Entry<String, ?> entry : beans.entrySet()) {
+				context.defineBean(entry.getKey(), entry.getValue());
+			}
+			return (T) context.getValue(expression, expectedType);
+
+		} finally {
+			pool.release(context);
+		}
+	}
+
+	/**
+	 * 評価に適したExecutorServiceを作成する.<br>
+	 * 仮想スレッドをサポートするJDKであれば、タスクごとに仮想スレッドを作成するものとなり、
+	 * そうでなければ、必要に応じてデーモンスレッドを作成して再利用するものとなる.<br>
+	 * 不要になったらshutdownすること.<br>
+	 *
+	 * @return ExecutorService
+	 * @see #isVirtualThreadSupported()
+	 */
+	public static ExecutorService newTaskExecutor() {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor != null) {
+			return executor;
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "el-async");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 仮想スレッドを使用できるか判定する.<br>
+	 *
+	 * @return 使用できればtrue
+	 */
+	public static boolean isVirtualThreadSupported() {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor == null) {
+			return false;
+		}
+		executor.shutdown();
+		return true;
+	}
+
+	/**
+	 * リフレクションでExecutors.newVirtualThreadPerTaskExecutor()を呼び出す.<br>
+	 * メソッドが存在しないJDKや、プレビュー機能が有効でない場合はnullを返す.<br>
+	 *
+	 * @return ExecutorService、使用できなければnull
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+
+		} catch (NoSuchMethodException ex) {
+			return null;
+
+		} catch (IllegalAccessException ex) {
+			return null;
+
+		} catch (InvocationTargetException ex) {
+			// プレビュー機能が有効でない場合はUnsupportedOperationException
+			return null;
+		}
+	}
+}
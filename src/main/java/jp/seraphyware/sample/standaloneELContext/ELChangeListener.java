@@ -0,0 +1,19 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.EventListener;
+
+/**
+ * SimpleELContextのビーンまたは変数が変更されたことを受け取るリスナ.<br>
+ */
+public interface ELChangeListener extends EventListener {
+
+	/**
+	 * ビーンまたは変数が変更されたことを通知する.<br>
+	 *
+	 * @param context
+	 *            変更されたコンテキスト
+	 * @param name
+	 *            変更されたビーン名または変数名
+	 */
+	void changed(SimpleELContext context, String name);
+}
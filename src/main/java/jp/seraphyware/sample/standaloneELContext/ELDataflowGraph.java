@@ -0,0 +1,435 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.el.ELException;
+
+/**
+ * EL式で定義された派生値を、依存するビーンの変更に追従して再計算するデータフローグラフ.<br>
+ * 派生値は名前をつけて定義され、その評価結果はコンテキストのビーンとして公開されるため、
+ * 他の派生値の式から名前で参照することができる.<br>
+ * SimpleELContextのAPIを通じてビーンが変更されると、
+ * その変更に依存する派生値のみが依存順(トポロジカル順)に再計算され、
+ * 値が変化した派生値がリスナに通知される.<br>
+ * 依存関係は評価のたびに記録し直されるため、条件によって参照先が変わる式にも追従する.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class ELDataflowGraph {
+
+	/**
+	 * 派生値の変化を受け取るリスナ
+	 */
+	public interface Listener extends EventListener {
+
+		/**
+		 * 派生値が変化したことを通知する.<br>
+		 *
+		 * @param name
+		 *            派生値の名前
+		 * @param oldValue
+		 *            変化前の値
+		 * @param newValue
+		 *            変化後の値
+		 */
+		void valueChanged(String name, Object oldValue, Object newValue);
+	}
+
+	/**
+	 * 派生値のノード
+	 */
+	private static final class Node {
+
+		private final String name;
+
+		private final PreparedExpression expression;
+
+		/**
+		 * 現在の依存先(ビーン名・変数名)
+		 */
+		private Set<String> inputs = new HashSet<String>();
+
+		private Object value;
+
+		Node(String name, PreparedExpression expression) {
+			this.name = name;
+			this.expression = expression;
+		}
+	}
+
+	/**
+	 * 対象とするコンテキスト
+	 */
+	private final SimpleELContext context;
+
+	/**
+	 * 派生値の名前をキーとするノード
+	 */
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	/**
+	 * 依存先の名前をキーとし、それに依存するノードを値とする逆引き表
+	 */
+	private final Map<String, Set<Node>> dependents = new HashMap<String, Set<Node>>();
+
+	/**
+	 * リスナ
+	 */
+	private final List<Listener> listeners = new ArrayList<Listener>();
+
+	/**
+	 * 伝搬待ちの変更された名前
+	 */
+	private Set<String> pending = new LinkedHashSet<String>();
+
+	/**
+	 * 伝搬中であるか?
+	 */
+	private boolean propagating;
+
+	/**
+	 * 派生値をビーンとして公開中であるか?
+	 */
+	private boolean publishing;
+
+	/**
+	 * 再計算した回数
+	 */
+	private long recomputeCount;
+
+	/**
+	 * コンテキストの変更を受け取るリスナ
+	 */
+	private final ELChangeListener changeListener = new ELChangeListener() {
+		@Override
+		public void changed(SimpleELContext context, String name) {
+			if (!publishing) {
+				propagate(name);
+			}
+		}
+	};
+
+	/**
+	 * コンストラクタ.<br>
+	 * コンテキストに変更リスナを登録する.<br>
+	 *
+	 * @param context
+	 *            対象とするコンテキスト
+	 */
+	public ELDataflowGraph(SimpleELContext context) {
+		if (context == null) {
+			throw new IllegalArgumentException();
+		}
+		this.context = context;
+		context.addChangeListener(changeListener);
+	}
+
+	/**
+	 * コンテキストから変更リスナを解除し、グラフを使用しないようにする.<br>
+	 * 公開済みのビーンはそのまま残る.<br>
+	 */
+	public void close() {
+		context.removeChangeListener(changeListener);
+	}
+
+	public SimpleELContext getContext() {
+		return context;
+	}
+
+	public void addListener(Listener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * 派生値を定義する.<br>
+	 * 定義と同時に評価され、その値が同名のビーンとして公開される.<br>
+	 * 他の派生値を参照する場合は、参照先を先に定義しておく必要がある.<br>
+	 *
+	 * @param name
+	 *            派生値の名前
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 */
+	public void define(String name, String expression, Class<?> expectedType) {
+		if (name == null || expression == null || expectedType == null) {
+			throw new IllegalArgumentException();
+		}
+		remove(name);
+		Node node = new Node(name, context.prepare(expression, expectedType));
+		nodes.put(name, node);
+		recompute(node);
+		// 再定義の場合に、この派生値に依存するものへ伝搬させるため通常の変更として通知する.
+		context.defineBean(name, node.value);
+	}
+
+	/**
+	 * 派生値の定義を削除する.<br>
+	 * 公開済みのビーンはそのまま残る.<br>
+	 *
+	 * @param name
+	 *            派生値の名前
+	 */
+	public void remove(String name) {
+		Node node = nodes.remove(name);
+		if (node != null) {
+			unlink(node);
+		}
+	}
+
+	/**
+	 * 派生値の現在の値を取得する.<br>
+	 *
+	 * @param name
+	 *            派生値の名前
+	 * @return 値、定義されていなければnull
+	 */
+	public Object getValue(String name) {
+		Node node = nodes.get(name);
+		return node != null ? node.value : null;
+	}
+
+	/**
+	 * 派生値の最後の評価時の依存関係を取得する.<br>
+	 *
+	 * @param name
+	 *            派生値の名前
+	 * @return 依存関係、定義されていなければnull
+	 */
+	public ELDependencies getDependencies(String name) {
+		Node node = nodes.get(name);
+		return node != null ? node.expression.getDependencies() : null;
+	}
+
+	/**
+	 * @return 定義されている派生値の名前
+	 */
+	public Set<String> getNames() {
+		return nodes.keySet();
+	}
+
+	/**
+	 * @return これまでに再計算した回数
+	 */
+	public long getRecomputeCount() {
+		return recomputeCount;
+	}
+
+	/**
+	 * 変更を伝搬する.<br>
+	 * 伝搬中に発生した変更は、現在の伝搬が完了したあとに続けて伝搬される.<br>
+	 *
+	 * @param name
+	 *            変更された名前
+	 */
+	private void propagate(String name) {
+		pending.add(name);
+		if (propagating) {
+			return;
+		}
+		propagating = true;
+		try {
+			while (!pending.isEmpty()) {
+				Set<String> changed = pending;
+				pending = new LinkedHashSet<String>();
+				propagate(changed);
+			}
+
+		} finally {
+			propagating = false;
+			pending.clear();
+		}
+	}
+
+	/**
+	 * 変更された名前の集合から、影響を受けるノードを依存順に再計算する.<br>
+	 * 依存先がいずれも実際には変化しなかったノードは再計算しない.<br>
+	 *
+	 * @param changed
+	 *            変更された名前
+	 */
+	private void propagate(Set<String> changed) {
+		List<Node> order = sortAffected(changed);
+		Set<String> modified = new HashSet<String>(changed);
+		for (Node node : order) {
+			if (!intersects(node.inputs, modified)) {
+				continue;
+			}
+			Object oldValue = node.value;
+			recompute(node);
+			if (!equals(oldValue, node.value)) {
+				modified.add(node.name);
+				publish(node);
+				for (Listener listener : listeners) {
+					listener.valueChanged(node.name, oldValue, node.value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 変更によって影響を受ける可能性のあるノードを、依存順に並べて返す.<br>
+	 *
+	 * @param changed
+	 *            変更された名前
+	 * @return 依存先が先になるように並べたノードのリスト
+	 * @throws ELException
+	 *             循環参照がある場合
+	 */
+	private List<Node> sortAffected(Set<String> changed) {
+		// 影響を受けるノードを収集する.
+		Set<Node> affected = new LinkedHashSet<Node>();
+		Deque<String> queue = new ArrayDeque<String>(changed);
+		while (!queue.isEmpty()) {
+			Set<Node> deps = dependents.get(queue.poll());
+			if (deps != null) {
+				for (Node node : deps) {
+					if (affected.add(node)) {
+						queue.add(node.name);
+					}
+				}
+			}
+		}
+
+		// 影響を受けるノード間の依存数を数える.
+		Map<Node, Integer> inDegrees = new HashMap<Node, Integer>();
+		for (Node node : affected) {
+			int cnt = 0;
+			for (String input : node.inputs) {
+				Node src = nodes.get(input);
+				if (src != null && src != node && affected.contains(src)) {
+					cnt++;
+				}
+			}
+			inDegrees.put(node, Integer.valueOf(cnt));
+		}
+
+		// 依存数が0のものから順に取り出す.
+		List<Node> order = new ArrayList<Node>(affected.size());
+		Deque<Node> ready = new ArrayDeque<Node>();
+		for (Map.Entry<Node, Integer> entry : inDegrees.entrySet()) {
+			if (entry.getValue().intValue() == 0) {
+				ready.add(entry.getKey());
+			}
+		}
+		while (!ready.isEmpty()) {
+			Node node = ready.poll();
+			order.add(node);
+			Set<Node> deps = dependents.get(node.name);
+			if (deps != null) {
+				for (Node dep : deps) {
+					Integer cnt = inDegrees.get(dep);
+					if (cnt != null && dep != node) {
+						int remain = cnt.intValue() - 1;
+						inDegrees.put(dep, Integer.valueOf(remain));
+						if (remain == 0) {
+							ready.add(dep);
+						}
+					}
+				}
+			}
+		}
+		if (order.size() < affected.size()) {
+			affected.removeAll(order);
+			List<String> names = new ArrayList<String>();
+			for (Node node : affected) {
+				names.add(node.name);
+			}
+			throw new ELException("Cyclic dependency: " + names);
+		}
+		return order;
+	}
+
+	/**
+	 * ノードを再評価し、依存関係の逆引き表を更新する.<br>
+	 *
+	 * @param node
+	 *            ノード
+	 */
+	private void recompute(Node node) {
+		unlink(node);
+		try {
+			node.value = node.expression.getValue(context);
+			recomputeCount++;
+
+		} finally {
+			ELDependencies deps = node.expression.getDependencies();
+			if (deps != null) {
+				Set<String> inputs = new HashSet<String>();
+				inputs.addAll(deps.getIdentifiers());
+				inputs.addAll(deps.getVariables());
+				node.inputs = inputs;
+			}
+			link(node);
+		}
+	}
+
+	/**
+	 * ノードの値をコンテキストのビーンとして公開する.<br>
+	 * 公開による変更通知は、このグラフ自身には伝搬させない.<br>
+	 *
+	 * @param node
+	 */
+	private void publish(Node node) {
+		publishing = true;
+		try {
+			context.defineBean(node.name, node.value);
+
+		} finally {
+			publishing = false;
+		}
+	}
+
+	private void link(Node node) {
+		for (String input : node.inputs) {
+			Set<Node> deps = dependents.get(input);
+			if (deps == null) {
+				deps = new LinkedHashSet<Node>();
+				dependents.put(input, deps);
+			}
+			deps.add(node);
+		}
+	}
+
+	private void unlink(Node node) {
+		for (String input : node.inputs) {
+			Set<Node> deps = dependents.get(input);
+			if (deps != null) {
+				deps.remove(node);
+				if (deps.isEmpty()) {
+					dependents.remove(input);
+				}
+			}
+		}
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		for (String name : a) {
+			if (b.contains(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
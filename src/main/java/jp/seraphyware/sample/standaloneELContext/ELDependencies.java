@@ -0,0 +1,359 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EL式の評価中に参照されたビーン名、変数名、プロパティのパス、関数を記録するためのクラス.<br>
+ * SimpleELContextに記録先として設定されている間、
+ * ELResolverによって解決されたルート要素の名前とプロパティのパス、
+ * VariableMapperから解決された変数名、FunctionMapperから解決された関数が記録される.<br>
+ * EL APIでは式の構文木は公開されていないため、式の作成時と評価時に
+ * 実際に解決されたものを記録する.
+ * そのため、評価されなかった分岐の依存関係は含まれない.<br>
+ */
+public class ELDependencies {
+
+	/**
+	 * 参照されたルート要素の名前(ビーン名)
+	 */
+	private final Set<String> identifiers = new LinkedHashSet<String>();
+
+	/**
+	 * 参照された変数名
+	 */
+	private final Set<String> variables = new LinkedHashSet<String>();
+
+	/**
+	 * 参照されたプロパティのパス("bean.x"や"arr[1]"の形式)をキーとし、
+	 * その末端のプロパティを値とするマップ
+	 */
+	private final Map<String, Object> paths = new LinkedHashMap<String, Object>();
+
+	/**
+	 * 2回以上参照されたプロパティのパス
+	 */
+	private final Set<String> repeatedPaths = new LinkedHashSet<String>();
+
+	/**
+	 * 参照された関数("prefix:localName"の形式)
+	 */
+	private final Set<String> functions = new LinkedHashSet<String>();
+
+	/**
+	 * 評価中に解決された値と、そのパスの対応.<br>
+	 * 値を基底とするプロパティのパスを求めるために用いる.<br>
+	 */
+	private final Map<Object, String> pathOfValues = new IdentityHashMap<Object, String>();
+
+	/**
+	 * 評価結果が定数であるか?<br>
+	 * リテラル以外に、"Class"要素から辿ったクラスとstatic finalフィールドしか
+	 * 参照していない場合のみtrueとなる.<br>
+	 */
+	private boolean constant = true;
+
+	/**
+	 * 代入やメソッド呼び出しが行われたか?
+	 */
+	private boolean sideEffect;
+
+	/**
+	 * static finalフィールドから取得した値
+	 */
+	private final Map<Object, Boolean> constantFieldValues = new IdentityHashMap<Object, Boolean>();
+
+	/**
+	 * ルート要素の名前を記録する.<br>
+	 *
+	 * @param name
+	 *            ${first.second}のfirstの名前
+	 */
+	void addIdentifier(String name) {
+		identifiers.add(name);
+		if (!"Class".equals(name)) {
+			constant = false;
+		}
+	}
+
+	/**
+	 * 変数名を記録する.<br>
+	 *
+	 * @param name
+	 *            VariableMapperで解決された変数名
+	 */
+	void addVariable(String name) {
+		variables.add(name);
+		constant = false;
+	}
+
+	/**
+	 * 関数を記録する.<br>
+	 *
+	 * @param prefix
+	 *            関数のプリフィックス
+	 * @param localName
+	 *            関数名
+	 */
+	void addFunction(String prefix, String localName) {
+		functions.add(prefix + ':' + localName);
+		constant = false;
+	}
+
+	/**
+	 * 代入やメソッド呼び出しなど、評価結果を定数とみなせない操作を記録する.<br>
+	 */
+	void addSideEffect() {
+		constant = false;
+		sideEffect = true;
+	}
+
+	/**
+	 * 解決されたプロパティを記録する.<br>
+	 * 基底となるオブジェクトのパスがわかっている場合のみ、そのプロパティのパスを記録する.<br>
+	 *
+	 * @param base
+	 *            基底となるオブジェクト、ルート要素の場合はnull
+	 * @param property
+	 *            プロパティ
+	 * @param value
+	 *            解決された値
+	 */
+	void addResolved(Object base, Object property, Object value) {
+		if (constant) {
+			checkConstant(base, property, value);
+		}
+		String path;
+		if (base == null) {
+			if (!(property instanceof String)) {
+				return;
+			}
+			path = (String) property;
+
+		} else {
+			String parent = pathOfValues.get(base);
+			if (parent == null) {
+				return;
+			}
+			if (property instanceof String) {
+				path = parent + '.' + property;
+			} else {
+				path = parent + '[' + property + ']';
+			}
+		}
+		addPath(path, property);
+		if (value != null && !isLeaf(value) && !pathOfValues.containsKey(value)) {
+			pathOfValues.put(value, path);
+		}
+	}
+
+	/**
+	 * 解決されたプロパティが定数であるか判定し、
+	 * 定数でなければ評価結果を定数とみなさないようにする.<br>
+	 * "Class"要素、ClassオブジェクトからのClassの取得、
+	 * static finalフィールドの値のみを定数とする.<br>
+	 *
+	 * @param base
+	 * @param property
+	 * @param value
+	 */
+	private void checkConstant(Object base, Object property, Object value) {
+		if (base == null) {
+			if ("Class".equals(property) && value == Class.class) {
+				return;
+			}
+
+		} else if (base == Class.class) {
+			if (value instanceof Class) {
+				return;
+			}
+
+		} else if (base instanceof Class && property instanceof String) {
+			if (ClassELResolver.isConstantField((Class<?>) base, (String) property)) {
+				if (value != null) {
+					constantFieldValues.put(value, Boolean.TRUE);
+				}
+				return;
+			}
+		}
+		constant = false;
+	}
+
+	/**
+	 * パスを記録する.<br>
+	 * すでに記録済みのパスであれば、繰り返し参照されたパスとして記録する.<br>
+	 *
+	 * @param path
+	 *            パス
+	 * @param property
+	 *            パスの末端のプロパティ
+	 */
+	private void addPath(String path, Object property) {
+		if (paths.containsKey(path)) {
+			repeatedPaths.add(path);
+		} else {
+			paths.put(path, property);
+		}
+	}
+
+	/**
+	 * これ以上プロパティを辿ることのない値であるか判定する.<br>
+	 * 同一インスタンスが共有されやすい値を対応表に含めないようにするため.<br>
+	 *
+	 * @param value
+	 * @return 文字列、数値、真偽値、文字であればtrue
+	 */
+	private static boolean isLeaf(Object value) {
+		return value instanceof String || value instanceof Number
+				|| value instanceof Boolean || value instanceof Character;
+	}
+
+	/**
+	 * 別の記録内容をすべて取り込む.<br>
+	 * 入れ子になった評価の依存関係を外側の評価に伝搬させるために用いる.<br>
+	 *
+	 * @param other
+	 *            取り込む記録
+	 */
+	void addAll(ELDependencies other) {
+		identifiers.addAll(other.identifiers);
+		variables.addAll(other.variables);
+		for (Map.Entry<String, Object> entry : other.paths.entrySet()) {
+			addPath(entry.getKey(), entry.getValue());
+		}
+		for (String path : other.repeatedPaths) {
+			addPath(path, other.paths.get(path));
+		}
+		functions.addAll(other.functions);
+		constant &= other.constant;
+		sideEffect |= other.sideEffect;
+		constantFieldValues.putAll(other.constantFieldValues);
+	}
+
+	/**
+	 * 参照されたルート要素の名前の一覧を取得する.<br>
+	 *
+	 * @return ルート要素の名前の読み込み専用セット
+	 */
+	public Set<String> getIdentifiers() {
+		return Collections.unmodifiableSet(identifiers);
+	}
+
+	/**
+	 * 参照された変数名の一覧を取得する.<br>
+	 *
+	 * @return 変数名の読み込み専用セット
+	 */
+	public Set<String> getVariables() {
+		return Collections.unmodifiableSet(variables);
+	}
+
+	/**
+	 * 参照されたプロパティのパスの一覧を取得する.<br>
+	 * ルート要素から辿ったパスが"bean.x", "arr[1]"のような形式で格納される.<br>
+	 *
+	 * @return パスの読み込み専用セット
+	 */
+	public Set<String> getPaths() {
+		return Collections.unmodifiableSet(paths.keySet());
+	}
+
+	/**
+	 * 2回以上参照されたプロパティのパスの一覧を取得する.<br>
+	 * 入れ子の評価や、複数の式の記録を取り込んだ場合は、
+	 * それらの間で共通して参照されたパスも含まれる.<br>
+	 *
+	 * @return パスの読み込み専用セット
+	 */
+	public Set<String> getRepeatedPaths() {
+		return Collections.unmodifiableSet(repeatedPaths);
+	}
+
+	/**
+	 * 2回以上参照されたパスの末端のプロパティの一覧を取得する.<br>
+	 *
+	 * @return プロパティのセット
+	 */
+	Set<Object> getRepeatedProperties() {
+		Set<Object> properties = new HashSet<Object>();
+		for (String path : repeatedPaths) {
+			properties.add(paths.get(path));
+		}
+		return properties;
+	}
+
+	/**
+	 * 参照された関数の一覧を取得する.<br>
+	 *
+	 * @return "prefix:localName"形式の関数名の読み込み専用セット
+	 */
+	public Set<String> getFunctions() {
+		return Collections.unmodifiableSet(functions);
+	}
+
+	/**
+	 * 評価結果が定数であるか判定する.<br>
+	 * リテラルと、"Class"要素から辿ったstatic finalフィールドのみを参照し、
+	 * 変数、関数、代入、メソッド呼び出しを含まない場合に定数とみなす.<br>
+	 *
+	 * @return 定数であればtrue
+	 */
+	public boolean isConstant() {
+		return constant;
+	}
+
+	/**
+	 * 代入やメソッド呼び出しが行われたか判定する.<br>
+	 *
+	 * @return 行われていればtrue
+	 */
+	boolean hasSideEffect() {
+		return sideEffect;
+	}
+
+	/**
+	 * 指定した値がstatic finalフィールドから取得された値であるか判定する.<br>
+	 *
+	 * @param value
+	 *            値
+	 * @return static finalフィールドから取得した値と同一であればtrue
+	 */
+	boolean isConstantFieldValue(Object value) {
+		return constantFieldValues.containsKey(value);
+	}
+
+	/**
+	 * 指定したコンテキストで、記録されたビーンまたは変数のいずれかが
+	 * 指定したリビジョンより後に変更されているか判定する.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @param revision
+	 *            基準とするリビジョン
+	 * @return 変更されていればtrue
+	 */
+	public boolean isModifiedSince(SimpleELContext context, long revision) {
+		for (String name : identifiers) {
+			if (context.getRevision(name) > revision) {
+				return true;
+			}
+		}
+		for (String name : variables) {
+			if (context.getRevision(name) > revision) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "identifiers=" + identifiers + ", variables=" + variables
+				+ ", paths=" + paths.keySet() + ", functions=" + functions;
+	}
+}
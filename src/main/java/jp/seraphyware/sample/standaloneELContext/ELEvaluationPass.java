@@ -0,0 +1,132 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一回の評価パスの間、解決済みのプロパティの値を保持する表.<br>
+ * 同じオブジェクトの同じプロパティが評価パス中に繰り返し参照された場合に、
+ * 最初に解決した値を再利用してELResolverの探索を省略するために用いる.<br>
+ * ビーンが変更された場合や、メソッドが呼び出された場合は、
+ * 保持している値が変化している可能性があるため破棄される.<br>
+ */
+final class ELEvaluationPass {
+
+	/**
+	 * 未解決を示すマーカー
+	 */
+	static final Object NOT_FOUND = new Object();
+
+	/**
+	 * プロパティの解決のキー.<br>
+	 * 基底となるオブジェクトは同一性で比較する.<br>
+	 */
+	private static final class Key {
+
+		private final Object base;
+
+		private final Object property;
+
+		private final int hash;
+
+		Key(Object base, Object property) {
+			this.base = base;
+			this.property = property;
+			this.hash = System.identityHashCode(base) * 31
+					+ (property != null ? property.hashCode() : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key o = (Key) obj;
+				return base == o.base && (property == null ? o.property == null
+						: property.equals(o.property));
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 値を保持する対象とするプロパティ、nullであればすべて
+	 */
+	private final Set<Object> sharedProperties;
+
+	/**
+	 * 解決済みの値
+	 */
+	private final Map<Key, Object> values = new HashMap<Key, Object>();
+
+	/**
+	 * 再利用した回数
+	 */
+	private int hitCount;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param sharedProperties
+	 *            値を保持する対象とするプロパティ、nullであればすべて
+	 */
+	ELEvaluationPass(Set<Object> sharedProperties) {
+		this.sharedProperties = sharedProperties;
+	}
+
+	/**
+	 * 値を保持する対象のプロパティであるか判定する.<br>
+	 *
+	 * @param property
+	 * @return 対象であればtrue
+	 */
+	boolean isShared(Object property) {
+		return sharedProperties == null || sharedProperties.contains(property);
+	}
+
+	/**
+	 * 解決済みの値を取得する.<br>
+	 *
+	 * @param base
+	 * @param property
+	 * @return 値、未解決であればNOT_FOUND
+	 */
+	Object get(Object base, Object property) {
+		Key key = new Key(base, property);
+		Object value = values.get(key);
+		if (value == null && !values.containsKey(key)) {
+			return NOT_FOUND;
+		}
+		hitCount++;
+		return value;
+	}
+
+	/**
+	 * 解決した値を保持する.<br>
+	 *
+	 * @param base
+	 * @param property
+	 * @param value
+	 */
+	void put(Object base, Object property, Object value) {
+		values.put(new Key(base, property), value);
+	}
+
+	/**
+	 * 保持している値を破棄する.<br>
+	 */
+	void clear() {
+		values.clear();
+	}
+
+	/**
+	 * @return 解決済みの値を再利用した回数
+	 */
+	int getHitCount() {
+		return hitCount;
+	}
+}
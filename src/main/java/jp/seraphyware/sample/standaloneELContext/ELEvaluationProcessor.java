@@ -0,0 +1,675 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 入力のビーンのストリームに対してEL式を評価し、その結果のストリームを発行する処理段.<br>
+ * 上流から受け取ったビーンを指定したビーン名で定義し、登録されたすべての式を評価して、
+ * 式の名前をキーとし評価結果を値とするマップを下流に通知する.<br>
+ * 評価は指定した並列度までExecutor上で並行して行われる.
+ * 並列に動作するワーカーごとにプールから借り出したコンテキストと準備済みの式を保持して使い回すため、
+ * 要素ごとにコンテキストが作成されることはない.
+ * 借り出したコンテキストはストリームの終了時に返却される.<br>
+ * 上流には、下流から要求された数と並列度に応じた数までしか要求しない.
+ * 結果は既定では入力の順序どおりに通知され、順序を問わない場合は評価が終わった順に通知される.<br>
+ * 評価が例外となった場合は、上流の購読を取り消し、下流にエラーを通知する.<br>
+ * 下流の購読者は1つだけ登録できる.<br>
+ */
+public class ELEvaluationProcessor implements
+		ELFlow.Processor<Object, Map<String, Object>> {
+
+	/**
+	 * 並列度に対する、上流に要求する数の倍率.<br>
+	 * 評価中の要素に加えて、次に評価する要素を待たせておくため.<br>
+	 */
+	private static final int WINDOW_FACTOR = 2;
+
+	/**
+	 * 入力の要素
+	 */
+	private static final class Item {
+
+		final long sequence;
+
+		final Object bean;
+
+		Item(long sequence, Object bean) {
+			this.sequence = sequence;
+			this.bean = bean;
+		}
+	}
+
+	/**
+	 * 評価を行うワーカー.<br>
+	 * コンテキストと準備済みの式を保持する.<br>
+	 */
+	private final class Worker {
+
+		final SimpleELContext context;
+
+		final PreparedExpression[] prepared;
+
+		Worker(SimpleELContext context) {
+			this.context = context;
+			this.prepared = new PreparedExpression[names.length];
+			for (int idx = 0; idx < names.length; idx++) {
+				prepared[idx] = new PreparedExpression("${" + expressions[idx]
+						+ '}', Object.class);
+			}
+		}
+
+		Map<String, Object> evaluate(Object bean) {
+			context.defineBean(beanName, bean);
+			Map<String, Object> results = new LinkedHashMap<String, Object>();
+			for (int idx = 0; idx < names.length; idx++) {
+				results.put(names[idx], prepared[idx].getValue(context));
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * ワーカーで評価を繰り返すタスク.<br>
+	 * 評価待ちの要素がなくなると終了する.<br>
+	 */
+	private final Runnable workerTask = new Runnable() {
+		@Override
+		public void run() {
+			runWorker();
+		}
+	};
+
+	/**
+	 * 下流に通知する購読
+	 */
+	private final ELFlow.Subscription downstreamSubscription = new ELFlow.Subscription() {
+		@Override
+		public void request(long n) {
+			requestDownstream(n);
+		}
+
+		@Override
+		public void cancel() {
+			cancelDownstream();
+		}
+	};
+
+	private final String beanName;
+
+	/**
+	 * 式の名前
+	 */
+	private final String[] names;
+
+	/**
+	 * 式(${}で囲まないもの)
+	 */
+	private final String[] expressions;
+
+	private final SimpleELContextPool pool;
+
+	private final Executor executor;
+
+	private final int parallelism;
+
+	private final boolean ordered;
+
+	/**
+	 * 状態を保護するロック.<br>
+	 * 仮想スレッドで実行される場合を考慮してsynchronizedは用いない.<br>
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * 下流への通知を直列化するためのカウンタ
+	 */
+	private final AtomicInteger wip = new AtomicInteger();
+
+	private ELFlow.Subscription upstream;
+
+	private ELFlow.Subscriber<? super Map<String, Object>> downstream;
+
+	/**
+	 * 評価待ちの要素
+	 */
+	private final ArrayDeque<Item> pending = new ArrayDeque<Item>();
+
+	/**
+	 * 評価済みで通知待ちの結果(順序どおりに通知する場合)
+	 */
+	private final Map<Long, Map<String, Object>> orderedResults = new HashMap<Long, Map<String, Object>>();
+
+	/**
+	 * 評価済みで通知待ちの結果(順序を問わない場合)
+	 */
+	private final ArrayDeque<Map<String, Object>> unorderedResults = new ArrayDeque<Map<String, Object>>();
+
+	/**
+	 * 待機中のワーカー
+	 */
+	private final ArrayDeque<Worker> idleWorkers = new ArrayDeque<Worker>();
+
+	/**
+	 * 作成したワーカー
+	 */
+	private final List<Worker> workers = new ArrayList<Worker>();
+
+	/**
+	 * 実行中のワーカーのタスクの数
+	 */
+	private int running;
+
+	/**
+	 * 下流から要求されて、まだ通知していない数
+	 */
+	private long demand;
+
+	/**
+	 * 上流に要求して、まだ下流に通知していない数
+	 */
+	private long inFlight;
+
+	/**
+	 * 上流から受け取った数(次の要素の連番)
+	 */
+	private long received;
+
+	/**
+	 * 下流に通知した数(順序どおりの場合は次に通知する連番)
+	 */
+	private long emitted;
+
+	private boolean upstreamDone;
+
+	private Throwable error;
+
+	/**
+	 * 下流に終了を通知したか、取り消されたか?
+	 */
+	private boolean terminated;
+
+	/**
+	 * コンストラクタ.<br>
+	 * 結果は入力の順序どおりに通知される.<br>
+	 *
+	 * @param beanName
+	 *            入力の要素を定義するビーン名
+	 * @param expressions
+	 *            式の名前をキーとし、式(${}で囲まないもの)を値とするマップ
+	 * @param pool
+	 *            ワーカーのコンテキストを借り出すプール
+	 * @param executor
+	 *            評価を実行するExecutor
+	 * @param parallelism
+	 *            並列度
+	 */
+	public ELEvaluationProcessor(String beanName,
+			Map<String, String> expressions, SimpleELContextPool pool,
+			Executor executor, int parallelism) {
+		this(beanName, expressions, pool, executor, parallelism, true);
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param beanName
+	 *            入力の要素を定義するビーン名
+	 * @param expressions
+	 *            式の名前をキーとし、式(${}で囲まないもの)を値とするマップ
+	 * @param pool
+	 *            ワーカーのコンテキストを借り出すプール
+	 * @param executor
+	 *            評価を実行するExecutor
+	 * @param parallelism
+	 *            並列度
+	 * @param ordered
+	 *            入力の順序どおりに通知する場合はtrue、評価が終わった順に通知する場合はfalse
+	 */
+	public ELEvaluationProcessor(String beanName,
+			Map<String, String> expressions, SimpleELContextPool pool,
+			Executor executor, int parallelism, boolean ordered) {
+		if (beanName == null || expressions == null || pool == null
+				|| executor == null) {
+			throw new IllegalArgumentException();
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism=" + parallelism);
+		}
+		this.beanName = beanName;
+		this.names = expressions.keySet().toArray(new String[expressions.size()]);
+		this.expressions = new String[names.length];
+		for (int idx = 0; idx < names.length; idx++) {
+			this.expressions[idx] = expressions.get(names[idx]);
+		}
+		this.pool = pool;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.ordered = ordered;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * @return これまでに作成したワーカーの数(借り出したコンテキストの数)
+	 */
+	public int getWorkerCount() {
+		lock.lock();
+		try {
+			return workers.size();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void subscribe(ELFlow.Subscriber<? super Map<String, Object>> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (downstream == null) {
+				downstream = subscriber;
+				subscriber = null;
+			}
+
+		} finally {
+			lock.unlock();
+		}
+		if (subscriber != null) {
+			// 2つ目以降の購読者は受け付けない.
+			subscriber.onSubscribe(new ELFlow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException(
+					"already subscribed."));
+			return;
+		}
+		downstream().onSubscribe(downstreamSubscription);
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(ELFlow.Subscription subscription) {
+		boolean accepted = false;
+		lock.lock();
+		try {
+			if (upstream == null && !terminated) {
+				upstream = subscription;
+				accepted = true;
+			}
+
+		} finally {
+			lock.unlock();
+		}
+		if (!accepted) {
+			subscription.cancel();
+			return;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(Object item) {
+		boolean start = false;
+		lock.lock();
+		try {
+			if (upstreamDone || terminated) {
+				return;
+			}
+			pending.add(new Item(received++, item));
+			if (running < parallelism) {
+				running++;
+				start = true;
+			}
+
+		} finally {
+			lock.unlock();
+		}
+		if (start) {
+			executeWorker();
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		lock.lock();
+		try {
+			upstreamDone = true;
+
+		} finally {
+			lock.unlock();
+		}
+		drain();
+	}
+
+	/**
+	 * ワーカーのタスクを開始する.<br>
+	 * 実行中の数は呼び出し元で加算済みであること.<br>
+	 */
+	private void executeWorker() {
+		try {
+			executor.execute(workerTask);
+
+		} catch (RuntimeException ex) {
+			lock.lock();
+			try {
+				running--;
+
+			} finally {
+				lock.unlock();
+			}
+			fail(ex);
+		}
+	}
+
+	/**
+	 * 評価待ちの要素がなくなるまで評価する.<br>
+	 */
+	private void runWorker() {
+		Worker worker = null;
+		try {
+			for (;;) {
+				Item item;
+				lock.lock();
+				try {
+					item = terminated || error != null ? null : pending.poll();
+					if (item == null) {
+						running--;
+						if (worker != null) {
+							parkWorker(worker);
+						}
+						return;
+					}
+					if (worker == null) {
+						worker = idleWorkers.poll();
+					}
+
+				} finally {
+					lock.unlock();
+				}
+				if (worker == null) {
+					worker = createWorker();
+				}
+
+				Map<String, Object> result = worker.evaluate(item.bean);
+
+				lock.lock();
+				try {
+					if (ordered) {
+						orderedResults.put(Long.valueOf(item.sequence), result);
+					} else {
+						unorderedResults.add(result);
+					}
+
+				} finally {
+					lock.unlock();
+				}
+				drain();
+			}
+
+		} catch (RuntimeException ex) {
+			lock.lock();
+			try {
+				running--;
+				if (worker != null) {
+					parkWorker(worker);
+				}
+
+			} finally {
+				lock.unlock();
+			}
+			fail(ex);
+		}
+	}
+
+	/**
+	 * プールからコンテキストを借り出して、ワーカーを作成する.<br>
+	 *
+	 * @return ワーカー
+	 */
+	private Worker createWorker() {
+		Worker worker = new Worker(pool.borrow());
+		lock.lock();
+		try {
+			workers.add(worker);
+
+		} finally {
+			lock.unlock();
+		}
+		return worker;
+	}
+
+	/**
+	 * ワーカーを待機させる.<br>
+	 * すでに終了していればコンテキストを返却する.<br>
+	 * ロックを取得した状態で呼び出すこと.<br>
+	 *
+	 * @param worker
+	 *            ワーカー
+	 */
+	private void parkWorker(Worker worker) {
+		if (terminated) {
+			pool.release(worker.context);
+		} else {
+			idleWorkers.add(worker);
+		}
+	}
+
+	/**
+	 * エラーによって終了させる.<br>
+	 * 上流の購読を取り消し、下流にエラーを通知する.<br>
+	 *
+	 * @param throwable
+	 *            エラー
+	 */
+	private void fail(Throwable throwable) {
+		ELFlow.Subscription subscription;
+		lock.lock();
+		try {
+			if (error != null || terminated) {
+				return;
+			}
+			error = throwable;
+			upstreamDone = true;
+			pending.clear();
+			subscription = upstream;
+
+		} finally {
+			lock.unlock();
+		}
+		if (subscription != null) {
+			subscription.cancel();
+		}
+		drain();
+	}
+
+	/**
+	 * 下流からの要求を受け付ける.<br>
+	 *
+	 * @param n
+	 *            追加で要求された数
+	 */
+	private void requestDownstream(long n) {
+		if (n <= 0) {
+			fail(new IllegalArgumentException("n=" + n));
+			return;
+		}
+		lock.lock();
+		try {
+			demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+
+		} finally {
+			lock.unlock();
+		}
+		drain();
+	}
+
+	/**
+	 * 下流から取り消された場合.<br>
+	 * 上流の購読も取り消し、以降は通知しない.<br>
+	 */
+	private void cancelDownstream() {
+		ELFlow.Subscription subscription;
+		lock.lock();
+		try {
+			if (terminated) {
+				return;
+			}
+			subscription = upstream;
+			terminate();
+
+		} finally {
+			lock.unlock();
+		}
+		if (subscription != null) {
+			subscription.cancel();
+		}
+	}
+
+	/**
+	 * 終了状態にし、待機中のワーカーのコンテキストを返却する.<br>
+	 * 評価中のワーカーのコンテキストは、評価を終えたときに返却される.<br>
+	 * ロックを取得した状態で呼び出すこと.<br>
+	 */
+	private void terminate() {
+		terminated = true;
+		pending.clear();
+		orderedResults.clear();
+		unorderedResults.clear();
+		Worker worker;
+		while ((worker = idleWorkers.poll()) != null) {
+			pool.release(worker.context);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private ELFlow.Subscriber<Map<String, Object>> downstream() {
+		return (ELFlow.Subscriber<Map<String, Object>>) downstream;
+	}
+
+	/**
+	 * 通知できる結果を下流に通知し、上流に要素を要求する.<br>
+	 * 複数のスレッドから呼び出されても、下流への通知は1つのスレッドで直列に行われる.<br>
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			ELFlow.Subscriber<Map<String, Object>> subscriber;
+			lock.lock();
+			try {
+				subscriber = terminated ? null : downstream();
+
+			} finally {
+				lock.unlock();
+			}
+			if (subscriber != null) {
+				emit(subscriber);
+			}
+			missed = wip.addAndGet(-missed);
+			if (missed == 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 通知できる結果を通知し、終了していれば終了を通知する.
+	 * 続行する場合は上流に要求する.<br>
+	 *
+	 * @param subscriber
+	 *            下流の購読者
+	 */
+	private void emit(ELFlow.Subscriber<Map<String, Object>> subscriber) {
+		for (;;) {
+			Map<String, Object> result = null;
+			Throwable failure = null;
+			boolean completed = false;
+			long request = 0;
+			ELFlow.Subscription subscription = null;
+			lock.lock();
+			try {
+				if (terminated) {
+					return;
+				}
+				if (error != null) {
+					failure = error;
+					terminate();
+
+				} else {
+					if (demand > 0) {
+						result = ordered ? orderedResults.remove(Long
+								.valueOf(emitted)) : unorderedResults.poll();
+					}
+					if (result != null) {
+						emitted++;
+						inFlight--;
+						if (demand != Long.MAX_VALUE) {
+							demand--;
+						}
+
+					} else if (upstreamDone && emitted == received) {
+						completed = true;
+						terminate();
+
+					} else if (upstream != null && !upstreamDone) {
+						long window = Math.min(demand, (long) parallelism
+								* WINDOW_FACTOR);
+						request = window - inFlight;
+						if (request > 0) {
+							inFlight += request;
+							subscription = upstream;
+						}
+					}
+				}
+
+			} finally {
+				lock.unlock();
+			}
+			if (failure != null) {
+				subscriber.onError(failure);
+				return;
+			}
+			if (completed) {
+				subscriber.onComplete();
+				return;
+			}
+			if (result == null) {
+				if (subscription != null) {
+					subscription.request(request);
+				}
+				return;
+			}
+			subscriber.onNext(result);
+		}
+	}
+}
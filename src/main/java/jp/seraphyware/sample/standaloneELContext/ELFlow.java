@@ -0,0 +1,106 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+/**
+ * 背圧(バックプレッシャ)付きのストリームを構成するためのインターフェイス群.<br>
+ * java.util.concurrent.Flow(Java 9以降)と同じ構成・同じ規約であり、
+ * Java 7でも使えるようにこのパッケージで定義している.
+ * メソッドのシグネチャも同じであるため、Flowとの相互変換は委譲するだけで行える.<br>
+ * Subscriberは、Subscriptionで要求した数を超えて通知されることはなく、
+ * onNext, onError, onCompleteは同時に呼び出されることはない.<br>
+ */
+public final class ELFlow {
+
+	private ELFlow() {
+		super();
+	}
+
+	/**
+	 * 要素を生成し、購読者に通知する.<br>
+	 *
+	 * @param <T>
+	 *            要素の型
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * 購読者を登録する.<br>
+		 * 購読者のonSubscribeが呼び出される.<br>
+		 *
+		 * @param subscriber
+		 *            購読者
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * 要素を受け取る購読者.<br>
+	 *
+	 * @param <T>
+	 *            要素の型
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * 購読が開始されたときに呼び出される.<br>
+		 * 要素を受け取るには、Subscriptionで要求する必要がある.<br>
+		 *
+		 * @param subscription
+		 *            購読
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * 要素を受け取る.<br>
+		 *
+		 * @param item
+		 *            要素
+		 */
+		void onNext(T item);
+
+		/**
+		 * エラーによって終了したときに呼び出される.<br>
+		 *
+		 * @param throwable
+		 *            エラー
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * すべての要素を通知し終えたときに呼び出される.<br>
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * 発行者と購読者の間の購読.<br>
+	 */
+	public interface Subscription {
+
+		/**
+		 * 要素を要求する.<br>
+		 * 要求した数は累積される.
+		 * 0以下の数を要求した場合はonErrorでIllegalArgumentExceptionが通知される.<br>
+		 *
+		 * @param n
+		 *            追加で要求する数
+		 */
+		void request(long n);
+
+		/**
+		 * 購読を取り消す.<br>
+		 * 以降、要素は通知されなくなる.<br>
+		 */
+		void cancel();
+	}
+
+	/**
+	 * 購読者であり、かつ発行者でもある処理段.<br>
+	 *
+	 * @param <T>
+	 *            受け取る要素の型
+	 * @param <R>
+	 *            発行する要素の型
+	 */
+	public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+}
@@ -0,0 +1,445 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.ResourceBundle;
+
+import javax.el.ELException;
+
+/**
+ * プロパティの参照箇所ごとに、基底となるオブジェクトのクラスと
+ * そのプロパティを解決するアクセサを記憶するインラインキャッシュ.<br>
+ * 同じクラスのオブジェクトに対して繰り返し評価される場合に、
+ * CompositeELResolverの探索を省略してアクセサを直接呼び出すために用いる.<br>
+ * EL APIでは構文木が公開されていないため、参照箇所はプロパティ名で区別し、
+ * インデックスによる参照はまとめて1つの参照箇所として扱う.<br>
+ * 参照箇所ごとに記憶するクラスの数には上限があり、
+ * 上限を超えた参照箇所は以降キャッシュしない(メガモーフィック).<br>
+ * アクセサは標準のELResolver(Map, List, 配列, ビーン, ClassELResolverのstaticフィールド)と
+ * 同じ方法で値を取得するため、カスタムELResolverがこれらを独自に解決する場合には使用できない.
+ * ただし、ビーンのgetterはBeanELResolverで解決された場合にのみ記憶するため、
+ * カスタムELResolverが独自に解決するビーンのプロパティはキャッシュされない.<br>
+ */
+final class ELInlineCache {
+
+	/**
+	 * キャッシュされていないことを示すマーカー
+	 */
+	static final Object NOT_CACHED = new Object();
+
+	/**
+	 * インデックスによる参照箇所のキー
+	 */
+	private static final Object INDEX_SITE = new Object();
+
+	/**
+	 * プロパティを取得するアクセサ
+	 */
+	private interface Accessor {
+
+		Object get(Object base, Object property);
+	}
+
+	/**
+	 * Mapの要素を取得するアクセサ
+	 */
+	private static final Accessor MAP_ACCESSOR = new Accessor() {
+		@Override
+		public Object get(Object base, Object property) {
+			return ((Map<?, ?>) base).get(property);
+		}
+	};
+
+	/**
+	 * Listの要素を取得するアクセサ
+	 */
+	private static final Accessor LIST_ACCESSOR = new Accessor() {
+		@Override
+		public Object get(Object base, Object property) {
+			List<?> list = (List<?>) base;
+			int index = ((Number) property).intValue();
+			if (index < 0 || index >= list.size()) {
+				return null;
+			}
+			return list.get(index);
+		}
+	};
+
+	/**
+	 * 配列の要素を取得するアクセサ
+	 */
+	private static final Accessor ARRAY_ACCESSOR = new Accessor() {
+		@Override
+		public Object get(Object base, Object property) {
+			return PrimitiveArrayELResolver.get(base,
+					((Number) property).intValue());
+		}
+	};
+
+	/**
+	 * ビーンのgetterを呼び出すアクセサ
+	 */
+	private static final class GetterAccessor implements Accessor {
+
+		private final Method method;
+
+		GetterAccessor(Method method) {
+			this.method = method;
+		}
+
+		@Override
+		public Object get(Object base, Object property) {
+			try {
+				return method.invoke(base);
+
+			} catch (InvocationTargetException ex) {
+				throw new ELException(ex.getCause());
+
+			} catch (Exception ex) {
+				throw new ELException(ex);
+			}
+		}
+	}
+
+	/**
+	 * クラスのstaticフィールドを取得するアクセサ
+	 */
+	private static final class StaticFieldAccessor implements Accessor {
+
+		private final Field field;
+
+		StaticFieldAccessor(Field field) {
+			this.field = field;
+		}
+
+		@Override
+		public Object get(Object base, Object property) {
+			try {
+				return field.get(null);
+
+			} catch (IllegalAccessException ex) {
+				throw new ELException(ex);
+			}
+		}
+	}
+
+	/**
+	 * 参照箇所
+	 */
+	private static final class Site {
+
+		/**
+		 * 基底となるオブジェクトのクラス、staticフィールドの場合はそのクラス
+		 */
+		final Class<?>[] receivers;
+
+		/**
+		 * staticフィールドの参照であるか?
+		 */
+		final boolean[] statics;
+
+		/**
+		 * アクセサ
+		 */
+		final Accessor[] accessors;
+
+		/**
+		 * 記憶しているクラスの数
+		 */
+		int size;
+
+		/**
+		 * 上限を超えたか?
+		 */
+		boolean megamorphic;
+
+		Site(int maxClasses) {
+			receivers = new Class<?>[maxClasses];
+			statics = new boolean[maxClasses];
+			accessors = new Accessor[maxClasses];
+		}
+	}
+
+	/**
+	 * 参照箇所ごとに記憶するクラスの最大数
+	 */
+	private final int maxClasses;
+
+	/**
+	 * 参照箇所
+	 */
+	private final Map<Object, Site> sites = new HashMap<Object, Site>();
+
+	/**
+	 * キャッシュから解決した回数
+	 */
+	private int hitCount;
+
+	/**
+	 * BeanELResolverで最後に解決されたプロパティの基底となるオブジェクト
+	 */
+	private Object beanResolvedBase;
+
+	/**
+	 * BeanELResolverで最後に解決されたプロパティ
+	 */
+	private Object beanResolvedProperty;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param maxClasses
+	 *            参照箇所ごとに記憶するクラスの最大数
+	 */
+	ELInlineCache(int maxClasses) {
+		if (maxClasses <= 0) {
+			throw new IllegalArgumentException("maxClasses=" + maxClasses);
+		}
+		this.maxClasses = maxClasses;
+	}
+
+	private static Object siteKey(Object property) {
+		return property instanceof String ? property : INDEX_SITE;
+	}
+
+	/**
+	 * キャッシュされたアクセサでプロパティを解決する.<br>
+	 *
+	 * @param base
+	 *            基底となるオブジェクト(非null)
+	 * @param property
+	 *            プロパティ
+	 * @return 値、キャッシュされていなければNOT_CACHED
+	 */
+	Object get(Object base, Object property) {
+		beanResolvedBase = null;
+		beanResolvedProperty = null;
+		Site site = sites.get(siteKey(property));
+		if (site == null) {
+			return NOT_CACHED;
+		}
+		boolean isStatic = base instanceof Class;
+		Class<?> receiver = isStatic ? (Class<?>) base : base.getClass();
+		for (int idx = 0; idx < site.size; idx++) {
+			if (site.receivers[idx] == receiver && site.statics[idx] == isStatic) {
+				hitCount++;
+				return site.accessors[idx].get(base, property);
+			}
+		}
+		return NOT_CACHED;
+	}
+
+	/**
+	 * BeanELResolverでプロパティが解決されたことを記録する.<br>
+	 * getterのアクセサは、BeanELResolverで解決されたプロパティの場合のみ記憶する.<br>
+	 *
+	 * @param base
+	 *            基底となるオブジェクト
+	 * @param property
+	 *            プロパティ
+	 */
+	void beanResolved(Object base, Object property) {
+		beanResolvedBase = base;
+		beanResolvedProperty = property;
+	}
+
+	/**
+	 * ELResolverで解決されたプロパティのアクセサを記憶する.<br>
+	 *
+	 * @param base
+	 *            基底となるオブジェクト(非null)
+	 * @param property
+	 *            プロパティ
+	 * @param value
+	 *            ELResolverで解決された値
+	 */
+	void learn(Object base, Object property, Object value) {
+		Object key = siteKey(property);
+		Site site = sites.get(key);
+		if (site == null) {
+			site = new Site(maxClasses);
+			sites.put(key, site);
+		}
+		if (site.megamorphic) {
+			return;
+		}
+		boolean isStatic = base instanceof Class;
+		Class<?> receiver = isStatic ? (Class<?>) base : base.getClass();
+		for (int idx = 0; idx < site.size; idx++) {
+			if (site.receivers[idx] == receiver && site.statics[idx] == isStatic) {
+				// インデックスが範囲外の場合などで、キャッシュから解決されなかった場合
+				return;
+			}
+		}
+		boolean byBean = beanResolvedBase == base && property != null
+				&& property.equals(beanResolvedProperty);
+		beanResolvedBase = null;
+		beanResolvedProperty = null;
+		Accessor accessor = createAccessor(base, property, value, byBean);
+		if (accessor == null) {
+			return;
+		}
+		if (site.size == maxClasses) {
+			// 上限を超えたので、以降はキャッシュしない.
+			site.megamorphic = true;
+			site.size = 0;
+			return;
+		}
+		site.receivers[site.size] = receiver;
+		site.statics[site.size] = isStatic;
+		site.accessors[site.size] = accessor;
+		site.size++;
+	}
+
+	/**
+	 * 標準のELResolverと同じ方法でプロパティを解決するアクセサを作成する.<br>
+	 * 副作用のないアクセサは、解決された値と一致することを確認する.<br>
+	 *
+	 * @param base
+	 * @param property
+	 * @param value
+	 *            ELResolverで解決された値
+	 * @param byBean
+	 *            BeanELResolverで解決されたか?
+	 * @return アクセサ、キャッシュできなければnull
+	 */
+	private static Accessor createAccessor(Object base, Object property,
+			Object value, boolean byBean) {
+		Accessor accessor;
+		if (base instanceof Class) {
+			if (base == Class.class || !(property instanceof String)) {
+				return null;
+			}
+			Field field = findStaticField((Class<?>) base, (String) property);
+			if (field == null) {
+				return null;
+			}
+			accessor = new StaticFieldAccessor(field);
+
+		} else if (base instanceof Map) {
+			accessor = MAP_ACCESSOR;
+
+		} else if (base instanceof ResourceBundle) {
+			return null;
+
+		} else if (base instanceof List || base.getClass().isArray()) {
+			// RandomAccessでないリストはSequentialListELResolverのカーソルに任せる.
+			if (!(property instanceof Number) || base instanceof PagedList
+					|| (base instanceof List && !(base instanceof RandomAccess))) {
+				return null;
+			}
+			accessor = base instanceof List ? LIST_ACCESSOR : ARRAY_ACCESSOR;
+
+		} else {
+			// カスタムELResolverが解決したプロパティはgetterで置き換えられない.
+			if (!byBean || !(property instanceof String)) {
+				return null;
+			}
+			Method method = findGetter(base.getClass(), (String) property);
+			if (method == null) {
+				return null;
+			}
+			// getterは副作用がありうるので、ここでは呼び出さない.
+			return new GetterAccessor(method);
+		}
+
+		Object actual = accessor.get(base, property);
+		if (actual == value || (actual != null && actual.equals(value))) {
+			return accessor;
+		}
+		return null;
+	}
+
+	/**
+	 * publicなstaticフィールドを取得する.<br>
+	 *
+	 * @param cls
+	 * @param name
+	 * @return フィールド、なければnull
+	 */
+	private static Field findStaticField(Class<?> cls, String name) {
+		for (Field field : cls.getFields()) {
+			if (field.getName().equals(name)
+					&& Modifier.isStatic(field.getModifiers())) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 呼び出し可能なプロパティのgetterを取得する.<br>
+	 * getterを宣言しているクラスがpublicでない場合は、
+	 * publicなインターフェイスまたはスーパークラスのメソッドを探す.<br>
+	 *
+	 * @param cls
+	 * @param name
+	 * @return getter、なければnull
+	 */
+	private static Method findGetter(Class<?> cls, String name) {
+		PropertyDescriptor[] pds;
+		try {
+			pds = Introspector.getBeanInfo(cls).getPropertyDescriptors();
+
+		} catch (IntrospectionException ex) {
+			return null;
+		}
+		for (PropertyDescriptor pd : pds) {
+			if (pd.getName().equals(name)) {
+				Method method = pd.getReadMethod();
+				return method != null ? findAccessibleMethod(method) : null;
+			}
+		}
+		return null;
+	}
+
+	private static Method findAccessibleMethod(Method method) {
+		Class<?> cls = method.getDeclaringClass();
+		if (Modifier.isPublic(cls.getModifiers())) {
+			return method;
+		}
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			for (Class<?> iface : c.getInterfaces()) {
+				Method found = findPublicMethod(iface, method);
+				if (found != null) {
+					return found;
+				}
+			}
+			if (c != cls) {
+				Method found = findPublicMethod(c, method);
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Method findPublicMethod(Class<?> cls, Method method) {
+		if (!Modifier.isPublic(cls.getModifiers())) {
+			return null;
+		}
+		try {
+			return cls.getMethod(method.getName(), method.getParameterTypes());
+
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return キャッシュから解決した回数
+	 */
+	int getHitCount() {
+		return hitCount;
+	}
+}
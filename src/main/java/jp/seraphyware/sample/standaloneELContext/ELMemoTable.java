@@ -0,0 +1,386 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.el.VariableMapper;
+
+/**
+ * PreparedExpressionの評価結果を記憶するメモ表.<br>
+ * 式と、式が参照したビーン・変数の同一性およびリビジョンの組をキーとして評価結果を保持し、
+ * 同じ入力で評価される場合は式を評価せずに記憶した値を返す.<br>
+ * ビーンや変数がdefineBean, setVariable, setValue, touchなどのコンテキストのAPIを通じて
+ * 変更されるとリビジョンが変わるため、変更前の結果は参照されなくなり、
+ * 最も長く参照されていないものから順に破棄される.<br>
+ * エポックの範囲で保持される遅延作成のビーンや、メモ化された変数を参照した結果は、
+ * 評価エポックが変わると参照されなくなる.<br>
+ * 代入やメソッド呼び出しを行った評価の結果は記憶しない.
+ * 関数は副作用がなく、同じ引数に対して同じ値を返すものとみなす.<br>
+ * 保持する結果の数は上限までに制限される.<br>
+ * 複数のPreparedExpression、複数のコンテキストで共有でき、このクラスはスレッドセーフである.
+ * 仮想スレッドのキャリアスレッドを占有しないように、排他にはsynchronizedではなくロックを用いる.<br>
+ *
+ * @see PreparedExpression#setMemoTable(ELMemoTable)
+ */
+public class ELMemoTable {
+
+	/**
+	 * 記憶していないことを示す値
+	 */
+	static final Object NOT_FOUND = new Object();
+
+	/**
+	 * 記憶のキー.<br>
+	 * コンテキスト、ビーン、変数は同一性で比較する.<br>
+	 */
+	private static final class Key {
+
+		final String expression;
+
+		final Class<?> expectedType;
+
+		final SimpleELContext context;
+
+		/**
+		 * 参照されたビーン名と変数名(変数名には先頭に'$'を付ける)
+		 */
+		final String[] names;
+
+		/**
+		 * 名前に結び付けられていたビーン、または変数のValueExpression
+		 */
+		final Object[] bindings;
+
+		/**
+		 * 名前ごとのリビジョン
+		 */
+		final long[] revisions;
+
+		/**
+		 * 評価エポック、エポックに依存するビーン・変数を参照していなければ-1
+		 */
+		final long epoch;
+
+		final int hash;
+
+		Key(String expression, Class<?> expectedType, SimpleELContext context,
+				ELDependencies deps) {
+			this.expression = expression;
+			this.expectedType = expectedType;
+			this.context = context;
+
+			Set<String> identifiers = deps.getIdentifiers();
+			Set<String> variables = deps.getVariables();
+			int size = identifiers.size() + variables.size();
+			names = new String[size];
+			bindings = new Object[size];
+			revisions = new long[size];
+			Map<String, Object> beans = context.getBeans();
+			VariableMapper varMapper = context.getVariableMapper();
+			boolean epochScoped = false;
+			int idx = 0;
+			for (String name : identifiers) {
+				names[idx] = name;
+				bindings[idx] = beans.get(name);
+				epochScoped |= isEpochScoped(bindings[idx]);
+				revisions[idx++] = context.getRevision(name);
+			}
+			for (String name : variables) {
+				names[idx] = '$' + name;
+				bindings[idx] = varMapper.resolveVariable(name);
+				epochScoped |= isEpochScoped(bindings[idx]);
+				revisions[idx++] = context.getRevision(name);
+			}
+			epoch = epochScoped ? context.getEpoch() : -1;
+
+			int h = expression.hashCode() * 31 + expectedType.hashCode();
+			h = h * 31 + System.identityHashCode(context);
+			h = h * 31 + (int) (epoch ^ (epoch >>> 32));
+			for (idx = 0; idx < size; idx++) {
+				h = h * 31 + names[idx].hashCode();
+				h = h * 31 + System.identityHashCode(bindings[idx]);
+				h = h * 31 + (int) (revisions[idx] ^ (revisions[idx] >>> 32));
+			}
+			hash = h;
+		}
+
+		/**
+		 * 評価エポックが変わると値が変わりうるものであるか判定する.<br>
+		 *
+		 * @param binding
+		 *            ビーン、または変数のValueExpression
+		 * @return エポックの範囲の遅延作成のビーン、またはメモ化された変数であればtrue
+		 */
+		private static boolean isEpochScoped(Object binding) {
+			if (binding instanceof LazyBean) {
+				return ((LazyBean) binding).isEpochScoped();
+			}
+			return binding instanceof MemoizedValueExpression;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) obj;
+			if (hash != o.hash || context != o.context || epoch != o.epoch
+					|| expectedType != o.expectedType
+					|| !expression.equals(o.expression)
+					|| !Arrays.equals(names, o.names)
+					|| !Arrays.equals(revisions, o.revisions)) {
+				return false;
+			}
+			for (int idx = 0; idx < bindings.length; idx++) {
+				if (bindings[idx] != o.bindings[idx]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 記憶した評価結果
+	 */
+	private static final class Entry {
+
+		final Object value;
+
+		/**
+		 * 評価したときの依存関係
+		 */
+		final ELDependencies dependencies;
+
+		Entry(Object value, ELDependencies dependencies) {
+			this.value = value;
+			this.dependencies = dependencies;
+		}
+	}
+
+	/**
+	 * 保持する結果の上限
+	 */
+	private final int maxEntries;
+
+	/**
+	 * 参照順に並んだ評価結果
+	 */
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/**
+	 * 評価結果と統計を保護するロック
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param maxEntries
+	 *            保持する結果の上限
+	 */
+	public ELMemoTable(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries=" + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > ELMemoTable.this.maxEntries) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * 記憶した評価結果を取得する.<br>
+	 * 見つかった場合は、評価したときの依存関係を指定した記録先に取り込む.<br>
+	 *
+	 * @param expression
+	 *            EL式
+	 * @param expectedType
+	 *            評価結果の型
+	 * @param context
+	 *            評価するコンテキスト
+	 * @param shape
+	 *            前回の評価の依存関係(参照するビーン名・変数名の候補)、
+	 *            まだ評価していなければnull
+	 * @param recorder
+	 *            見つかった結果の依存関係の記録先
+	 * @return 評価結果、記憶していなければNOT_FOUND
+	 */
+	Object lookup(String expression, Class<?> expectedType,
+			SimpleELContext context, ELDependencies shape,
+			ELDependencies recorder) {
+		Key key = shape != null ? new Key(expression, expectedType, context,
+				shape) : null;
+		Entry entry;
+		lock.lock();
+		try {
+			entry = key != null ? entries.get(key) : null;
+			if (entry == null) {
+				missCount++;
+				return NOT_FOUND;
+			}
+			hitCount++;
+
+		} finally {
+			lock.unlock();
+		}
+		recorder.addAll(entry.dependencies);
+		return entry.value;
+	}
+
+	/**
+	 * 評価結果を記憶する.<br>
+	 * 代入やメソッド呼び出しを行った評価の結果は記憶しない.<br>
+	 *
+	 * @param expression
+	 *            EL式
+	 * @param expectedType
+	 *            評価結果の型
+	 * @param context
+	 *            評価したコンテキスト
+	 * @param deps
+	 *            評価したときの依存関係
+	 * @param value
+	 *            評価結果
+	 */
+	void store(String expression, Class<?> expectedType,
+			SimpleELContext context, ELDependencies deps, Object value) {
+		if (deps.hasSideEffect()) {
+			return;
+		}
+		Key key = new Key(expression, expectedType, context, deps);
+		lock.lock();
+		try {
+			entries.put(key, new Entry(value, deps));
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 記憶しているすべての結果を破棄する.<br>
+	 * 統計はリセットしない.<br>
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			entries.clear();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 記憶している結果の数
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 記憶した結果を返した回数
+	 */
+	public long getHitCount() {
+		lock.lock();
+		try {
+			return hitCount;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 記憶した結果が見つからなかった回数
+	 */
+	public long getMissCount() {
+		lock.lock();
+		try {
+			return missCount;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 上限を超えたために破棄した結果の数
+	 */
+	public long getEvictionCount() {
+		lock.lock();
+		try {
+			return evictionCount;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 記憶した結果を返した割合を取得する.<br>
+	 *
+	 * @return ヒット率、まだ参照されていなければ0
+	 */
+	public double getHitRate() {
+		lock.lock();
+		try {
+			long total = hitCount + missCount;
+			return total > 0 ? (double) hitCount / total : 0;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "size=" + entries.size() + "/" + maxEntries + ", hit="
+					+ hitCount + ", miss=" + missCount + ", eviction="
+					+ evictionCount;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,567 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多数の条件式を1つのネットワークにまとめて評価するルールの集合.<br>
+ * 条件式は最上位の&amp;&amp;(and)で項に分解され、同じ項は複数のルールで共有される.
+ * 1回の評価で、各項は高々1度しか評価されない.
+ * また、すべての項は1つの評価パスの中で評価されるため、共通するプロパティの参照も1度だけ解決される.<br>
+ * "event.type == 'X'"のように、パスとリテラルを比較する項はルールの振り分けに用いられる.
+ * パスの値を1度だけ評価して、リテラルをキーとするハッシュ表から一致するルールだけを選び、
+ * 一致しないルールは評価しない.<br>
+ * パスの値がリテラルと直接比較できない型の場合(Doubleと整数リテラルなど)は、
+ * ELの型変換に従うため、その項を通常どおり評価する.<br>
+ * 最上位に||や?:を含む条件式は分解せず、全体を1つの項として扱う.<br>
+ * 振り分けに用いる項は、そのルールの他の項より先に評価される.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class ELRuleNetwork {
+
+	/**
+	 * リテラルの種類
+	 */
+	private static final int KIND_STRING = 0;
+
+	private static final int KIND_LONG = 1;
+
+	private static final int KIND_BOOLEAN = 2;
+
+	/**
+	 * どのリテラルとも一致しないことを示すキー
+	 */
+	private static final Object NO_MATCH = new Object();
+
+	/**
+	 * ハッシュ表で判定できないことを示すキー
+	 */
+	private static final Object UNKNOWN = new Object();
+
+	/**
+	 * コンパイルされたルール
+	 */
+	private static final class Rule {
+
+		final String name;
+
+		/**
+		 * 振り分けに用いる項のID、なければ-1
+		 */
+		int routeConjunct = -1;
+
+		/**
+		 * 振り分け以外の項のID
+		 */
+		int[] conjuncts;
+
+		Rule(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * パスの等値比較による振り分け表
+	 */
+	private static final class EqualityIndex {
+
+		/**
+		 * パスの値を取得する式
+		 */
+		final PreparedExpression path;
+
+		/**
+		 * リテラルの種類
+		 */
+		final int kind;
+
+		/**
+		 * リテラルごとのルール番号
+		 */
+		final Map<Object, List<Integer>> buckets = new HashMap<Object, List<Integer>>();
+
+		/**
+		 * この表で振り分けるすべてのルール番号
+		 */
+		final BitSet rules = new BitSet();
+
+		EqualityIndex(PreparedExpression path, int kind) {
+			this.path = path;
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * 名前をキーとする条件式
+	 */
+	private final Map<String, String> predicates = new LinkedHashMap<String, String>();
+
+	/**
+	 * コンパイル済みのルール、未コンパイルであればnull
+	 */
+	private List<Rule> compiledRules;
+
+	/**
+	 * 共有される項
+	 */
+	private List<PreparedExpression> conjuncts;
+
+	/**
+	 * 振り分け表
+	 */
+	private List<EqualityIndex> indexes;
+
+	/**
+	 * 振り分け表を持たないルール
+	 */
+	private BitSet unindexedRules;
+
+	/**
+	 * 前回の評価で評価した項の数
+	 */
+	private int lastConjunctEvaluations;
+
+	/**
+	 * 前回の評価で項を評価したルールの数
+	 */
+	private int lastCandidateCount;
+
+	/**
+	 * ルールを追加する.<br>
+	 * 同名のルールがあれば置き換えられる.<br>
+	 *
+	 * @param name
+	 *            ルール名
+	 * @param predicate
+	 *            条件式(${}で囲まないもの)
+	 */
+	public void add(String name, String predicate) {
+		if (name == null || predicate == null) {
+			throw new IllegalArgumentException();
+		}
+		predicates.put(name, predicate);
+		compiledRules = null;
+	}
+
+	/**
+	 * ルールを削除する.<br>
+	 *
+	 * @param name
+	 *            ルール名
+	 */
+	public void remove(String name) {
+		if (predicates.remove(name) != null) {
+			compiledRules = null;
+		}
+	}
+
+	/**
+	 * @return ルール名の一覧
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(predicates.keySet());
+	}
+
+	/**
+	 * @return 共有される項の数
+	 */
+	public int getConjunctCount() {
+		compile();
+		return conjuncts.size();
+	}
+
+	/**
+	 * @return 振り分け表で選択されるルールの数
+	 */
+	public int getIndexedRuleCount() {
+		compile();
+		return compiledRules.size() - unindexedRules.cardinality();
+	}
+
+	/**
+	 * @return 前回の評価で実際に評価した項の数
+	 */
+	public int getLastConjunctEvaluations() {
+		return lastConjunctEvaluations;
+	}
+
+	/**
+	 * @return 前回の評価で振り分け後に残ったルールの数
+	 */
+	public int getLastCandidateCount() {
+		return lastCandidateCount;
+	}
+
+	/**
+	 * 条件式をネットワークにまとめる.<br>
+	 */
+	private void compile() {
+		if (compiledRules != null) {
+			return;
+		}
+		List<Rule> rules = new ArrayList<Rule>();
+		List<PreparedExpression> exprs = new ArrayList<PreparedExpression>();
+		Map<String, Integer> conjunctIds = new HashMap<String, Integer>();
+		Map<String, EqualityIndex> indexMap = new LinkedHashMap<String, EqualityIndex>();
+		BitSet unindexed = new BitSet();
+
+		for (Map.Entry<String, String> entry : predicates.entrySet()) {
+			int ruleNo = rules.size();
+			Rule rule = new Rule(entry.getKey());
+			List<String> terms = splitConjuncts(entry.getValue());
+			List<Integer> ids = new ArrayList<Integer>();
+			for (String term : terms) {
+				Integer id = conjunctIds.get(term);
+				if (id == null) {
+					id = Integer.valueOf(exprs.size());
+					exprs.add(new PreparedExpression("${" + term + '}',
+							Boolean.class));
+					conjunctIds.put(term, id);
+				}
+				Object[] equality = rule.routeConjunct < 0 ? parseEquality(term)
+						: null;
+				if (equality != null) {
+					String path = (String) equality[0];
+					int kind = ((Integer) equality[1]).intValue();
+					String indexKey = path + '#' + kind;
+					EqualityIndex index = indexMap.get(indexKey);
+					if (index == null) {
+						index = new EqualityIndex(new PreparedExpression("${"
+								+ path + '}', Object.class), kind);
+						indexMap.put(indexKey, index);
+					}
+					List<Integer> bucket = index.buckets.get(equality[2]);
+					if (bucket == null) {
+						bucket = new ArrayList<Integer>();
+						index.buckets.put(equality[2], bucket);
+					}
+					bucket.add(Integer.valueOf(ruleNo));
+					index.rules.set(ruleNo);
+					rule.routeConjunct = id.intValue();
+				} else if (!ids.contains(id)) {
+					ids.add(id);
+				}
+			}
+			if (rule.routeConjunct < 0) {
+				unindexed.set(ruleNo);
+			}
+			rule.conjuncts = new int[ids.size()];
+			for (int idx = 0; idx < rule.conjuncts.length; idx++) {
+				rule.conjuncts[idx] = ids.get(idx).intValue();
+			}
+			rules.add(rule);
+		}
+		conjuncts = exprs;
+		indexes = new ArrayList<EqualityIndex>(indexMap.values());
+		unindexedRules = unindexed;
+		compiledRules = rules;
+	}
+
+	/**
+	 * すべてのルールを評価し、条件を満たすルールの名前を返す.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 条件を満たしたルールの名前(追加順)
+	 */
+	public Set<String> evaluate(SimpleELContext context) {
+		compile();
+		Set<String> matched = new LinkedHashSet<String>();
+		Boolean[] results = new Boolean[conjuncts.size()];
+		int evaluations = 0;
+		ELEvaluationPass prevPass = context.startPass(new ELEvaluationPass(null));
+		try {
+			// 振り分け表で候補のルールを選ぶ.
+			BitSet candidates = (BitSet) unindexedRules.clone();
+			BitSet unrouted = new BitSet();
+			for (EqualityIndex index : indexes) {
+				Object key = toKey(index.path.getValue(context), index.kind);
+				if (key == UNKNOWN) {
+					candidates.or(index.rules);
+					unrouted.or(index.rules);
+
+				} else if (key != NO_MATCH) {
+					List<Integer> bucket = index.buckets.get(key);
+					if (bucket != null) {
+						for (Integer ruleNo : bucket) {
+							candidates.set(ruleNo.intValue());
+						}
+					}
+				}
+			}
+			lastCandidateCount = candidates.cardinality();
+
+			for (int ruleNo = candidates.nextSetBit(0); ruleNo >= 0; ruleNo = candidates
+					.nextSetBit(ruleNo + 1)) {
+				Rule rule = compiledRules.get(ruleNo);
+				boolean ok = true;
+				if (unrouted.get(ruleNo)) {
+					int id = rule.routeConjunct;
+					if (results[id] == null) {
+						results[id] = test(conjuncts.get(id), context);
+						evaluations++;
+					}
+					ok = results[id].booleanValue();
+				}
+				for (int idx = 0; ok && idx < rule.conjuncts.length; idx++) {
+					int id = rule.conjuncts[idx];
+					if (results[id] == null) {
+						results[id] = test(conjuncts.get(id), context);
+						evaluations++;
+					}
+					ok = results[id].booleanValue();
+				}
+				if (ok) {
+					matched.add(rule.name);
+				}
+			}
+
+		} finally {
+			context.endPass(prevPass);
+		}
+		lastConjunctEvaluations = evaluations;
+		return matched;
+	}
+
+	private static Boolean test(PreparedExpression expr, SimpleELContext context) {
+		return Boolean.valueOf(Boolean.TRUE.equals(expr.getValue(context)));
+	}
+
+	/**
+	 * パスの値を振り分け表のキーに変換する.<br>
+	 * ELの等値比較と同じ結果になる場合のみキーとする.<br>
+	 *
+	 * @param value
+	 *            パスの値
+	 * @param kind
+	 *            リテラルの種類
+	 * @return キー、nullであればNO_MATCH、判定できなければUNKNOWN
+	 */
+	private static Object toKey(Object value, int kind) {
+		if (value == null) {
+			return NO_MATCH;
+		}
+		switch (kind) {
+		case KIND_STRING:
+			if (value instanceof String) {
+				return value;
+			}
+			if (value instanceof Enum) {
+				return ((Enum<?>) value).name();
+			}
+			if (value instanceof Character) {
+				return value.toString();
+			}
+			return UNKNOWN;
+		case KIND_LONG:
+			if (value instanceof Long || value instanceof Integer
+					|| value instanceof Short || value instanceof Byte) {
+				return Long.valueOf(((Number) value).longValue());
+			}
+			return UNKNOWN;
+		default:
+			return value instanceof Boolean ? value : UNKNOWN;
+		}
+	}
+
+	/**
+	 * "path == literal"または"literal == path"の形式の項を解析する.<br>
+	 *
+	 * @param term
+	 *            項
+	 * @return {パス, リテラルの種類, リテラルの値}、形式が異なればnull
+	 */
+	static Object[] parseEquality(String term) {
+		int pos = findTopLevelEquals(term);
+		if (pos < 0) {
+			return null;
+		}
+		// "=="も"eq"も2文字
+		String lhs = term.substring(0, pos).trim();
+		String rhs = term.substring(pos + 2).trim();
+		Object[] literal = parseLiteral(rhs);
+		String path = lhs;
+		if (literal == null) {
+			literal = parseLiteral(lhs);
+			path = rhs;
+		}
+		if (literal == null) {
+			return null;
+		}
+		path = PathIndexedELResolver.toStaticPath("${" + path + '}');
+		if (path == null) {
+			return null;
+		}
+		return new Object[] { path, literal[0], literal[1] };
+	}
+
+	/**
+	 * 最上位の"=="または" eq "の位置を探す.<br>
+	 *
+	 * @param term
+	 * @return 位置、なければ-1
+	 */
+	private static int findTopLevelEquals(String term) {
+		char quote = 0;
+		int found = -1;
+		for (int pos = 0; pos < term.length(); pos++) {
+			char c = term.charAt(pos);
+			if (quote != 0) {
+				if (c == '\\') {
+					pos++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (term.startsWith("==", pos) || isWordAt(term, pos, "eq")) {
+				if (found >= 0) {
+					return -1;
+				}
+				found = pos;
+				pos++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * リテラルを解析する.<br>
+	 *
+	 * @param text
+	 * @return {種類, 値}、リテラルでなければnull
+	 */
+	private static Object[] parseLiteral(String text) {
+		if (text.length() >= 2
+				&& (text.charAt(0) == '\'' || text.charAt(0) == '"')
+				&& text.charAt(text.length() - 1) == text.charAt(0)) {
+			char quote = text.charAt(0);
+			StringBuilder buf = new StringBuilder();
+			for (int pos = 1; pos < text.length() - 1; pos++) {
+				char c = text.charAt(pos);
+				if (c == '\\') {
+					if (++pos >= text.length() - 1) {
+						return null;
+					}
+					c = text.charAt(pos);
+				} else if (c == quote) {
+					return null;
+				}
+				buf.append(c);
+			}
+			return new Object[] { Integer.valueOf(KIND_STRING), buf.toString() };
+		}
+		if (text.equals("true") || text.equals("false")) {
+			return new Object[] { Integer.valueOf(KIND_BOOLEAN),
+					Boolean.valueOf(text) };
+		}
+		if (text.matches("-?[0-9]{1,18}")) {
+			return new Object[] { Integer.valueOf(KIND_LONG), Long.valueOf(text) };
+		}
+		return null;
+	}
+
+	/**
+	 * 条件式を最上位の&amp;&amp;(and)で項に分解する.<br>
+	 * 最上位に||, or, ?:, 代入, セミコロン, ラムダ式を含む場合は分解しない.<br>
+	 * 各項は前後の空白を取り除き、文字列リテラル以外の連続する空白を1つにまとめる.<br>
+	 *
+	 * @param predicate
+	 * @return 項
+	 */
+	static List<String> splitConjuncts(String predicate) {
+		List<String> terms = new ArrayList<String>();
+		StringBuilder buf = new StringBuilder();
+		int depth = 0;
+		char quote = 0;
+		boolean splittable = true;
+		for (int pos = 0; pos < predicate.length(); pos++) {
+			char c = predicate.charAt(pos);
+			if (quote != 0) {
+				buf.append(c);
+				if (c == '\\' && pos + 1 < predicate.length()) {
+					buf.append(predicate.charAt(++pos));
+				} else if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '(' || c == '[' || c == '{') {
+				depth++;
+			} else if (c == ')' || c == ']' || c == '}') {
+				depth--;
+			} else if (depth == 0) {
+				if (predicate.startsWith("&&", pos) || isWordAt(predicate, pos, "and")) {
+					terms.add(normalize(buf));
+					buf.setLength(0);
+					pos += c == '&' ? 1 : 2;
+					continue;
+				}
+				if (predicate.startsWith("||", pos) || isWordAt(predicate, pos, "or")
+						|| c == '?' || c == ';' || predicate.startsWith("->", pos)
+						|| (c == '=' && !isComparison(predicate, pos))) {
+					splittable = false;
+				}
+			}
+			if (Character.isWhitespace(c)) {
+				if (buf.length() > 0 && buf.charAt(buf.length() - 1) != ' ') {
+					buf.append(' ');
+				}
+				continue;
+			}
+			buf.append(c);
+		}
+		terms.add(normalize(buf));
+		if (!splittable || terms.contains("")) {
+			return Collections.singletonList(predicate.trim());
+		}
+		return terms;
+	}
+
+	private static String normalize(StringBuilder buf) {
+		return buf.toString().trim();
+	}
+
+	/**
+	 * 代入ではなく比較演算子(==, !=, &lt;=, &gt;=)の一部であるか判定する.<br>
+	 */
+	private static boolean isComparison(String text, int pos) {
+		if (pos + 1 < text.length() && text.charAt(pos + 1) == '=') {
+			return true;
+		}
+		if (pos > 0) {
+			char prev = text.charAt(pos - 1);
+			return prev == '=' || prev == '!' || prev == '<' || prev == '>';
+		}
+		return false;
+	}
+
+	/**
+	 * 指定した位置から、識別子の一部ではない単語が始まるか判定する.<br>
+	 */
+	private static boolean isWordAt(String text, int pos, String word) {
+		if (!text.startsWith(word, pos)) {
+			return false;
+		}
+		if (pos > 0) {
+			char prev = text.charAt(pos - 1);
+			if (Character.isJavaIdentifierPart(prev) || prev == '.') {
+				return false;
+			}
+		}
+		int end = pos + word.length();
+		return end >= text.length()
+				|| !Character.isJavaIdentifierPart(text.charAt(end));
+	}
+}
@@ -0,0 +1,115 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 同じ入力に対してまとめて評価する、名前付きのEL式の集合.<br>
+ * すべての式は1つの評価パスの中で評価され、
+ * 複数の式から共通して参照されるプロパティは評価1回につき1度だけ解決される.<br>
+ * 最初の評価で、式の中および式の間で繰り返し参照されるプロパティのパスを解析し、
+ * 以降の評価ではそれらのプロパティのみを共有の対象とする.<br>
+ * 関数の呼び出しはEL実装が直接行うため共有の対象とはならない.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class ELRuleSet {
+
+	/**
+	 * 名前をキーとする式
+	 */
+	private final Map<String, PreparedExpression> rules = new LinkedHashMap<String, PreparedExpression>();
+
+	/**
+	 * 評価パス中で共有するプロパティ.<br>
+	 * まだ解析されていなければnull
+	 */
+	private Set<Object> sharedProperties;
+
+	/**
+	 * 解析時に繰り返し参照されたパス
+	 */
+	private Set<String> sharedPaths = Collections.emptySet();
+
+	/**
+	 * 式を追加する.<br>
+	 * 同名の式があれば置き換えられる.<br>
+	 *
+	 * @param name
+	 *            式の名前
+	 * @param expression
+	 *            EL式(${}で囲まないもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 */
+	public void add(String name, String expression, Class<?> expectedType) {
+		if (name == null || expression == null || expectedType == null) {
+			throw new IllegalArgumentException();
+		}
+		rules.put(name, new PreparedExpression("${" + expression + '}',
+				expectedType));
+		sharedProperties = null;
+	}
+
+	/**
+	 * 式を削除する.<br>
+	 *
+	 * @param name
+	 *            式の名前
+	 */
+	public void remove(String name) {
+		if (rules.remove(name) != null) {
+			sharedProperties = null;
+		}
+	}
+
+	/**
+	 * @return 式の名前の一覧
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(rules.keySet());
+	}
+
+	/**
+	 * 前回の解析で、式の中および式の間で繰り返し参照されたパスを取得する.<br>
+	 *
+	 * @return パスのセット、解析前であれば空
+	 */
+	public Set<String> getSharedPaths() {
+		return Collections.unmodifiableSet(sharedPaths);
+	}
+
+	/**
+	 * すべての式を1つの評価パスで評価する.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 式の名前をキーとし、評価結果を値とするマップ
+	 */
+	public Map<String, Object> evaluate(SimpleELContext context) {
+		boolean analyze = sharedProperties == null;
+		ELDependencies deps = analyze ? new ELDependencies() : null;
+		ELDependencies prev = analyze ? context.startRecording(deps) : null;
+		// 未解析の場合はすべてのプロパティを対象にする.
+		ELEvaluationPass prevPass = context.startPass(new ELEvaluationPass(
+				sharedProperties));
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		try {
+			for (Map.Entry<String, PreparedExpression> entry : rules.entrySet()) {
+				results.put(entry.getKey(), entry.getValue().getValue(context));
+			}
+
+		} finally {
+			context.endPass(prevPass);
+			if (analyze) {
+				context.endRecording(prev);
+			}
+		}
+		if (analyze) {
+			sharedProperties = deps.getRepeatedProperties();
+			sharedPaths = deps.getRepeatedPaths();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,321 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.el.ELException;
+
+/**
+ * EL式を埋め込んだテンプレート.<br>
+ * "Hello, ${user.name}!"のような文字列を、リテラル部と式部のセグメントに分割して保持する.<br>
+ * 式部はセグメントごとにPreparedExpressionとして評価され、
+ * 参照しているビーン・変数が変更されていない限り前回の出力を再利用する.<br>
+ * 再描画の結果として、前回の出力から変化した範囲を取得できる.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class ELTemplate {
+
+	/**
+	 * テンプレートのセグメント
+	 */
+	private static final class Segment {
+
+		/**
+		 * リテラル文字列、式の場合はnull
+		 */
+		private final String literal;
+
+		/**
+		 * 式、リテラルの場合はnull
+		 */
+		private final PreparedExpression expression;
+
+		/**
+		 * 前回の出力
+		 */
+		private String output;
+
+		Segment(String literal, PreparedExpression expression) {
+			this.literal = literal;
+			this.expression = expression;
+			this.output = literal;
+		}
+	}
+
+	/**
+	 * 変化した範囲.<br>
+	 * 範囲は描画結果の文字列上の文字位置で表される.<br>
+	 */
+	public static final class Range {
+
+		private final int start;
+
+		private final int end;
+
+		public Range(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return 開始位置(この位置を含む)
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * @return 終了位置(この位置を含まない)
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Range) {
+				Range o = (Range) obj;
+				return start == o.start && end == o.end;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return start * 31 + end;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + start + ", " + end + ")";
+		}
+	}
+
+	/**
+	 * 描画結果
+	 */
+	public static final class RenderResult {
+
+		private final String text;
+
+		private final List<Range> changedRanges;
+
+		private final int evaluatedCount;
+
+		RenderResult(String text, List<Range> changedRanges, int evaluatedCount) {
+			this.text = text;
+			this.changedRanges = Collections.unmodifiableList(changedRanges);
+			this.evaluatedCount = evaluatedCount;
+		}
+
+		/**
+		 * @return 描画された文字列
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * 前回の描画から変化した範囲を取得する.<br>
+		 * 初回の描画では全体が変化したものとする.<br>
+		 *
+		 * @return 変化した範囲のリスト、変化がなければ空
+		 */
+		public List<Range> getChangedRanges() {
+			return changedRanges;
+		}
+
+		/**
+		 * @return 前回の描画から変化があればtrue
+		 */
+		public boolean isChanged() {
+			return !changedRanges.isEmpty();
+		}
+
+		/**
+		 * @return この描画で評価された式の数
+		 */
+		public int getEvaluatedCount() {
+			return evaluatedCount;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/**
+	 * テンプレート文字列
+	 */
+	private final String template;
+
+	/**
+	 * セグメントのリスト
+	 */
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	/**
+	 * 描画済みであるか?
+	 */
+	private boolean rendered;
+
+	/**
+	 * コンストラクタ.<br>
+	 * テンプレートを解析してセグメントに分割する.<br>
+	 * "\${"のようにエスケープされたものは式ではなくリテラルとして扱う.<br>
+	 *
+	 * @param template
+	 *            テンプレート文字列
+	 * @throws ELException
+	 *             式が閉じられていない場合
+	 */
+	public ELTemplate(String template) {
+		if (template == null) {
+			throw new IllegalArgumentException();
+		}
+		this.template = template;
+		parse(template);
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * テンプレートを解析してセグメントに分割する.<br>
+	 *
+	 * @param template
+	 */
+	private void parse(String template) {
+		StringBuilder buf = new StringBuilder();
+		int len = template.length();
+		int pos = 0;
+		while (pos < len) {
+			char c = template.charAt(pos);
+			if (c == '\\' && pos + 2 < len
+					&& (template.charAt(pos + 1) == '$' || template.charAt(pos + 1) == '#')
+					&& template.charAt(pos + 2) == '{') {
+				// エスケープされた式の開始はリテラルとする.
+				buf.append(template.charAt(pos + 1)).append('{');
+				pos += 3;
+				continue;
+			}
+			if ((c == '$' || c == '#') && pos + 1 < len
+					&& template.charAt(pos + 1) == '{') {
+				int end = findExpressionEnd(template, pos + 2);
+				if (buf.length() > 0) {
+					segments.add(new Segment(buf.toString(), null));
+					buf.setLength(0);
+				}
+				String expression = template.substring(pos, end + 1);
+				segments.add(new Segment(null, new PreparedExpression(expression,
+						String.class)));
+				pos = end + 1;
+				continue;
+			}
+			buf.append(c);
+			pos++;
+		}
+		if (buf.length() > 0) {
+			segments.add(new Segment(buf.toString(), null));
+		}
+	}
+
+	/**
+	 * 式の終端となる'}'の位置を探す.<br>
+	 * 文字列リテラル内の括弧と、入れ子になった括弧は読み飛ばす.<br>
+	 *
+	 * @param template
+	 *            テンプレート
+	 * @param start
+	 *            式の本体の開始位置
+	 * @return 終端の'}'の位置
+	 */
+	private static int findExpressionEnd(String template, int start) {
+		int len = template.length();
+		int depth = 1;
+		char quote = 0;
+		for (int pos = start; pos < len; pos++) {
+			char c = template.charAt(pos);
+			if (quote != 0) {
+				if (c == '\\') {
+					pos++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '{') {
+				depth++;
+			} else if (c == '}') {
+				if (--depth == 0) {
+					return pos;
+				}
+			}
+		}
+		throw new ELException("Unterminated expression: "
+				+ template.substring(start - 2));
+	}
+
+	/**
+	 * テンプレートを描画する.<br>
+	 * 前回の描画以降に、参照しているビーンや変数が変更された式のみを再評価し、
+	 * それ以外は前回の出力を再利用する.<br>
+	 * ビーンの変更はSimpleELContextのAPIを通じて行うか、
+	 * SimpleELContext#touch(String)で通知されている必要がある.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 描画結果
+	 */
+	public RenderResult render(SimpleELContext context) {
+		StringBuilder buf = new StringBuilder();
+		List<Range> changedRanges = new ArrayList<Range>();
+		int evaluatedCount = 0;
+		for (Segment segment : segments) {
+			int start = buf.length();
+			boolean changed = !rendered;
+			if (segment.expression != null
+					&& segment.expression.isModified(context)) {
+				Object value = segment.expression.getValue(context);
+				String output = value != null ? value.toString() : "";
+				evaluatedCount++;
+				if (!output.equals(segment.output)) {
+					segment.output = output;
+					changed = true;
+				}
+			}
+			buf.append(segment.output);
+			if (changed) {
+				addRange(changedRanges, start, buf.length());
+			}
+		}
+		rendered = true;
+		return new RenderResult(buf.toString(), changedRanges, evaluatedCount);
+	}
+
+	/**
+	 * 変化した範囲を追加する.<br>
+	 * 直前の範囲と連続している場合は結合する.<br>
+	 *
+	 * @param ranges
+	 * @param start
+	 * @param end
+	 */
+	private static void addRange(List<Range> ranges, int start, int end) {
+		int last = ranges.size() - 1;
+		if (last >= 0 && ranges.get(last).getEnd() == start) {
+			start = ranges.remove(last).getStart();
+		}
+		ranges.add(new Range(start, end));
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+}
@@ -0,0 +1,489 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 文字列をキーとするオープンアドレス法によるマップ.<br>
+ * キー、値、ハッシュ値をそれぞれ配列に直接格納するため、
+ * HashMapのようにエントリごとのオブジェクトを作成しない.<br>
+ * キーの比較は、まずハッシュ値と同一性で行うため、internされたキーであれば
+ * equalsを呼び出さずに一致を判定できる.<br>
+ * キーにnullは使用できないが、値にはnullを使用できる.<br>
+ * 変更されるたびに増加するバージョンを持ち、内容の変更を安価に検出できる.<br>
+ * このクラスはスレッドセーフではない.<br>
+ *
+ * @param <V>
+ *            値の型
+ */
+public class FlatStringMap<V> extends AbstractMap<String, V> implements
+		Serializable {
+
+	private static final long serialVersionUID = -2307735385209519934L;
+
+	/**
+	 * 削除済みのスロットを示すマーカー
+	 */
+	private static final String DELETED = new String("<deleted>");
+
+	/**
+	 * 既定の初期容量
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * キー、未使用であればnull、削除済みであればDELETED
+	 */
+	private transient String[] keys;
+
+	/**
+	 * キーのハッシュ値
+	 */
+	private transient int[] hashes;
+
+	/**
+	 * 値
+	 */
+	private transient Object[] values;
+
+	/**
+	 * 要素数
+	 */
+	private transient int size;
+
+	/**
+	 * 使用中および削除済みのスロット数
+	 */
+	private transient int used;
+
+	/**
+	 * 変更のたびに増加するバージョン
+	 */
+	private transient long version;
+
+	/**
+	 * キーの追加・削除のたびに増加する変更回数(イテレータ用)
+	 */
+	private transient int modCount;
+
+	/**
+	 * エントリのセット
+	 */
+	private transient Set<Map.Entry<String, V>> entrySet;
+
+	/**
+	 * 内容から作成したデータのキャッシュ(StandaloneBaseELResolverの索引など).<br>
+	 * 内容が変更されてもクリアされないため、利用する側でバージョンを確認すること.<br>
+	 */
+	private transient volatile Object derived;
+
+	public FlatStringMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param expectedSize
+	 *            想定する要素数
+	 */
+	public FlatStringMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize=" + expectedSize);
+		}
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * コピーコンストラクタ
+	 *
+	 * @param m
+	 *            コピー元
+	 */
+	public FlatStringMap(Map<String, ? extends V> m) {
+		this(m.size());
+		putAll(m);
+	}
+
+	/**
+	 * 要素数を格納できるテーブルの大きさを求める.<br>
+	 * 負荷率が1/2以下となる2のべき乗とする.<br>
+	 *
+	 * @param expectedSize
+	 * @return テーブルの大きさ
+	 */
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = 4;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		values = new Object[capacity];
+		used = 0;
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * キーのスロットを探す.<br>
+	 *
+	 * @param key
+	 *            キー
+	 * @param hash
+	 *            キーのハッシュ値
+	 * @return スロットの位置、なければ-1
+	 */
+	private int indexOf(String key, int hash) {
+		String[] keys = this.keys;
+		int mask = keys.length - 1;
+		int idx = hash & mask;
+		for (;;) {
+			String k = keys[idx];
+			if (k == null) {
+				return -1;
+			}
+			if (k == key || (hashes[idx] == hash && k != DELETED && k.equals(key))) {
+				return idx;
+			}
+			idx = (idx + 1) & mask;
+		}
+	}
+
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		String k = (String) key;
+		return indexOf(k, hash(k));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int idx = indexOf(key);
+		return idx >= 0 ? (V) values[idx] : null;
+	}
+
+	/**
+	 * 値を取得する.<br>
+	 * キーが存在しない場合は既定値を返す.<br>
+	 * containsKeyとgetを続けて呼び出すことなく、
+	 * 値がnullの場合と登録されていない場合を区別するために用いる.<br>
+	 *
+	 * @param key
+	 *            キー
+	 * @param defaultValue
+	 *            キーが存在しない場合の値
+	 * @return 値
+	 */
+	@SuppressWarnings("unchecked")
+	public V getOrDefault(Object key, V defaultValue) {
+		int idx = indexOf(key);
+		return idx >= 0 ? (V) values[idx] : defaultValue;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(String key, V value) {
+		if (key == null) {
+			throw new NullPointerException("null key");
+		}
+		int hash = hash(key);
+		int idx = indexOf(key, hash);
+		version++;
+		if (idx >= 0) {
+			V prev = (V) values[idx];
+			values[idx] = value;
+			return prev;
+		}
+		if ((used + 1) * 2 > keys.length) {
+			// 削除済みのスロットが多ければ同じ大きさで再構築する.
+			rehash(size + 1 > keys.length / 4 ? keys.length * 2 : keys.length);
+		}
+		String[] keys = this.keys;
+		int mask = keys.length - 1;
+		idx = hash & mask;
+		while (keys[idx] != null && keys[idx] != DELETED) {
+			idx = (idx + 1) & mask;
+		}
+		if (keys[idx] == null) {
+			used++;
+		}
+		keys[idx] = key;
+		hashes[idx] = hash;
+		values[idx] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	/**
+	 * 指定した大きさでテーブルを作り直す.<br>
+	 *
+	 * @param capacity
+	 *            新しい大きさ
+	 */
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		Object[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			String k = oldKeys[i];
+			if (k != null && k != DELETED) {
+				int idx = oldHashes[i] & mask;
+				while (keys[idx] != null) {
+					idx = (idx + 1) & mask;
+				}
+				keys[idx] = k;
+				hashes[idx] = oldHashes[i];
+				values[idx] = oldValues[i];
+				used++;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		int idx = indexOf(key);
+		if (idx < 0) {
+			return null;
+		}
+		V prev = (V) values[idx];
+		removeAt(idx);
+		return prev;
+	}
+
+	private void removeAt(int idx) {
+		keys[idx] = DELETED;
+		values[idx] = null;
+		size--;
+		version++;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		if (used > 0) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = null;
+				values[i] = null;
+			}
+			size = 0;
+			used = 0;
+		}
+		version++;
+		modCount++;
+	}
+
+	/**
+	 * 変更のたびに増加するバージョンを取得する.<br>
+	 * バージョンが同じであれば、内容は変更されていない.<br>
+	 *
+	 * @return バージョン
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	Object getDerived() {
+		return derived;
+	}
+
+	void setDerived(Object derived) {
+		this.derived = derived;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < keys.length; i++) {
+			String k = keys[i];
+			if (k != null && k != DELETED) {
+				out.writeObject(k);
+				out.writeObject(values[i]);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		int count = in.readInt();
+		allocate(tableSizeFor(count));
+		for (int i = 0; i < count; i++) {
+			String k = (String) in.readObject();
+			put(k, (V) in.readObject());
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, V>>() {
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public void clear() {
+					FlatStringMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	/**
+	 * エントリのイテレータ.<br>
+	 * エントリはスロットを参照するだけで、値はマップに直接格納される.<br>
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+
+		private int next = advance(0);
+
+		private int current = -1;
+
+		private int expectedModCount = modCount;
+
+		private int advance(int idx) {
+			while (idx < keys.length
+					&& (keys[idx] == null || keys[idx] == DELETED)) {
+				idx++;
+			}
+			return idx;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		@Override
+		public Map.Entry<String, V> next() {
+			if (expectedModCount != modCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= keys.length) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			next = advance(next + 1);
+			return new SlotEntry(current);
+		}
+
+		@Override
+		public void remove() {
+			if (current < 0) {
+				throw new IllegalStateException();
+			}
+			if (expectedModCount != modCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeAt(current);
+			current = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	/**
+	 * スロットを参照するエントリ
+	 */
+	private final class SlotEntry implements Map.Entry<String, V> {
+
+		private final int idx;
+
+		private final String key;
+
+		SlotEntry(int idx) {
+			this.idx = idx;
+			this.key = keys[idx];
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V getValue() {
+			return keys[idx] == key ? (V) values[idx] : get(key);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V setValue(V value) {
+			if (keys[idx] != key) {
+				return put(key, value);
+			}
+			V prev = (V) values[idx];
+			values[idx] = value;
+			version++;
+			return prev;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+			Object v = getValue();
+			return key.equals(e.getKey())
+					&& (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object v = getValue();
+			return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
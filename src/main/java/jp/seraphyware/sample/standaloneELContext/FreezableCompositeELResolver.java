@@ -0,0 +1,77 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.el.CompositeELResolver;
+import javax.el.ELResolver;
+
+/**
+ * 構築後に変更できないように凍結することのできるCompositeELResolver.<br>
+ * 一度だけ構築したリゾルバの連鎖を、複数のコンテキストやスレッドで共有するために用いる.<br>
+ * (BeanELResolverなどが内部に持つイントロスペクションのキャッシュも共有される.)<br>
+ * 凍結後はELResolverの追加はできなくなり、評価のみが行われるため、
+ * 保持しているELResolverがスレッドセーフであれば複数のスレッドから同時に使用できる.<br>
+ */
+public class FreezableCompositeELResolver extends CompositeELResolver {
+
+	/**
+	 * 凍結されているか?
+	 */
+	private volatile boolean frozen;
+
+	/**
+	 * 追加されたELResolver
+	 */
+	private final List<ELResolver> resolvers = new ArrayList<ELResolver>();
+
+	/**
+	 * ELResolverを追加する.<br>
+	 *
+	 * @param elResolver
+	 *            追加するELResolver
+	 * @throws IllegalStateException
+	 *             凍結されている場合
+	 */
+	@Override
+	public void add(ELResolver elResolver) {
+		if (frozen) {
+			throw new IllegalStateException("frozen");
+		}
+		super.add(elResolver);
+		resolvers.add(elResolver);
+	}
+
+	/**
+	 * 指定した型のELResolverが追加されているか判定する.<br>
+	 *
+	 * @param type
+	 *            ELResolverの型
+	 * @return 追加されていればtrue
+	 */
+	public boolean contains(Class<? extends ELResolver> type) {
+		for (ELResolver resolver : resolvers) {
+			if (type.isInstance(resolver)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 凍結し、以降ELResolverを追加できないようにする.<br>
+	 *
+	 * @return このインスタンス
+	 */
+	public FreezableCompositeELResolver freeze() {
+		frozen = true;
+		return this;
+	}
+
+	/**
+	 * @return 凍結されていればtrue
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+}
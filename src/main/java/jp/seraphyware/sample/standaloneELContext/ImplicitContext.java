@@ -1,10 +1,8 @@
 package jp.seraphyware.sample.standaloneELContext;
 
-import java.util.HashMap;
-
 /**
  * 暗黙の"implicit"コンテキストの型
  */
-class ImplicitContext extends HashMap<String, Object> {
+class ImplicitContext extends FlatStringMap<Object> {
 	private static final long serialVersionUID = -1256354618165972416L;
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.FeatureDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.PropertyNotWritableException;
+
+/**
+ * 登録された名前の暗黙のオブジェクトをELContextから取得するELResolver.<br>
+ * 暗黙のオブジェクトは名前と型で登録され、型がELContext#getContextのキーとなる.<br>
+ * 名前は構築時に完全ハッシュ表に配置されるため、登録数によらず
+ * ルート要素の名前の判定はハッシュ値の計算と1回の比較で済む.<br>
+ * bindで値を設定した場合は、コンテキストに保持される配列から1回の読み込みで値を取得する.
+ * 設定されていなければ、getContext(型)の値を返す.
+ * 値はリゾルバごとに保持されるため、1つのコンテキストで複数のリゾルバを併用できる.<br>
+ * このクラスは構築後は不変であり、複数のコンテキストで共有できる.<br>
+ */
+public class ImplicitObjectELResolver extends ELResolver {
+
+	/**
+	 * コンテキストごとの暗黙のオブジェクトの値.<br>
+	 * ELContext#getContext(Bindings.class)で保持される.
+	 * 複数のリゾルバが値を設定した場合は、リゾルバごとのBindingsが連結される.<br>
+	 */
+	public static final class Bindings {
+
+		/**
+		 * 値を設定したリゾルバ
+		 */
+		private final ImplicitObjectELResolver owner;
+
+		/**
+		 * スロットごとの値
+		 */
+		private final Object[] values;
+
+		/**
+		 * 他のリゾルバのBindings、なければnull
+		 */
+		private final Bindings next;
+
+		Bindings(ImplicitObjectELResolver owner, Bindings next) {
+			this.owner = owner;
+			this.values = new Object[owner.names.length];
+			this.next = next;
+		}
+	}
+
+	/**
+	 * 完全ハッシュ表の大きさの上限(ビット数)
+	 */
+	private static final int MAX_BITS = 16;
+
+	/**
+	 * 完全ハッシュ表のスロットごとの名前、空きスロットはnull
+	 */
+	private final String[] names;
+
+	/**
+	 * スロットごとの型(コンテキストのキー)
+	 */
+	private final Class<?>[] types;
+
+	/**
+	 * ハッシュ値に乗じる値
+	 */
+	private final int seed;
+
+	/**
+	 * ハッシュ値からスロットを求めるためのシフト量
+	 */
+	private final int shift;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param implicits
+	 *            暗黙のオブジェクトの名前をキーとし、その型を値とするマップ
+	 * @throws IllegalArgumentException
+	 *             引数がnull、または名前か型にnullを含む場合、
+	 *             ハッシュ値が同一の名前を含む場合
+	 */
+	public ImplicitObjectELResolver(Map<String, Class<?>> implicits) {
+		if (implicits == null) {
+			throw new IllegalArgumentException();
+		}
+		List<String> keys = new ArrayList<String>(implicits.keySet());
+		for (String key : keys) {
+			if (key == null || implicits.get(key) == null) {
+				throw new IllegalArgumentException("implicits=" + implicits);
+			}
+		}
+
+		// 衝突のない乗数とテーブルの大きさを探す.
+		int bits = 0;
+		while ((1 << bits) < keys.size()) {
+			bits++;
+		}
+		int found = 0;
+		for (; found == 0; bits++) {
+			if (bits > MAX_BITS) {
+				throw new IllegalArgumentException("Hash collision: " + keys);
+			}
+			found = findSeed(keys, bits);
+		}
+		bits--;
+		this.seed = found;
+		this.shift = 32 - bits;
+		this.names = new String[1 << bits];
+		this.types = new Class<?>[1 << bits];
+		for (String key : keys) {
+			int slot = slotOf(key.hashCode());
+			names[slot] = key;
+			types[slot] = implicits.get(key);
+		}
+	}
+
+	/**
+	 * 1つの暗黙のオブジェクトを登録するコンストラクタ
+	 *
+	 * @param name
+	 *            名前
+	 * @param type
+	 *            型(コンテキストのキー)
+	 */
+	public ImplicitObjectELResolver(String name, Class<?> type) {
+		this(Collections.<String, Class<?>> singletonMap(name, type));
+	}
+
+	/**
+	 * 指定したビット数のテーブルで、すべての名前が衝突しない乗数を探す.<br>
+	 *
+	 * @param keys
+	 *            名前
+	 * @param bits
+	 *            テーブルの大きさのビット数
+	 * @return 乗数、見つからなければ0
+	 */
+	private static int findSeed(List<String> keys, int bits) {
+		if (bits == 0) {
+			return 1;
+		}
+		int size = 1 << bits;
+		boolean[] used = new boolean[size];
+		int candidate = 0x9E3779B1;
+		for (int tries = 0; tries < 1000; tries++, candidate += 2) {
+			Arrays.fill(used, false);
+			boolean ok = true;
+			for (String key : keys) {
+				int slot = (key.hashCode() * candidate) >>> (32 - bits);
+				if (used[slot]) {
+					ok = false;
+					break;
+				}
+				used[slot] = true;
+			}
+			if (ok) {
+				return candidate;
+			}
+		}
+		return 0;
+	}
+
+	private int slotOf(int hash) {
+		return shift == 32 ? 0 : (hash * seed) >>> shift;
+	}
+
+	/**
+	 * 名前のスロットを取得する.<br>
+	 *
+	 * @param property
+	 * @return スロット、登録されていない名前であれば-1
+	 */
+	private int indexOf(Object property) {
+		if (!(property instanceof String)) {
+			return -1;
+		}
+		String name = (String) property;
+		int slot = slotOf(name.hashCode());
+		String registered = names[slot];
+		if (registered == name
+				|| (registered != null && registered.equals(name))) {
+			return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * 登録されている暗黙のオブジェクトの名前と型を取得する.<br>
+	 *
+	 * @return 名前をキーとし、型を値とする読み込み専用マップ
+	 */
+	public Map<String, Class<?>> getImplicits() {
+		Map<String, Class<?>> implicits = new LinkedHashMap<String, Class<?>>();
+		for (int idx = 0; idx < names.length; idx++) {
+			if (names[idx] != null) {
+				implicits.put(names[idx], types[idx]);
+			}
+		}
+		return Collections.unmodifiableMap(implicits);
+	}
+
+	/**
+	 * コンテキストに暗黙のオブジェクトの値を設定する.<br>
+	 * 値はコンテキストのgetContext(Bindings.class)に、このリゾルバの分として保持される.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @param name
+	 *            暗黙のオブジェクトの名前
+	 * @param value
+	 *            値、nullの場合はgetContext(型)の値を使用する
+	 * @throws IllegalArgumentException
+	 *             登録されていない名前の場合、または値が型に合わない場合
+	 */
+	public void bind(ELContext context, String name, Object value) {
+		int slot = indexOf(name);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Unknown implicit object: " + name);
+		}
+		if (value != null && !types[slot].isInstance(value)) {
+			throw new IllegalArgumentException("Type mismatch: " + name + "/"
+					+ types[slot]);
+		}
+		Bindings head = (Bindings) context.getContext(Bindings.class);
+		Bindings bindings = find(head);
+		if (bindings == null) {
+			bindings = new Bindings(this, head);
+			context.putContext(Bindings.class, bindings);
+		}
+		bindings.values[slot] = value;
+	}
+
+	/**
+	 * 連結されたBindingsから、このリゾルバのものを探す.<br>
+	 *
+	 * @param bindings
+	 *            先頭のBindings、なければnull
+	 * @return このリゾルバのBindings、なければnull
+	 */
+	private Bindings find(Bindings bindings) {
+		while (bindings != null && bindings.owner != this) {
+			bindings = bindings.next;
+		}
+		return bindings;
+	}
+
+	/**
+	 * スロットの値をコンテキストから取得する.<br>
+	 *
+	 * @param context
+	 * @param slot
+	 * @return 値
+	 */
+	private Object lookup(ELContext context, int slot) {
+		Bindings bindings = find((Bindings) context.getContext(Bindings.class));
+		if (bindings != null) {
+			Object value = bindings.values[slot];
+			if (value != null) {
+				return value;
+			}
+		}
+		return context.getContext(types[slot]);
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null) {
+			int slot = indexOf(property);
+			if (slot >= 0) {
+				context.setPropertyResolved(true);
+				return lookup(context, slot);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null) {
+			int slot = indexOf(property);
+			if (slot >= 0) {
+				context.setPropertyResolved(true);
+				return types[slot];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null && indexOf(property) >= 0) {
+			context.setPropertyResolved(true);
+			throw new PropertyNotWritableException("代入はサポートされていません/property="
+					+ property);
+		}
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null && indexOf(property) >= 0) {
+			context.setPropertyResolved(true);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(
+			ELContext context, Object base) {
+		if (base != null) {
+			return null;
+		}
+		List<FeatureDescriptor> descriptors = new ArrayList<FeatureDescriptor>();
+		for (int idx = 0; idx < names.length; idx++) {
+			if (names[idx] != null) {
+				FeatureDescriptor desc = new FeatureDescriptor();
+				desc.setName(names[idx]);
+				desc.setDisplayName(names[idx]);
+				desc.setShortDescription("");
+				desc.setExpert(false);
+				desc.setHidden(false);
+				desc.setPreferred(true);
+				desc.setValue(ELResolver.TYPE, types[idx]);
+				desc.setValue(ELResolver.RESOLVABLE_AT_DESIGN_TIME, Boolean.TRUE);
+				descriptors.add(desc);
+			}
+		}
+		return descriptors.iterator();
+	}
+
+	@Override
+	public Class<?> getCommonPropertyType(ELContext context, Object base) {
+		if (base == null) {
+			// baseがnull、つまり${first.xxxx}のfirstの場合は、
+			// 文字列として変数名を受け取ることを示す.
+			return String.class;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,752 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * 必要な値だけを実体化するJSONドキュメント.<br>
+ * 解析時には文字列を1回走査して、値ごとの種類と位置を並べた構造索引(テープ)だけを作成する.
+ * 文字列や数値は、参照されたときに初めて変換され、ドキュメントごとにキャッシュされる.<br>
+ * オブジェクトと配列は、テープを参照する読み込み専用のMapとListとして公開される.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public final class JsonDocument {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte OBJECT = 1;
+
+	private static final byte ARRAY = 2;
+
+	private static final byte STRING = 3;
+
+	/**
+	 * エスケープを含む文字列
+	 */
+	private static final byte ESCAPED_STRING = 4;
+
+	private static final byte NUMBER = 5;
+
+	private static final byte TRUE = 6;
+
+	private static final byte FALSE = 7;
+
+	private static final byte NULL = 8;
+
+	/**
+	 * 入れ子の深さの上限
+	 */
+	private static final int MAX_DEPTH = 1024;
+
+	/**
+	 * キー数がこれを超えるオブジェクトは、参照時にキーの索引を作成する
+	 */
+	private static final int LINEAR_SEARCH_LIMIT = 8;
+
+	/**
+	 * JSONの文字列
+	 */
+	private final String text;
+
+	/**
+	 * テープ上の値の種類
+	 */
+	private byte[] types;
+
+	/**
+	 * 値の開始位置
+	 */
+	private int[] starts;
+
+	/**
+	 * 値の終了位置(この位置を含まない)
+	 */
+	private int[] ends;
+
+	/**
+	 * 値の次のテープ位置(オブジェクトと配列では要素をすべて飛ばした位置)
+	 */
+	private int[] nexts;
+
+	/**
+	 * オブジェクトと配列の要素数
+	 */
+	private int[] counts;
+
+	/**
+	 * テープの長さ
+	 */
+	private int size;
+
+	/**
+	 * テープ位置ごとの実体化された値.<br>
+	 * 最初に参照されたときに作成される.<br>
+	 */
+	private Object[] values;
+
+	private JsonDocument(String text) {
+		this.text = text;
+		int capacity = Math.max(16, text.length() / 8);
+		types = new byte[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		nexts = new int[capacity];
+		counts = new int[capacity];
+	}
+
+	/**
+	 * JSONの文字列を解析する.<br>
+	 *
+	 * @param text
+	 *            JSON
+	 * @return ドキュメント
+	 * @throws IllegalArgumentException
+	 *             JSONとして正しくない場合
+	 */
+	public static JsonDocument parse(String text) {
+		if (text == null) {
+			throw new IllegalArgumentException();
+		}
+		JsonDocument doc = new JsonDocument(text);
+		doc.buildTape();
+		return doc;
+	}
+
+	/**
+	 * UTF-8でエンコードされたJSONを解析する.<br>
+	 *
+	 * @param bytes
+	 *            JSON
+	 * @return ドキュメント
+	 * @throws IllegalArgumentException
+	 *             JSONとして正しくない場合
+	 */
+	public static JsonDocument parse(byte[] bytes) {
+		if (bytes == null) {
+			throw new IllegalArgumentException();
+		}
+		return parse(new String(bytes, UTF8));
+	}
+
+	/**
+	 * ルートの値を取得する.<br>
+	 * オブジェクトであればMap、配列であればListとなる.<br>
+	 *
+	 * @return ルートの値
+	 */
+	public Object getRoot() {
+		return valueAt(0);
+	}
+
+	/**
+	 * @return テープの長さ(値とキーの総数)
+	 */
+	public int getTapeSize() {
+		return size;
+	}
+
+	/**
+	 * @return 実体化された値の数
+	 */
+	public int getMaterializedCount() {
+		if (values == null) {
+			return 0;
+		}
+		int count = 0;
+		for (Object value : values) {
+			if (value != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private IllegalArgumentException syntaxError(int pos) {
+		return new IllegalArgumentException("JSON syntax error at " + pos);
+	}
+
+	private int add(byte type, int start) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			byte[] newTypes = new byte[capacity];
+			System.arraycopy(types, 0, newTypes, 0, size);
+			types = newTypes;
+			starts = grow(starts, capacity);
+			ends = grow(ends, capacity);
+			nexts = grow(nexts, capacity);
+			counts = grow(counts, capacity);
+		}
+		int idx = size++;
+		types[idx] = type;
+		starts[idx] = start;
+		nexts[idx] = idx + 1;
+		return idx;
+	}
+
+	private int[] grow(int[] src, int capacity) {
+		int[] dest = new int[capacity];
+		System.arraycopy(src, 0, dest, 0, size);
+		return dest;
+	}
+
+	private int skipWhitespace(int pos) {
+		int len = text.length();
+		while (pos < len) {
+			char c = text.charAt(pos);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * 文字列を1回走査してテープを作成する.<br>
+	 * 入れ子は再帰ではなく明示的なスタックで扱う.<br>
+	 */
+	private void buildTape() {
+		int[] stack = new int[16];
+		int depth = 0;
+		int len = text.length();
+		int pos = skipWhitespace(0);
+		boolean expectKey = false;
+		for (;;) {
+			if (pos >= len) {
+				throw syntaxError(pos);
+			}
+			if (expectKey) {
+				if (text.charAt(pos) != '"') {
+					throw syntaxError(pos);
+				}
+				pos = scanString(pos);
+				pos = skipWhitespace(pos);
+				if (pos >= len || text.charAt(pos) != ':') {
+					throw syntaxError(pos);
+				}
+				pos = skipWhitespace(pos + 1);
+				expectKey = false;
+				continue;
+			}
+
+			// 値
+			if (depth > 0) {
+				counts[stack[depth - 1]]++;
+			}
+			char c = text.charAt(pos);
+			if (c == '{' || c == '[') {
+				if (depth == MAX_DEPTH) {
+					throw syntaxError(pos);
+				}
+				int idx = add(c == '{' ? OBJECT : ARRAY, pos);
+				if (depth == stack.length) {
+					int[] newStack = new int[depth * 2];
+					System.arraycopy(stack, 0, newStack, 0, depth);
+					stack = newStack;
+				}
+				stack[depth++] = idx;
+				pos = skipWhitespace(pos + 1);
+				char close = c == '{' ? '}' : ']';
+				if (pos < len && text.charAt(pos) == close) {
+					// 空のオブジェクトまたは配列
+					counts[idx] = 0;
+				} else {
+					expectKey = c == '{';
+					continue;
+				}
+			} else if (c == '"') {
+				pos = scanString(pos);
+				pos = skipWhitespace(pos);
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				pos = skipWhitespace(scanNumber(pos));
+			} else {
+				pos = skipWhitespace(scanLiteral(pos));
+			}
+
+			// 値の後ろ
+			for (;;) {
+				if (depth == 0) {
+					if (skipWhitespace(pos) != len) {
+						throw syntaxError(pos);
+					}
+					return;
+				}
+				if (pos >= len) {
+					throw syntaxError(pos);
+				}
+				int top = stack[depth - 1];
+				char close = types[top] == OBJECT ? '}' : ']';
+				c = text.charAt(pos);
+				if (c == ',') {
+					pos = skipWhitespace(pos + 1);
+					expectKey = types[top] == OBJECT;
+					break;
+				}
+				if (c != close) {
+					throw syntaxError(pos);
+				}
+				pos++;
+				ends[top] = pos;
+				nexts[top] = size;
+				depth--;
+				pos = skipWhitespace(pos);
+			}
+		}
+	}
+
+	/**
+	 * 文字列をスキャンする.<br>
+	 * エスケープは解釈せずに、エスケープできる文字であることと、
+	 * 'u'のエスケープには4桁の16進数が続くことだけを検証する.<br>
+	 *
+	 * @param pos
+	 *            開始の'"'の位置
+	 * @return 文字列の直後の位置
+	 */
+	private int scanString(int pos) {
+		int start = pos;
+		int len = text.length();
+		boolean escaped = false;
+		pos++;
+		for (;;) {
+			if (pos >= len) {
+				throw syntaxError(start);
+			}
+			char c = text.charAt(pos);
+			if (c == '"') {
+				break;
+			}
+			if (c == '\\') {
+				escaped = true;
+				pos++;
+				if (pos >= len) {
+					throw syntaxError(start);
+				}
+				c = text.charAt(pos);
+				if (c == 'u') {
+					for (int cnt = 0; cnt < 4; cnt++) {
+						pos++;
+						if (!isHexDigit(charAt(pos))) {
+							throw syntaxError(pos);
+						}
+					}
+				} else if ("\"\\/bfnrt".indexOf(c) < 0) {
+					throw syntaxError(pos);
+				}
+			} else if (c < 0x20) {
+				throw syntaxError(pos);
+			}
+			pos++;
+		}
+		pos++;
+		int idx = add(escaped ? ESCAPED_STRING : STRING, start);
+		ends[idx] = pos;
+		return pos;
+	}
+
+	/**
+	 * 数値をスキャンする.<br>
+	 * JSONの数値の文法(先頭の0の後に数字を続けない、小数部と指数部には1桁以上の数字)を検証する.<br>
+	 *
+	 * @param pos
+	 *            数値の開始位置
+	 * @return 数値の直後の位置
+	 */
+	private int scanNumber(int pos) {
+		int start = pos;
+		if (charAt(pos) == '-') {
+			pos++;
+		}
+		if (charAt(pos) == '0') {
+			pos++;
+		} else {
+			pos = scanDigits(pos, start);
+		}
+		if (charAt(pos) == '.') {
+			pos = scanDigits(pos + 1, start);
+		}
+		char c = charAt(pos);
+		if (c == 'e' || c == 'E') {
+			pos++;
+			c = charAt(pos);
+			if (c == '+' || c == '-') {
+				pos++;
+			}
+			pos = scanDigits(pos, start);
+		}
+		c = charAt(pos);
+		if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E'
+				|| c == '+' || c == '-') {
+			// "01"や"1.2.3"のように数値が続く場合
+			throw syntaxError(start);
+		}
+		int idx = add(NUMBER, start);
+		ends[idx] = pos;
+		return pos;
+	}
+
+	/**
+	 * 1桁以上の数字をスキャンする.<br>
+	 *
+	 * @param pos
+	 *            開始位置
+	 * @param start
+	 *            数値の開始位置(エラーの位置)
+	 * @return 数字の直後の位置
+	 */
+	private int scanDigits(int pos, int start) {
+		int digits = pos;
+		char c = charAt(pos);
+		while (c >= '0' && c <= '9') {
+			c = charAt(++pos);
+		}
+		if (pos == digits) {
+			throw syntaxError(start);
+		}
+		return pos;
+	}
+
+	private static boolean isHexDigit(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+				|| (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * 指定した位置の文字を取得する.<br>
+	 *
+	 * @param pos
+	 *            位置
+	 * @return 文字、範囲外であれば0
+	 */
+	private char charAt(int pos) {
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private int scanLiteral(int pos) {
+		byte type;
+		String literal;
+		if (text.startsWith("true", pos)) {
+			type = TRUE;
+			literal = "true";
+		} else if (text.startsWith("false", pos)) {
+			type = FALSE;
+			literal = "false";
+		} else if (text.startsWith("null", pos)) {
+			type = NULL;
+			literal = "null";
+		} else {
+			throw syntaxError(pos);
+		}
+		int idx = add(type, pos);
+		ends[idx] = pos + literal.length();
+		return ends[idx];
+	}
+
+	/**
+	 * テープ位置の値を取得する.<br>
+	 * 初めて参照された場合は実体化してキャッシュする.<br>
+	 *
+	 * @param idx
+	 *            テープ位置
+	 * @return 値
+	 */
+	private Object valueAt(int idx) {
+		switch (types[idx]) {
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case NULL:
+			return null;
+		default:
+			break;
+		}
+		if (values == null) {
+			values = new Object[size];
+		}
+		Object value = values[idx];
+		if (value == null) {
+			value = materialize(idx);
+			values[idx] = value;
+		}
+		return value;
+	}
+
+	private Object materialize(int idx) {
+		switch (types[idx]) {
+		case OBJECT:
+			return new JsonObject(this, idx);
+		case ARRAY:
+			return new JsonArray(this, idx);
+		case NUMBER:
+			return parseNumber(text.substring(starts[idx], ends[idx]));
+		default:
+			return stringAt(idx);
+		}
+	}
+
+	/**
+	 * 数値を変換する.<br>
+	 * 整数はLong(範囲を超える場合はBigInteger)、それ以外はDoubleとする.<br>
+	 *
+	 * @param str
+	 * @return 数値
+	 */
+	private static Number parseNumber(String str) {
+		try {
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				if (c == '.' || c == 'e' || c == 'E') {
+					return Double.valueOf(str);
+				}
+			}
+			if (str.length() <= 18) {
+				return Long.valueOf(str);
+			}
+			BigInteger big = new BigInteger(str);
+			return big.bitLength() < 64 ? (Number) Long.valueOf(big.longValue())
+					: big;
+
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("invalid number: " + str, ex);
+		}
+	}
+
+	private String stringAt(int idx) {
+		int start = starts[idx] + 1;
+		int end = ends[idx] - 1;
+		if (types[idx] == STRING) {
+			return text.substring(start, end);
+		}
+		StringBuilder buf = new StringBuilder(end - start);
+		for (int pos = start; pos < end; pos++) {
+			char c = text.charAt(pos);
+			if (c != '\\') {
+				buf.append(c);
+				continue;
+			}
+			c = text.charAt(++pos);
+			switch (c) {
+			case 'b':
+				buf.append('\b');
+				break;
+			case 'f':
+				buf.append('\f');
+				break;
+			case 'n':
+				buf.append('\n');
+				break;
+			case 'r':
+				buf.append('\r');
+				break;
+			case 't':
+				buf.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 >= end) {
+					throw syntaxError(pos);
+				}
+				try {
+					buf.append((char) Integer.parseInt(
+							text.substring(pos + 1, pos + 5), 16));
+
+				} catch (NumberFormatException ex) {
+					throw syntaxError(pos);
+				}
+				pos += 4;
+				break;
+			default:
+				buf.append(c);
+				break;
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * テープ位置の文字列がキーと一致するか判定する.<br>
+	 * エスケープを含まなければ文字列を作成せずに比較する.<br>
+	 *
+	 * @param idx
+	 * @param key
+	 * @return 一致すればtrue
+	 */
+	private boolean keyEquals(int idx, String key) {
+		if (types[idx] == STRING) {
+			int len = ends[idx] - starts[idx] - 2;
+			return len == key.length()
+					&& text.regionMatches(starts[idx] + 1, key, 0, len);
+		}
+		return stringAt(idx).equals(key);
+	}
+
+	/**
+	 * テープを参照するJSONオブジェクト.<br>
+	 * 読み込み専用のMapとして振る舞う.<br>
+	 */
+	public static final class JsonObject extends AbstractMap<String, Object> {
+
+		private final JsonDocument doc;
+
+		/**
+		 * テープ位置
+		 */
+		private final int idx;
+
+		/**
+		 * キーからその値のテープ位置への索引.<br>
+		 * キーが多い場合に、最初の参照で作成される.<br>
+		 */
+		private Map<String, Integer> keyIndex;
+
+		JsonObject(JsonDocument doc, int idx) {
+			this.doc = doc;
+			this.idx = idx;
+		}
+
+		/**
+		 * キーの値のテープ位置を取得する.<br>
+		 *
+		 * @param key
+		 * @return テープ位置、なければ-1
+		 */
+		private int find(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			if (keyIndex != null) {
+				Integer pos = keyIndex.get(key);
+				return pos != null ? pos.intValue() : -1;
+			}
+			if (doc.counts[idx] > LINEAR_SEARCH_LIMIT) {
+				Map<String, Integer> index = new HashMap<String, Integer>();
+				for (int k = idx + 1; k < doc.nexts[idx]; k = doc.nexts[k + 1]) {
+					String name = doc.stringAt(k);
+					if (!index.containsKey(name)) {
+						index.put(name, Integer.valueOf(k + 1));
+					}
+				}
+				keyIndex = index;
+				return find(key);
+			}
+			String name = (String) key;
+			for (int k = idx + 1; k < doc.nexts[idx]; k = doc.nexts[k + 1]) {
+				if (doc.keyEquals(k, name)) {
+					return k + 1;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public Object get(Object key) {
+			int pos = find(key);
+			return pos >= 0 ? doc.valueAt(pos) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return find(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return doc.counts[idx];
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new Iterator<Map.Entry<String, Object>>() {
+
+						private int k = idx + 1;
+
+						@Override
+						public boolean hasNext() {
+							return k < doc.nexts[idx];
+						}
+
+						@Override
+						public Map.Entry<String, Object> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(
+									doc.stringAt(k), doc.valueAt(k + 1));
+							k = doc.nexts[k + 1];
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return doc.counts[idx];
+				}
+			};
+		}
+	}
+
+	/**
+	 * テープを参照するJSON配列.<br>
+	 * 読み込み専用のListとして振る舞う.<br>
+	 */
+	public static final class JsonArray extends AbstractList<Object> implements
+			RandomAccess {
+
+		private final JsonDocument doc;
+
+		/**
+		 * テープ位置
+		 */
+		private final int idx;
+
+		/**
+		 * 要素ごとのテープ位置.<br>
+		 * 最初の参照で作成される.<br>
+		 */
+		private int[] elements;
+
+		JsonArray(JsonDocument doc, int idx) {
+			this.doc = doc;
+			this.idx = idx;
+		}
+
+		@Override
+		public Object get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("index=" + index);
+			}
+			if (elements == null) {
+				int[] pos = new int[size()];
+				int n = 0;
+				for (int k = idx + 1; k < doc.nexts[idx]; k = doc.nexts[k]) {
+					pos[n++] = k;
+				}
+				elements = pos;
+			}
+			return doc.valueAt(elements[index]);
+		}
+
+		@Override
+		public int size() {
+			return doc.counts[idx];
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.FeatureDescriptor;
+import java.util.Iterator;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.PropertyNotWritableException;
+
+/**
+ * JsonDocumentの値を解決するELResolver.<br>
+ * ドキュメント自身を基底とした場合はルートの値のプロパティを解決する.
+ * そのため${doc.items[0].name}のように、ドキュメントをビーンとして登録すればよい.<br>
+ * オブジェクトのキーと配列のインデックスはテープから直接探索され、
+ * 式が参照した値だけが実体化される.<br>
+ * 存在しないキーと範囲外のインデックスはnullとなる.<br>
+ * ドキュメントは読み込み専用であり、代入はサポートしない.<br>
+ */
+public class JsonELResolver extends ELResolver {
+
+	/**
+	 * 基底となるオブジェクトをJSONの値に変換する.<br>
+	 *
+	 * @param base
+	 * @return JsonObjectまたはJsonArray、JSONの値でなければnull
+	 */
+	private static Object toJsonValue(Object base) {
+		if (base instanceof JsonDocument) {
+			base = ((JsonDocument) base).getRoot();
+		}
+		if (base instanceof JsonDocument.JsonObject
+				|| base instanceof JsonDocument.JsonArray) {
+			return base;
+		}
+		return null;
+	}
+
+	private static boolean isJson(Object base) {
+		return base instanceof JsonDocument
+				|| base instanceof JsonDocument.JsonObject
+				|| base instanceof JsonDocument.JsonArray;
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (!isJson(base)) {
+			return null;
+		}
+		context.setPropertyResolved(true);
+		Object json = toJsonValue(base);
+		if (json instanceof JsonDocument.JsonObject) {
+			return ((JsonDocument.JsonObject) json).get(property);
+		}
+		if (json instanceof JsonDocument.JsonArray) {
+			JsonDocument.JsonArray array = (JsonDocument.JsonArray) json;
+			int index = toIndex(property);
+			if (index < 0 || index >= array.size()) {
+				return null;
+			}
+			return array.get(index);
+		}
+		// ルートがスカラー値の場合
+		return null;
+	}
+
+	/**
+	 * プロパティを配列のインデックスに変換する.<br>
+	 *
+	 * @param property
+	 * @return インデックス、変換できなければ-1
+	 */
+	private static int toIndex(Object property) {
+		if (property instanceof Number) {
+			return ((Number) property).intValue();
+		}
+		if (property instanceof String) {
+			try {
+				return Integer.parseInt((String) property);
+
+			} catch (NumberFormatException ex) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (isJson(base)) {
+			context.setPropertyResolved(true);
+			return Object.class;
+		}
+		return null;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (isJson(base)) {
+			context.setPropertyResolved(true);
+			throw new PropertyNotWritableException("代入はサポートされていません/property="
+					+ property);
+		}
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (isJson(base)) {
+			context.setPropertyResolved(true);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(
+			ELContext context, Object base) {
+		return null;
+	}
+
+	@Override
+	public Class<?> getCommonPropertyType(ELContext context, Object base) {
+		if (isJson(base)) {
+			return Object.class;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,120 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import javax.el.ELContext;
+import javax.el.ELException;
+
+/**
+ * ビーンのマップに登録される、遅延して作成されるビーンのホルダ.<br>
+ * LocalBeanELResolverによって解決されるときに、ビーンが作成される.<br>
+ */
+final class LazyBean {
+
+	/**
+	 * ビーンのファクトリ
+	 */
+	private final BeanSupplier<?> supplier;
+
+	/**
+	 * ビーンを保持する範囲
+	 */
+	private final BeanScope scope;
+
+	/**
+	 * 作成済みであるか?
+	 */
+	private boolean materialized;
+
+	/**
+	 * 作成したビーン
+	 */
+	private Object value;
+
+	/**
+	 * ビーンを作成したときの評価エポック
+	 */
+	private long epoch;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param supplier
+	 *            ビーンのファクトリ
+	 * @param scope
+	 *            ビーンを保持する範囲
+	 */
+	LazyBean(BeanSupplier<?> supplier, BeanScope scope) {
+		if (supplier == null || scope == null) {
+			throw new IllegalArgumentException();
+		}
+		this.supplier = supplier;
+		this.scope = scope;
+	}
+
+	/**
+	 * ビーンを取得する.<br>
+	 * まだ作成されていない場合、またはエポックの範囲で保持していて
+	 * エポックが変わっている場合は作成する.<br>
+	 *
+	 * @param context
+	 *            評価中のコンテキスト
+	 * @return ビーン
+	 * @throws ELException
+	 *             ビーンの作成に失敗した場合
+	 */
+	Object get(ELContext context) {
+		long current = getEpoch(context);
+		if (!materialized || epoch != current) {
+			try {
+				value = supplier.get();
+
+			} catch (ELException ex) {
+				throw ex;
+
+			} catch (RuntimeException ex) {
+				throw new ELException(ex);
+			}
+			materialized = true;
+			epoch = current;
+		}
+		return value;
+	}
+
+	/**
+	 * ビーンが作成済みであるか判定する.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @return 作成済みで、現在も保持していればtrue
+	 */
+	boolean isMaterialized(ELContext context) {
+		return materialized && epoch == getEpoch(context);
+	}
+
+	/**
+	 * @return エポックの範囲で保持するビーンであればtrue
+	 */
+	boolean isEpochScoped() {
+		return scope == BeanScope.EPOCH;
+	}
+
+	/**
+	 * 保持する範囲がエポックであれば、コンテキストの評価エポックを取得する.<br>
+	 *
+	 * @param context
+	 * @return エポック、エポックの範囲でなければ0
+	 */
+	private long getEpoch(ELContext context) {
+		if (scope != BeanScope.EPOCH) {
+			return 0;
+		}
+		SimpleELContext simpleContext = SimpleELContext.of(context);
+		if (simpleContext != null) {
+			return simpleContext.getEpoch();
+		}
+		Object standalone = context.getContext(StandaloneELContext.class);
+		if (standalone != null) {
+			return ((StandaloneELContext) standalone).getEpoch();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,90 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.el.BeanELResolver;
+import javax.el.ELContext;
+
+/**
+ * lenientモードをサポートするBeanELResolver.<br>
+ * lenientモードのときは、ビーンに読み込み可能なプロパティが存在しなければ、
+ * PropertyNotFoundExceptionを発生させずにnullとして解決する.<br>
+ * プロパティの有無はクラスごとにキャッシュされる.<br>
+ * lenientモードでなければ、BeanELResolverと同じ動作となる.<br>
+ *
+ * @see LenientELResolver#isLenient(ELContext)
+ */
+public class LenientBeanELResolver extends BeanELResolver {
+
+	/**
+	 * クラスごとの読み込み可能なプロパティ名
+	 */
+	private final ConcurrentHashMap<Class<?>, Set<String>> readableProperties = new ConcurrentHashMap<Class<?>, Set<String>>();
+
+	public LenientBeanELResolver() {
+		super();
+	}
+
+	public LenientBeanELResolver(boolean isReadOnly) {
+		super(isReadOnly);
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base != null && property != null
+				&& LenientELResolver.isLenient(context)) {
+			Set<String> names = getReadableProperties(base.getClass());
+			if (names != null && !names.contains(property.toString())) {
+				context.setPropertyResolved(true);
+				return null;
+			}
+		}
+		Object value = super.getValue(context, base, property);
+		if (base != null && context.isPropertyResolved()) {
+			// インラインキャッシュにgetterで解決できることを知らせる.
+			SimpleELContext simpleContext = SimpleELContext.of(context);
+			ELInlineCache cache = simpleContext != null ? simpleContext
+					.getInlineCache() : null;
+			if (cache != null) {
+				cache.beanResolved(base, property);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * クラスの読み込み可能なプロパティ名を取得する.<br>
+	 *
+	 * @param cls
+	 *            クラス
+	 * @return プロパティ名のセット、イントロスペクションできなければnull
+	 */
+	private Set<String> getReadableProperties(Class<?> cls) {
+		Set<String> names = readableProperties.get(cls);
+		if (names == null) {
+			try {
+				names = new HashSet<String>();
+				for (PropertyDescriptor pd : Introspector.getBeanInfo(cls)
+						.getPropertyDescriptors()) {
+					if (pd.getReadMethod() != null) {
+						names.add(pd.getName());
+					}
+				}
+
+			} catch (IntrospectionException ex) {
+				// 判定できないので通常どおり解決させる.
+				return null;
+			}
+			readableProperties.putIfAbsent(cls, names);
+		}
+		return names;
+	}
+}
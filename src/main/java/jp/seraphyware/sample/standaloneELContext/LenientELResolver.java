@@ -0,0 +1,78 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.beans.FeatureDescriptor;
+import java.util.Iterator;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+
+/**
+ * lenientモードのときに、未解決のルート要素をnullとして解決する終端のELResolver.<br>
+ * ELResolverの連鎖の最後に置くことで、どのELResolverでも解決されなかった
+ * ${undefined}のような識別子が、PropertyNotFoundExceptionではなくnullとなる.<br>
+ * lenientモードでなければ何も解決しない.<br>
+ * lenientモードであるかは、ELContextのgetContext(LenientELResolver.class)が
+ * Boolean.TRUEであるかどうかで判定する.<br>
+ */
+public class LenientELResolver extends ELResolver {
+
+	/**
+	 * コンテキストがlenientモードであるか判定する.<br>
+	 * EL実装によってラップされたELContextであっても判定できる.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @return lenientモードであればtrue
+	 */
+	public static boolean isLenient(ELContext context) {
+		return Boolean.TRUE.equals(context.getContext(LenientELResolver.class));
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null && property instanceof String && isLenient(context)) {
+			context.setPropertyResolved(true);
+		}
+		return null;
+	}
+
+	@Override
+	public Class<?> getType(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base == null && property instanceof String && isLenient(context)) {
+			context.setPropertyResolved(true);
+			return Object.class;
+		}
+		return null;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		// 何もしない.(他のELResolverで解決されなければ例外となる.)
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context, Object base, Object property) {
+		return false;
+	}
+
+	@Override
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context,
+			Object base) {
+		return null;
+	}
+
+	@Override
+	public Class<?> getCommonPropertyType(ELContext context, Object base) {
+		if (base == null) {
+			return String.class;
+		}
+		return null;
+	}
+}
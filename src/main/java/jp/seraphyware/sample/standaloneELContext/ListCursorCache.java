@@ -0,0 +1,100 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * リストごとに最後にアクセスした位置のListIteratorを保持するキャッシュ.<br>
+ */
+final class ListCursorCache {
+
+	/**
+	 * 記憶するリストの数
+	 */
+	private static final int SIZE = 4;
+
+	/**
+	 * リスト(同一性で比較する)
+	 */
+	private final List<?>[] lists = new List<?>[SIZE];
+
+	/**
+	 * リストごとのカーソル
+	 */
+	private final ListIterator<?>[] cursors = new ListIterator<?>[SIZE];
+
+	/**
+	 * 次に置き換えるエントリ
+	 */
+	private int victim;
+
+	/**
+	 * リストの要素を取得する.<br>
+	 *
+	 * @param list
+	 *            リスト
+	 * @param index
+	 *            インデックス
+	 * @return 要素、範囲外であればnull
+	 */
+	Object get(List<?> list, int index) {
+		int size = list.size();
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		int slot = find(list);
+		try {
+			return next(slot, list, index, size);
+
+		} catch (ConcurrentModificationException ex) {
+			// カーソルの作成後にリストが変更されたので作り直す.
+			cursors[slot] = null;
+			return next(slot, list, index, size);
+		}
+	}
+
+	private Object next(int slot, List<?> list, int index, int size) {
+		ListIterator<?> cursor = cursors[slot];
+		if (cursor != null) {
+			int distance = Math.abs(index - cursor.nextIndex());
+			if (distance > Math.min(index, size - index)) {
+				// 端から辿ったほうが近い
+				cursor = null;
+			}
+		}
+		if (cursor == null) {
+			cursor = list.listIterator(index);
+		} else {
+			while (cursor.nextIndex() < index) {
+				cursor.next();
+			}
+			while (cursor.nextIndex() > index) {
+				cursor.previous();
+			}
+		}
+		Object value = cursor.next();
+		cursors[slot] = cursor;
+		return value;
+	}
+
+	/**
+	 * リストのエントリを探す.<br>
+	 * なければ、もっとも古いエントリを置き換える.<br>
+	 *
+	 * @param list
+	 * @return エントリの位置
+	 */
+	private int find(List<?> list) {
+		for (int idx = 0; idx < SIZE; idx++) {
+			if (lists[idx] == list) {
+				return idx;
+			}
+		}
+		int slot = victim;
+		victim = (victim + 1) % SIZE;
+		lists[slot] = list;
+		cursors[slot] = null;
+		return slot;
+	}
+}
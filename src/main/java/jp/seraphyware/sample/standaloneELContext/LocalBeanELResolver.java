@@ -12,9 +12,16 @@ import javax.el.PropertyNotWritableException;
 /**
  * ローカル変数用のELResolver.<br>
  * (EL2.2用).<br>
+ * SimpleELContext#defineLazyBeanで遅延して作成されるように登録されたビーンは、
+ * 解決されるときに作成される.<br>
  */
 public class LocalBeanELResolver extends ELResolver {
 
+	/**
+	 * 未登録を示すマーカー
+	 */
+	private static final Object NOT_FOUND = new Object();
+
 	/**
 	 * ビーン定義.<br>
 	 * キーはビーン名、値はビーンのオブジェクト
@@ -71,15 +78,42 @@ public class LocalBeanELResolver extends ELResolver {
 			throw new NullPointerException();
 		}
 		if (base == null && property instanceof String) {
+			if (beansMap instanceof FlatStringMap) {
+				// 1回の探索で、未登録とnullの値を区別する.
+				@SuppressWarnings("unchecked")
+				Object value = ((FlatStringMap<Object>) beansMap).getOrDefault(
+						property, NOT_FOUND);
+				if (value != NOT_FOUND) {
+					context.setPropertyResolved(true);
+					return materialize(context, value);
+				}
+				return null;
+			}
 			if (beansMap.containsKey((String) property)) {
 				// ビーンが登録されている場合のみ
 				context.setPropertyResolved(true);
-				return beansMap.get((String) property);
+				return materialize(context, beansMap.get((String) property));
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * 遅延して作成されるビーンであれば、ビーンを作成して返す.<br>
+	 *
+	 * @param context
+	 *            The context of this evaluation.
+	 * @param value
+	 *            ビーンマップに登録されている値
+	 * @return ビーン
+	 */
+	private static Object materialize(ELContext context, Object value) {
+		if (value instanceof LazyBean) {
+			return ((LazyBean) value).get(context);
+		}
+		return value;
+	}
+
 	/**
 	 * もし、baseがnullであり、propertyが文字列であれば、ビーン名とし、 ビーンマップに対して値を登録する.<br>
 	 * 既存のものがあれば上書きされ、なければ新規に作成される.<br>
@@ -146,7 +180,7 @@ public class LocalBeanELResolver extends ELResolver {
 			if (beansMap.containsKey((String) property)) {
 				// beansMapに登録がある場合のみ
 				context.setPropertyResolved(true);
-				Object val = beansMap.get((String) property);
+				Object val = materialize(context, beansMap.get((String) property));
 				return val == null ? Object.class : val.getClass();
 			}
 		}
@@ -0,0 +1,222 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import javax.el.ELContext;
+import javax.el.ValueExpression;
+
+/**
+ * 評価結果をメモ化するValueExpression.<br>
+ * VariableMapperに変数として設定することで、同じ評価エポックの中では
+ * 変数の式を最初に参照されたときに一度だけ評価し、以降はその値を再利用する.<br>
+ * SimpleELContextで評価する場合は、式が参照したビーンや変数が変更された場合にも再評価される.<br>
+ * エポックはSimpleELContext、StandaloneELContextのnewEpoch()で更新され、
+ * それ以外のELContextの場合はinvalidate()が呼び出されるまで値を保持する.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class MemoizedValueExpression extends ValueExpression {
+
+	private static final long serialVersionUID = 3817405262946327411L;
+
+	/**
+	 * 委譲先のValueExpression
+	 */
+	private final ValueExpression delegate;
+
+	/**
+	 * 値を保持しているか?
+	 */
+	private transient boolean cached;
+
+	/**
+	 * 保持している値
+	 */
+	private transient Object value;
+
+	/**
+	 * 値を評価したコンテキスト
+	 */
+	private transient ELContext cachedContext;
+
+	/**
+	 * 値を評価したエポック
+	 */
+	private transient long cachedEpoch;
+
+	/**
+	 * 値を評価したときのSimpleELContextのリビジョン
+	 */
+	private transient long cachedRevision;
+
+	/**
+	 * 値を評価したときの依存関係(SimpleELContextの場合のみ)
+	 */
+	private transient ELDependencies dependencies;
+
+	/**
+	 * 評価した回数
+	 */
+	private transient int evaluationCount;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param delegate
+	 *            委譲先のValueExpression
+	 */
+	public MemoizedValueExpression(ValueExpression delegate) {
+		if (delegate == null) {
+			throw new IllegalArgumentException();
+		}
+		this.delegate = delegate;
+	}
+
+	public ValueExpression getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * 保持している値を破棄し、次に参照されたときに再評価されるようにする.<br>
+	 */
+	public void invalidate() {
+		cached = false;
+		value = null;
+		cachedContext = null;
+		dependencies = null;
+	}
+
+	/**
+	 * @return 式を評価した回数
+	 */
+	public int getEvaluationCount() {
+		return evaluationCount;
+	}
+
+	/**
+	 * コンテキストの評価エポックを取得する.<br>
+	 *
+	 * @param context
+	 * @return エポック、エポックをサポートしないコンテキストであれば0
+	 */
+	private static long getEpoch(ELContext context) {
+		if (context instanceof SimpleELContext) {
+			return ((SimpleELContext) context).getEpoch();
+		}
+		if (context instanceof StandaloneELContext) {
+			return ((StandaloneELContext) context).getEpoch();
+		}
+		return 0;
+	}
+
+	/**
+	 * EL実装によってラップされている場合は、元のコンテキストを取得する.<br>
+	 *
+	 * @param context
+	 * @return 元のコンテキスト
+	 */
+	private static ELContext unwrap(ELContext context) {
+		SimpleELContext simpleContext = SimpleELContext.of(context);
+		if (simpleContext != null) {
+			return simpleContext;
+		}
+		if (!(context instanceof StandaloneELContext)) {
+			Object standalone = context.getContext(StandaloneELContext.class);
+			if (standalone != null) {
+				return (ELContext) standalone;
+			}
+		}
+		return context;
+	}
+
+	@Override
+	public Object getValue(ELContext context) {
+		ELContext owner = unwrap(context);
+		SimpleELContext simpleContext = owner instanceof SimpleELContext
+				? (SimpleELContext) owner : null;
+		long epoch = getEpoch(owner);
+
+		if (cached && cachedContext == owner && cachedEpoch == epoch) {
+			if (simpleContext == null) {
+				return value;
+			}
+			if (!dependencies.isModifiedSince(simpleContext, cachedRevision)) {
+				// 外側の評価に依存関係を伝搬する.
+				ELDependencies outer = simpleContext.getRecorder();
+				if (outer != null) {
+					outer.addAll(dependencies);
+				}
+				return value;
+			}
+		}
+
+		Object result;
+		if (simpleContext != null) {
+			long revision = simpleContext.getRevision();
+			ELDependencies deps = new ELDependencies();
+			ELDependencies prev = simpleContext.startRecording(deps);
+			try {
+				result = delegate.getValue(context);
+
+			} finally {
+				simpleContext.endRecording(prev);
+			}
+			if (prev != null) {
+				prev.addAll(deps);
+			}
+			dependencies = deps;
+			cachedRevision = revision;
+
+		} else {
+			result = delegate.getValue(context);
+		}
+		evaluationCount++;
+
+		value = result;
+		cachedContext = owner;
+		cachedEpoch = epoch;
+		cached = true;
+		return result;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object value) {
+		delegate.setValue(context, value);
+		invalidate();
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext context) {
+		return delegate.isReadOnly(context);
+	}
+
+	@Override
+	public Class<?> getType(ELContext context) {
+		return delegate.getType(context);
+	}
+
+	@Override
+	public Class<?> getExpectedType() {
+		return delegate.getExpectedType();
+	}
+
+	@Override
+	public String getExpressionString() {
+		return delegate.getExpressionString();
+	}
+
+	@Override
+	public boolean isLiteralText() {
+		return delegate.isLiteralText();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof MemoizedValueExpression) {
+			return delegate.equals(((MemoizedValueExpression) obj).delegate);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return delegate.hashCode();
+	}
+}
@@ -0,0 +1,33 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.List;
+
+/**
+ * ページ単位で要素にアクセスできるリスト.<br>
+ * SequentialListELResolverは、このインターフェイスを実装するリストの要素を
+ * List#get(int)ではなく、該当するページから取得する.<br>
+ * 遅延読み込みするリストなどで、ページの取得を効率的に行えるようにするために用いる.<br>
+ *
+ * @param <E>
+ *            要素の型
+ */
+public interface PagedList<E> extends List<E> {
+
+	/**
+	 * 1ページあたりの要素数を取得する.<br>
+	 * 最後のページ以外は、すべてこの要素数でなければならない.<br>
+	 *
+	 * @return 要素数(1以上)
+	 */
+	int getPageSize();
+
+	/**
+	 * ページを取得する.<br>
+	 * 返されるリストはインデックスによるアクセスが高速(RandomAccess)であることが望ましい.<br>
+	 *
+	 * @param pageIndex
+	 *            ページ番号(0から始まる)
+	 * @return ページの要素のリスト
+	 */
+	List<E> getPage(int pageIndex);
+}
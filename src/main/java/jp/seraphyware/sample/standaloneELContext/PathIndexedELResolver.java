@@ -0,0 +1,398 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+/**
+ * 入れ子になったMapのローカルコンテキストを、ドット区切りのパスで索引するELResolver.<br>
+ * ローカルコンテキストとその中のMapをたどって、"a.b.c"のようなパスをキーとし、
+ * その値を値とする平坦な索引を作成する.<br>
+ * ${a.b.c}のように識別子をドットでつないだだけの式であれば、
+ * evaluateは式を解析せずに索引を引いて値を返す.
+ * ただし、ルート要素の名前が変数や、このクラスより前のELResolverによって解決される場合は、
+ * 通常のELの解決と同じくそちらを優先するため、式を作成して評価する.<br>
+ * また、索引済みのMapを基底とするプロパティは、後続のELResolverを探索せずにこのクラスで解決する.
+ * (そのためにはMapELResolverより前に登録する必要がある.)<br>
+ * このELResolverを経由した代入では、代入されたパス以下の索引だけを更新する.
+ * それ以外の方法でMapが変更された場合はreindexを呼び出すこと.
+ * (ローカルコンテキストがFlatStringMapであれば、その変更は自動的に検出する.)<br>
+ * ドットを含むキーや文字列以外のキーは索引に含めない.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public abstract class PathIndexedELResolver extends StandaloneBaseELResolver {
+
+	/**
+	 * 識別子をドットでつないだだけのEL式
+	 */
+	private static final Pattern STATIC_PATH = Pattern
+			.compile("^[$#]\\{\\s*([\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*"
+					+ "(?:\\s*\\.\\s*[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)*)\\s*\\}$");
+
+	/**
+	 * 索引する入れ子の深さの上限
+	 */
+	private static final int MAX_DEPTH = 64;
+
+	/**
+	 * 索引を作成したローカルコンテキスト
+	 */
+	private Map<String, Object> indexedContext;
+
+	/**
+	 * 索引を作成したときのローカルコンテキストのバージョン
+	 */
+	private long indexedVersion;
+
+	/**
+	 * パスをキーとし、その値を値とする索引
+	 */
+	private final FlatStringMap<Object> paths = new FlatStringMap<Object>();
+
+	/**
+	 * 索引済みのMapと、そのMapを指すパス
+	 */
+	private final Map<Map<?, ?>, List<String>> mapPaths = new IdentityHashMap<Map<?, ?>, List<String>>();
+
+	/**
+	 * ${}で囲まれた式が、識別子をドットでつないだだけの静的なパスであれば、そのパスを返す.<br>
+	 *
+	 * @param expression
+	 *            EL式
+	 * @return "a.b.c"形式のパス、静的なパスでなければnull
+	 */
+	public static String toStaticPath(String expression) {
+		if (expression == null) {
+			return null;
+		}
+		Matcher matcher = STATIC_PATH.matcher(expression);
+		if (!matcher.matches()) {
+			return null;
+		}
+		return matcher.group(1).replaceAll("\\s+", "");
+	}
+
+	/**
+	 * 必要であれば索引を作り直す.<br>
+	 * ローカルコンテキストが別のマップに変わった場合、
+	 * またはバージョンが変わった場合に作り直す.<br>
+	 *
+	 * @param elContext
+	 * @return ローカルコンテキスト
+	 */
+	private Map<String, Object> ensureIndex(ELContext elContext) {
+		Map<String, Object> ctx = getLocalContext(elContext);
+		long version = getLocalContextVersion(elContext, ctx);
+		if (ctx != indexedContext || (version >= 0 && version != indexedVersion)) {
+			rebuild(ctx, version);
+		}
+		return ctx;
+	}
+
+	/**
+	 * ローカルコンテキストの内容から索引を作り直す.<br>
+	 * ELResolverを経由せずに入れ子のMapを変更した場合に呼び出す.<br>
+	 *
+	 * @param elContext
+	 */
+	public void reindex(ELContext elContext) {
+		Map<String, Object> ctx = getLocalContext(elContext);
+		rebuild(ctx, getLocalContextVersion(elContext, ctx));
+	}
+
+	private void rebuild(Map<String, Object> ctx, long version) {
+		paths.clear();
+		mapPaths.clear();
+		for (Map.Entry<String, Object> entry : ctx.entrySet()) {
+			String key = entry.getKey();
+			if (isIndexableKey(key)) {
+				addPath(key, entry.getValue(), 0);
+			}
+		}
+		indexedContext = ctx;
+		indexedVersion = version;
+	}
+
+	private static boolean isIndexableKey(Object key) {
+		return key instanceof String && ((String) key).indexOf('.') < 0;
+	}
+
+	/**
+	 * パスとその値を索引に追加し、値がMapであれば子要素も追加する.<br>
+	 *
+	 * @param path
+	 * @param value
+	 * @param depth
+	 *            入れ子の深さ
+	 */
+	private void addPath(String path, Object value, int depth) {
+		paths.put(path, value);
+		if (!(value instanceof Map) || depth >= MAX_DEPTH) {
+			return;
+		}
+		Map<?, ?> map = (Map<?, ?>) value;
+		List<String> owners = mapPaths.get(map);
+		if (owners == null) {
+			owners = new ArrayList<String>(1);
+			mapPaths.put(map, owners);
+		} else if (isAncestor(owners, path)) {
+			// 循環している場合は、それ以上たどらない.
+			owners.add(path);
+			return;
+		}
+		owners.add(path);
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			Object key = entry.getKey();
+			if (isIndexableKey(key)) {
+				addPath(path + "." + key, entry.getValue(), depth + 1);
+			}
+		}
+	}
+
+	private static boolean isAncestor(List<String> owners, String path) {
+		for (String owner : owners) {
+			if (path.startsWith(owner + ".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * パスとその子要素を索引から取り除く.<br>
+	 *
+	 * @param path
+	 */
+	private void removePath(String path) {
+		if (!paths.containsKey(path)) {
+			return;
+		}
+		Object value = paths.remove(path);
+		if (!(value instanceof Map)) {
+			return;
+		}
+		Map<?, ?> map = (Map<?, ?>) value;
+		List<String> owners = mapPaths.get(map);
+		if (owners == null || !owners.remove(path)) {
+			return;
+		}
+		if (owners.isEmpty()) {
+			mapPaths.remove(map);
+		}
+		for (Object key : map.keySet()) {
+			if (isIndexableKey(key)) {
+				removePath(path + "." + key);
+			}
+		}
+	}
+
+	/**
+	 * パスの値を索引から取得する.<br>
+	 *
+	 * @param elContext
+	 * @param path
+	 *            "a.b.c"形式のパス
+	 * @return 値、索引にない場合はnull
+	 */
+	public Object getValueByPath(ELContext elContext, String path) {
+		ensureIndex(elContext);
+		return paths.get(path);
+	}
+
+	/**
+	 * パスが索引に含まれるか判定する.<br>
+	 *
+	 * @param elContext
+	 * @param path
+	 *            "a.b.c"形式のパス
+	 * @return 含まれていればtrue
+	 */
+	public boolean containsPath(ELContext elContext, String path) {
+		ensureIndex(elContext);
+		return paths.containsKey(path);
+	}
+
+	/**
+	 * EL式を評価する.<br>
+	 * 静的なパスの式で、そのパスが索引に含まれており、
+	 * ルート要素がローカルコンテキストの値に解決される場合は、索引の値を型変換して返す.
+	 * それ以外はExpressionFactoryで式を作成して評価する.<br>
+	 *
+	 * @param elContext
+	 *            評価するコンテキスト
+	 * @param expression
+	 *            EL式(${}で囲まれたもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 * @return 評価結果
+	 */
+	public Object evaluate(ELContext elContext, String expression,
+			Class<?> expectedType) {
+		String path = toStaticPath(expression);
+		if (path != null) {
+			ensureIndex(elContext);
+			Object value = paths.getOrDefault(path, paths);
+			if (value != paths && isIndexedRoot(elContext, path)) {
+				return elContext.convertToType(value, expectedType);
+			}
+		}
+		ValueExpression ve = SimpleELContext.getFactory().createValueExpression(
+				elContext, expression, expectedType);
+		return ve.getValue(elContext);
+	}
+
+	/**
+	 * パスのルート要素が、索引を作成したローカルコンテキストの値に解決されるか判定する.<br>
+	 * 同じ名前の変数がある場合や、前にあるELResolverが別の値に解決する場合は、
+	 * ローカルコンテキストの値は隠されているため索引は使えない.<br>
+	 *
+	 * @param elContext
+	 * @param path
+	 *            索引に含まれる"a.b.c"形式のパス
+	 * @return 索引の値を使える場合はtrue
+	 */
+	private boolean isIndexedRoot(ELContext elContext, String path) {
+		int pos = path.indexOf('.');
+		String root = pos < 0 ? path : path.substring(0, pos);
+		VariableMapper varMapper = elContext.getVariableMapper();
+		if (varMapper != null && varMapper.resolveVariable(root) != null) {
+			return false;
+		}
+		boolean resolved = elContext.isPropertyResolved();
+		elContext.setPropertyResolved(false);
+		try {
+			Object value = elContext.getELResolver().getValue(elContext, null,
+					root);
+			return elContext.isPropertyResolved() && value == paths.get(root);
+
+		} catch (PropertyNotFoundException ex) {
+			return false;
+
+		} finally {
+			elContext.setPropertyResolved(resolved);
+		}
+	}
+
+	/**
+	 * 索引済みのMapを基底とするプロパティであれば、そのMapから値を取得する.<br>
+	 */
+	@Override
+	public Object getValue(ELContext elContext, Object base, Object property)
+			throws NullPointerException, PropertyNotFoundException, ELException {
+		if (elContext == null) {
+			throw new NullPointerException();
+		}
+		if (base == null) {
+			return super.getValue(elContext, base, property);
+		}
+		if (base instanceof Map) {
+			ensureIndex(elContext);
+			if (mapPaths.containsKey(base)) {
+				elContext.setPropertyResolved(true);
+				return ((Map<?, ?>) base).get(property);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 代入された値を索引に反映する.<br>
+	 * 索引済みのMapを基底とする代入も、このクラスで行う.<br>
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void setValue(ELContext elContext, Object base, Object property,
+			Object value) throws NullPointerException,
+			PropertyNotFoundException, PropertyNotWritableException,
+			ELException {
+		if (elContext == null) {
+			throw new NullPointerException();
+		}
+		if (base == null) {
+			Map<String, Object> ctx = ensureIndex(elContext);
+			super.setValue(elContext, base, property, value);
+			if (isIndexableKey(property)) {
+				updatePath((String) property, value);
+			}
+			indexedVersion = getLocalContextVersion(elContext, ctx);
+			return;
+		}
+		if (base instanceof Map) {
+			ensureIndex(elContext);
+			List<String> owners = mapPaths.get(base);
+			if (owners != null) {
+				elContext.setPropertyResolved(true);
+				try {
+					((Map<Object, Object>) base).put(property, value);
+
+				} catch (UnsupportedOperationException ex) {
+					throw new PropertyNotWritableException(ex);
+				}
+				if (isIndexableKey(property)) {
+					for (String owner : new ArrayList<String>(owners)) {
+						updatePath(owner + "." + property, value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * パス以下の索引だけを新しい値で作り直す.<br>
+	 *
+	 * @param path
+	 * @param value
+	 */
+	private void updatePath(String path, Object value) {
+		removePath(path);
+		int depth = 0;
+		for (int idx = path.indexOf('.'); idx >= 0; idx = path.indexOf('.',
+				idx + 1)) {
+			depth++;
+		}
+		addPath(path, value, depth);
+	}
+
+	@Override
+	public boolean isReadOnly(ELContext elContext, Object base, Object property)
+			throws NullPointerException, PropertyNotFoundException, ELException {
+		if (elContext == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof Map) {
+			ensureIndex(elContext);
+			if (mapPaths.containsKey(base)) {
+				elContext.setPropertyResolved(true);
+			}
+			return false;
+		}
+		return super.isReadOnly(elContext, base, property);
+	}
+
+	@Override
+	public Class<?> getType(ELContext elContext, Object base, Object property)
+			throws NullPointerException, PropertyNotFoundException, ELException {
+		if (elContext == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof Map) {
+			ensureIndex(elContext);
+			if (mapPaths.containsKey(base)) {
+				elContext.setPropertyResolved(true);
+				return Object.class;
+			}
+			return null;
+		}
+		return super.getType(elContext, base, property);
+	}
+}
@@ -0,0 +1,438 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+/**
+ * 事前に準備されたEL式.<br>
+ * SimpleELContextで評価するたびに、式が参照したビーン名と変数名を記録し、
+ * それらが変更されたかどうかを判定できるようにする.<br>
+ * 式が参照している変数が再定義された場合は、評価時に式を作り直す.<br>
+ * 評価の結果、リテラルと"Class"要素から辿ったstatic finalフィールドしか参照していないことが
+ * わかった式は定数として畳み込まれ、以降はELResolverを呼び出さずに同じ値を返す.<br>
+ * インラインキャッシュを有効にした場合は、プロパティの参照ごとに基底となるオブジェクトのクラスと
+ * そのアクセサを記憶し、同じクラスであればELResolverを探索せずに解決する.<br>
+ * メモ表を設定した場合は、参照するビーンと変数が同じであれば、記憶した評価結果を返す.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class PreparedExpression {
+
+	/**
+	 * EL式(${}で囲まれたもの)
+	 */
+	private final String expression;
+
+	/**
+	 * 評価結果の型
+	 */
+	private final Class<?> expectedType;
+
+	/**
+	 * 作成済みのValueExpression
+	 */
+	private ValueExpression valueExpression;
+
+	/**
+	 * ValueExpressionを作成したコンテキスト
+	 */
+	private SimpleELContext parsedContext;
+
+	/**
+	 * ValueExpression作成時に解決された変数.<br>
+	 * ValueExpressionは作成時点の変数を取り込むため、
+	 * 変数が差し替えられた場合は作り直す必要がある.<br>
+	 */
+	private Map<String, ValueExpression> capturedVariables;
+
+	/**
+	 * ValueExpression作成時に記録された依存関係
+	 */
+	private ELDependencies parsedDependencies;
+
+	/**
+	 * 最後に評価したときの依存関係
+	 */
+	private ELDependencies dependencies;
+
+	/**
+	 * 最後に評価したコンテキスト
+	 */
+	private SimpleELContext evaluatedContext;
+
+	/**
+	 * 最後に評価したときのコンテキストのリビジョン
+	 */
+	private long evaluatedRevision;
+
+	/**
+	 * 最後に評価したときの値
+	 */
+	private Object lastValue;
+
+	/**
+	 * 繰り返し参照されるプロパティを評価パス中で共有するか?
+	 */
+	private boolean subexpressionSharing;
+
+	/**
+	 * 評価パス中で共有するプロパティ.<br>
+	 * まだ解析されていなければnull
+	 */
+	private Set<Object> sharedProperties;
+
+	/**
+	 * 定数の畳み込みを行うか?
+	 */
+	private boolean constantFolding = true;
+
+	/**
+	 * 定数として畳み込まれているか?
+	 */
+	private boolean folded;
+
+	/**
+	 * インラインキャッシュ.<br>
+	 * 使用しない場合はnull
+	 */
+	private ELInlineCache inlineCache;
+
+	/**
+	 * 評価結果を記憶するメモ表.<br>
+	 * 使用しない場合はnull
+	 */
+	private ELMemoTable memoTable;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param expression
+	 *            EL式(${}で囲まれたもの)
+	 * @param expectedType
+	 *            評価結果の型
+	 */
+	public PreparedExpression(String expression, Class<?> expectedType) {
+		if (expression == null || expectedType == null) {
+			throw new IllegalArgumentException();
+		}
+		this.expression = expression;
+		this.expectedType = expectedType;
+	}
+
+	public String getExpressionString() {
+		return expression;
+	}
+
+	public Class<?> getExpectedType() {
+		return expectedType;
+	}
+
+	/**
+	 * 最後に評価したときの依存関係を取得する.<br>
+	 *
+	 * @return 依存関係、まだ評価されていなければnull
+	 */
+	public ELDependencies getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * 最後に評価したときの値を取得する.<br>
+	 *
+	 * @return 最後の評価値、まだ評価されていなければnull
+	 */
+	public Object getLastValue() {
+		return lastValue;
+	}
+
+	/**
+	 * 式の中で繰り返し参照されるプロパティを、評価1回につき1度だけ解決するようにするか設定する.<br>
+	 * 有効にした後の最初の評価で、繰り返し参照されるプロパティのパスを解析し、
+	 * 以降の評価では、それらのプロパティの値を評価中に共有する.<br>
+	 * すでに評価パス中(ELRuleSetなど)で評価される場合は、その評価パスに従う.<br>
+	 *
+	 * @param subexpressionSharing
+	 *            共有する場合はtrue
+	 */
+	public void setSubexpressionSharing(boolean subexpressionSharing) {
+		this.subexpressionSharing = subexpressionSharing;
+		this.sharedProperties = null;
+	}
+
+	public boolean isSubexpressionSharing() {
+		return subexpressionSharing;
+	}
+
+	/**
+	 * 定数の畳み込みを行うか設定する.<br>
+	 * 既定では有効である.<br>
+	 * 無効にした場合は、畳み込み済みの定数も破棄される.<br>
+	 *
+	 * @param constantFolding
+	 *            畳み込みを行う場合はtrue
+	 */
+	public void setConstantFolding(boolean constantFolding) {
+		this.constantFolding = constantFolding;
+		if (!constantFolding) {
+			folded = false;
+		}
+	}
+
+	public boolean isConstantFolding() {
+		return constantFolding;
+	}
+
+	/**
+	 * インラインキャッシュを使用するか設定する.<br>
+	 * 有効にすると、プロパティの参照ごとに基底となるオブジェクトのクラスと、
+	 * それを解決したアクセサ(ビーンのgetter, Map, List, 配列, staticフィールド)を
+	 * 指定した数まで記憶し、以降の評価では同じクラスであればアクセサを直接呼び出す.<br>
+	 * 指定した数を超えるクラスが現れた参照は、以降キャッシュされない.<br>
+	 * カスタムELResolverがMap, List, 配列, ビーンのプロパティを
+	 * 独自に解決している場合は使用できない.<br>
+	 * 既定では使用しない.<br>
+	 *
+	 * @param maxClasses
+	 *            参照ごとに記憶するクラスの数、0の場合は使用しない
+	 */
+	public void setInlineCacheSize(int maxClasses) {
+		if (maxClasses < 0) {
+			throw new IllegalArgumentException("maxClasses=" + maxClasses);
+		}
+		inlineCache = maxClasses > 0 ? new ELInlineCache(maxClasses) : null;
+	}
+
+	/**
+	 * インラインキャッシュから解決した回数を取得する.<br>
+	 *
+	 * @return 回数、使用していなければ0
+	 */
+	public int getInlineCacheHitCount() {
+		return inlineCache != null ? inlineCache.getHitCount() : 0;
+	}
+
+	/**
+	 * 評価結果を記憶するメモ表を設定する.<br>
+	 * 式が参照するビーンと変数の同一性とリビジョンが、以前に評価したときと同じであれば、
+	 * 式を評価せずにメモ表に記憶した結果を返す.<br>
+	 * メモ表は複数の式、複数のコンテキストで共有できる.<br>
+	 * 既定では使用しない.<br>
+	 *
+	 * @param memoTable
+	 *            メモ表、使用しない場合はnull
+	 */
+	public void setMemoTable(ELMemoTable memoTable) {
+		this.memoTable = memoTable;
+	}
+
+	public ELMemoTable getMemoTable() {
+		return memoTable;
+	}
+
+	/**
+	 * 定数として畳み込まれているか判定する.<br>
+	 * 一度も評価されていない場合はfalseとなる.<br>
+	 *
+	 * @return 畳み込まれていればtrue
+	 */
+	public boolean isConstant() {
+		return folded;
+	}
+
+	/**
+	 * 最後に評価したあとに、式が参照しているビーンまたは変数が
+	 * 変更されているか判定する.<br>
+	 * 異なるコンテキストで評価する場合、および、まだ評価されていない場合は
+	 * 常に変更ありとみなす.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 再評価が必要であればtrue
+	 */
+	public boolean isModified(SimpleELContext context) {
+		if (folded) {
+			return false;
+		}
+		if (dependencies == null || evaluatedContext != context) {
+			return true;
+		}
+		if (isVariablesReplaced(context)) {
+			return true;
+		}
+		return dependencies.isModifiedSince(context, evaluatedRevision);
+	}
+
+	/**
+	 * EL式を評価する.<br>
+	 * 評価中に参照されたビーン名と変数名が記録される.
+	 * 代入やメソッド呼び出しを行った場合は、参照したビーンと変数を変更されたものとして通知する.<br>
+	 *
+	 * @param context
+	 *            評価するコンテキスト
+	 * @return 評価結果
+	 */
+	public Object getValue(SimpleELContext context) {
+		if (folded) {
+			ELDependencies outer = context.getRecorder();
+			if (outer != null) {
+				outer.addAll(dependencies);
+			}
+			return lastValue;
+		}
+		long revision = context.getRevision();
+		if (memoTable != null) {
+			ELDependencies deps = new ELDependencies();
+			Object value = memoTable.lookup(expression, expectedType, context,
+					dependencies, deps);
+			if (value != ELMemoTable.NOT_FOUND) {
+				ELDependencies outer = context.getRecorder();
+				if (outer != null) {
+					outer.addAll(deps);
+				}
+				dependencies = deps;
+				evaluatedContext = context;
+				evaluatedRevision = revision;
+				lastValue = value;
+				return value;
+			}
+		}
+		ValueExpression ve = prepare(context);
+
+		ELDependencies deps = new ELDependencies();
+		deps.addAll(parsedDependencies);
+		ELDependencies prev = context.startRecording(deps);
+		ELEvaluationPass newPass = null;
+		ELEvaluationPass prevPass = null;
+		if (subexpressionSharing && context.getPass() == null) {
+			// 未解析の場合はすべてのプロパティを対象にする.
+			newPass = new ELEvaluationPass(sharedProperties);
+			prevPass = context.startPass(newPass);
+		}
+		ELInlineCache prevCache = null;
+		if (inlineCache != null) {
+			prevCache = context.startInlineCache(inlineCache);
+		}
+		Object value;
+		try {
+			value = ve.getValue(context);
+
+		} finally {
+			if (inlineCache != null) {
+				context.endInlineCache(prevCache);
+			}
+			if (newPass != null) {
+				context.endPass(prevPass);
+			}
+			context.endRecording(prev);
+		}
+		if (subexpressionSharing && sharedProperties == null) {
+			sharedProperties = deps.getRepeatedProperties();
+		}
+		if (prev != null) {
+			// 入れ子で評価されている場合は外側の評価にも依存関係を伝搬する.
+			prev.addAll(deps);
+		}
+
+		if (constantFolding && deps.isConstant()
+				&& (isImmutable(value) || deps.isConstantFieldValue(value))) {
+			// 定数として畳み込む.
+			folded = true;
+			valueExpression = null;
+
+		} else if (memoTable != null && context.getRevision() == revision) {
+			// 評価中に変更がなかった場合のみ記憶する.
+			memoTable.store(expression, expectedType, context, deps, value);
+		}
+		// 代入やメソッド呼び出しによって変更された可能性のあるビーンと変数を通知する.
+		context.touchSideEffects(deps);
+
+		dependencies = deps;
+		evaluatedContext = context;
+		evaluatedRevision = revision;
+		lastValue = value;
+		return value;
+	}
+
+	/**
+	 * 値が不変なオブジェクトであるか判定する.<br>
+	 * 評価のたびに新しく作成される可変なオブジェクト(リストやラムダ式など)を
+	 * 定数として共有しないようにするため.<br>
+	 *
+	 * @param value
+	 * @return nullまたは不変なオブジェクトであればtrue
+	 */
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof String
+				|| value instanceof Boolean || value instanceof Character
+				|| value instanceof Integer || value instanceof Long
+				|| value instanceof Double || value instanceof Float
+				|| value instanceof Short || value instanceof Byte
+				|| value instanceof BigDecimal || value instanceof BigInteger
+				|| value instanceof Enum || value instanceof Class;
+	}
+
+	/**
+	 * 必要であればValueExpressionを作成する.<br>
+	 * 異なるコンテキストの場合、または取り込み済みの変数が差し替えられている場合は作り直す.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @return ValueExpression
+	 */
+	private ValueExpression prepare(SimpleELContext context) {
+		if (valueExpression != null && parsedContext == context
+				&& !isVariablesReplaced(context)) {
+			return valueExpression;
+		}
+
+		ELDependencies deps = new ELDependencies();
+		ELDependencies prev = context.startRecording(deps);
+		try {
+			valueExpression = SimpleELContext.getFactory().createValueExpression(
+					context, expression, expectedType);
+
+		} finally {
+			context.endRecording(prev);
+		}
+
+		VariableMapper varMapper = context.getVariableMapper();
+		Map<String, ValueExpression> captured = new HashMap<String, ValueExpression>();
+		for (String name : deps.getVariables()) {
+			captured.put(name, varMapper.resolveVariable(name));
+		}
+		capturedVariables = captured;
+		parsedDependencies = deps;
+		parsedContext = context;
+		return valueExpression;
+	}
+
+	/**
+	 * ValueExpression作成時に取り込んだ変数が差し替えられているか判定する.<br>
+	 *
+	 * @param context
+	 *            コンテキスト
+	 * @return 差し替えられていればtrue
+	 */
+	private boolean isVariablesReplaced(SimpleELContext context) {
+		if (capturedVariables == null) {
+			return false;
+		}
+		VariableMapper varMapper = context.getVariableMapper();
+		for (Map.Entry<String, ValueExpression> entry : capturedVariables.entrySet()) {
+			if (varMapper.resolveVariable(entry.getKey()) != entry.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
@@ -0,0 +1,229 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import javax.el.ArrayELResolver;
+import javax.el.ELContext;
+import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
+
+/**
+ * 配列の要素を解決するELResolver.<br>
+ * ArrayELResolverはjava.lang.reflect.Arrayを用いて要素にアクセスするが、
+ * このクラスは要素の型ごとに配列へ直接アクセスする.<br>
+ * 代入時には、値を配列の要素の型に変換してから設定する.<br>
+ * (数値であればプリミティブ型へ直接変換し、それ以外はELContext#convertToTypeで変換する.)<br>
+ */
+public class PrimitiveArrayELResolver extends ArrayELResolver {
+
+	/**
+	 * 読み込み専用であるか?
+	 */
+	private final boolean readOnly;
+
+	public PrimitiveArrayELResolver() {
+		this(false);
+	}
+
+	public PrimitiveArrayELResolver(boolean isReadOnly) {
+		super(isReadOnly);
+		this.readOnly = isReadOnly;
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base != null && base.getClass().isArray()) {
+			context.setPropertyResolved(true);
+			return get(base, toIndex(property));
+		}
+		return null;
+	}
+
+	@Override
+	public void setValue(ELContext context, Object base, Object property,
+			Object value) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base != null && base.getClass().isArray()) {
+			context.setPropertyResolved(true);
+			if (readOnly) {
+				throw new PropertyNotWritableException();
+			}
+			int index = toIndex(property);
+			if (index < 0 || index >= getLength(base)) {
+				throw new PropertyNotFoundException("index=" + index);
+			}
+			set(context, base, index, value);
+		}
+	}
+
+	/**
+	 * プロパティを配列のインデックスに変換する.<br>
+	 *
+	 * @param property
+	 * @return インデックス
+	 * @throws IllegalArgumentException
+	 *             インデックスに変換できない場合
+	 */
+	private static int toIndex(Object property) {
+		if (property instanceof Integer) {
+			return ((Integer) property).intValue();
+		}
+		if (property instanceof Number) {
+			return ((Number) property).intValue();
+		}
+		if (property instanceof Character) {
+			return ((Character) property).charValue();
+		}
+		if (property instanceof String) {
+			return Integer.parseInt((String) property);
+		}
+		throw new IllegalArgumentException("index=" + property);
+	}
+
+	/**
+	 * 配列の長さを取得する.<br>
+	 *
+	 * @param array
+	 *            配列
+	 * @return 長さ
+	 */
+	static int getLength(Object array) {
+		if (array instanceof Object[]) {
+			return ((Object[]) array).length;
+		}
+		if (array instanceof double[]) {
+			return ((double[]) array).length;
+		}
+		if (array instanceof int[]) {
+			return ((int[]) array).length;
+		}
+		if (array instanceof long[]) {
+			return ((long[]) array).length;
+		}
+		if (array instanceof float[]) {
+			return ((float[]) array).length;
+		}
+		if (array instanceof short[]) {
+			return ((short[]) array).length;
+		}
+		if (array instanceof byte[]) {
+			return ((byte[]) array).length;
+		}
+		if (array instanceof char[]) {
+			return ((char[]) array).length;
+		}
+		return ((boolean[]) array).length;
+	}
+
+	/**
+	 * 配列の要素を取得する.<br>
+	 *
+	 * @param array
+	 *            配列
+	 * @param index
+	 *            インデックス
+	 * @return 要素、インデックスが範囲外であればnull
+	 */
+	static Object get(Object array, int index) {
+		if (index < 0) {
+			return null;
+		}
+		if (array instanceof Object[]) {
+			Object[] a = (Object[]) array;
+			return index < a.length ? a[index] : null;
+		}
+		if (array instanceof double[]) {
+			double[] a = (double[]) array;
+			return index < a.length ? Double.valueOf(a[index]) : null;
+		}
+		if (array instanceof int[]) {
+			int[] a = (int[]) array;
+			return index < a.length ? Integer.valueOf(a[index]) : null;
+		}
+		if (array instanceof long[]) {
+			long[] a = (long[]) array;
+			return index < a.length ? Long.valueOf(a[index]) : null;
+		}
+		if (array instanceof float[]) {
+			float[] a = (float[]) array;
+			return index < a.length ? Float.valueOf(a[index]) : null;
+		}
+		if (array instanceof short[]) {
+			short[] a = (short[]) array;
+			return index < a.length ? Short.valueOf(a[index]) : null;
+		}
+		if (array instanceof byte[]) {
+			byte[] a = (byte[]) array;
+			return index < a.length ? Byte.valueOf(a[index]) : null;
+		}
+		if (array instanceof char[]) {
+			char[] a = (char[]) array;
+			return index < a.length ? Character.valueOf(a[index]) : null;
+		}
+		boolean[] a = (boolean[]) array;
+		return index < a.length ? Boolean.valueOf(a[index]) : null;
+	}
+
+	/**
+	 * 値を配列の要素の型に変換して設定する.<br>
+	 *
+	 * @param context
+	 *            型変換に用いるコンテキスト
+	 * @param array
+	 *            配列
+	 * @param index
+	 *            インデックス
+	 * @param value
+	 *            値
+	 */
+	static void set(ELContext context, Object array, int index, Object value) {
+		if (array instanceof Object[]) {
+			Class<?> componentType = array.getClass().getComponentType();
+			if (value != null && !componentType.isInstance(value)) {
+				value = context.convertToType(value, componentType);
+			}
+			((Object[]) array)[index] = value;
+
+		} else if (array instanceof double[]) {
+			((double[]) array)[index] = value instanceof Number ? ((Number) value)
+					.doubleValue() : (Double) context.convertToType(value,
+					Double.class);
+
+		} else if (array instanceof int[]) {
+			((int[]) array)[index] = value instanceof Number ? ((Number) value)
+					.intValue() : (Integer) context.convertToType(value,
+					Integer.class);
+
+		} else if (array instanceof long[]) {
+			((long[]) array)[index] = value instanceof Number ? ((Number) value)
+					.longValue() : (Long) context.convertToType(value,
+					Long.class);
+
+		} else if (array instanceof float[]) {
+			((float[]) array)[index] = value instanceof Number ? ((Number) value)
+					.floatValue() : (Float) context.convertToType(value,
+					Float.class);
+
+		} else if (array instanceof short[]) {
+			((short[]) array)[index] = value instanceof Number ? ((Number) value)
+					.shortValue() : (Short) context.convertToType(value,
+					Short.class);
+
+		} else if (array instanceof byte[]) {
+			((byte[]) array)[index] = value instanceof Number ? ((Number) value)
+					.byteValue() : (Byte) context.convertToType(value,
+					Byte.class);
+
+		} else if (array instanceof char[]) {
+			((char[]) array)[index] = (Character) context.convertToType(value,
+					Character.class);
+
+		} else {
+			((boolean[]) array)[index] = (Boolean) context.convertToType(value,
+					Boolean.class);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * バッファ上に並んだ固定長のバイナリレコードを順に指すカーソル.<br>
+ * カーソル自身をビーンとしてELContextに登録しておき、nextで位置を進めながら
+ * 同じEL式を評価することで、レコードごとにオブジェクトを作成せずに評価できる.<br>
+ * フィールドの値はBinaryRecordELResolverによってバッファから直接読み込まれる.<br>
+ * このクラスはスレッドセーフではない.<br>
+ */
+public class RecordCursor {
+
+	/**
+	 * レコードのレイアウト
+	 */
+	private final RecordSchema schema;
+
+	/**
+	 * レコードが格納されたバッファ
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * バッファ上の先頭レコードの位置
+	 */
+	private final int base;
+
+	/**
+	 * レコード数
+	 */
+	private final int recordCount;
+
+	/**
+	 * 現在のレコードのインデックス、nextを呼び出す前は-1
+	 */
+	private int index = -1;
+
+	/**
+	 * 現在のレコードのバッファ上の位置
+	 */
+	private int position;
+
+	/**
+	 * コンストラクタ.<br>
+	 * バッファのpositionからlimitまでをレコードの並びとみなす.
+	 * 端数のバイトは無視される.<br>
+	 * バッファのバイトオーダーはスキーマに合わせて変更される.<br>
+	 *
+	 * @param schema
+	 *            レコードのレイアウト
+	 * @param buffer
+	 *            バッファ
+	 */
+	public RecordCursor(RecordSchema schema, ByteBuffer buffer) {
+		if (schema == null || buffer == null) {
+			throw new IllegalArgumentException();
+		}
+		if (schema.getRecordSize() <= 0) {
+			throw new IllegalArgumentException("empty schema");
+		}
+		this.schema = schema;
+		this.buffer = buffer.duplicate().order(schema.getByteOrder());
+		this.base = buffer.position();
+		this.recordCount = buffer.remaining() / schema.getRecordSize();
+	}
+
+	/**
+	 * ファイルを読み込み専用でメモリにマップしてカーソルを作成する.<br>
+	 * マップはカーソルが参照されなくなるまで有効であり、ファイルは閉じてよい.<br>
+	 *
+	 * @param schema
+	 *            レコードのレイアウト
+	 * @param file
+	 *            ファイル(2GB未満)
+	 * @return カーソル
+	 * @throws IOException
+	 *             ファイルを読み込めない場合
+	 */
+	public static RecordCursor map(RecordSchema schema, File file)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new RecordCursor(schema, buf);
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	public RecordSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @return レコード数
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return 現在のレコードのインデックス、nextを呼び出す前は-1
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return 次のレコードがあればtrue
+	 */
+	public boolean hasNext() {
+		return index + 1 < recordCount;
+	}
+
+	/**
+	 * 次のレコードに進む.<br>
+	 *
+	 * @return このカーソル
+	 * @throws NoSuchElementException
+	 *             次のレコードがない場合
+	 */
+	public RecordCursor next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		position = index < 0 ? base : position + schema.getRecordSize();
+		index++;
+		return this;
+	}
+
+	/**
+	 * 指定したレコードに移動する.<br>
+	 *
+	 * @param index
+	 *            レコードのインデックス、-1の場合は先頭の前に戻す
+	 * @return このカーソル
+	 */
+	public RecordCursor moveTo(int index) {
+		if (index < -1 || index >= recordCount) {
+			throw new IndexOutOfBoundsException("index=" + index);
+		}
+		this.index = index;
+		this.position = base + Math.max(index, 0) * schema.getRecordSize();
+		return this;
+	}
+
+	/**
+	 * 現在のレコードのフィールドの値を読み込む.<br>
+	 *
+	 * @param field
+	 *            フィールド
+	 * @return 値
+	 * @throws IllegalStateException
+	 *             レコードを指していない場合
+	 */
+	public Object read(RecordSchema.Field field) {
+		if (index < 0) {
+			throw new IllegalStateException("before first record");
+		}
+		return field.read(buffer, position);
+	}
+
+	/**
+	 * 現在のレコードのフィールドの値を読み込む.<br>
+	 *
+	 * @param name
+	 *            フィールド名
+	 * @return 値
+	 * @throws IllegalArgumentException
+	 *             フィールドが定義されていない場合
+	 */
+	public Object get(String name) {
+		RecordSchema.Field field = schema.getField(name);
+		if (field == null) {
+			throw new IllegalArgumentException("unknown field: " + name);
+		}
+		return read(field);
+	}
+
+	@Override
+	public String toString() {
+		return "RecordCursor[" + index + "/" + recordCount + "]";
+	}
+}
@@ -0,0 +1,266 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 固定長のバイナリレコードのレイアウト.<br>
+ * フィールド名ごとに、レコード先頭からのオフセットと型を定義する.<br>
+ * addFieldで順に追加した場合は、直前のフィールドの直後に配置される.<br>
+ * BinaryRecordELResolverで使用する前に、フィールドをすべて定義しておくこと.<br>
+ */
+public class RecordSchema {
+
+	/**
+	 * フィールドの型
+	 */
+	public enum FieldType {
+
+		BYTE(1, Byte.class),
+
+		SHORT(2, Short.class),
+
+		CHAR(2, Character.class),
+
+		INT(4, Integer.class),
+
+		LONG(8, Long.class),
+
+		FLOAT(4, Float.class),
+
+		DOUBLE(8, Double.class),
+
+		/**
+		 * 1バイトで、0以外をtrueとする
+		 */
+		BOOLEAN(1, Boolean.class);
+
+		/**
+		 * バイト数
+		 */
+		private final int size;
+
+		/**
+		 * ELから見える値の型
+		 */
+		private final Class<?> valueType;
+
+		private FieldType(int size, Class<?> valueType) {
+			this.size = size;
+			this.valueType = valueType;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public Class<?> getValueType() {
+			return valueType;
+		}
+	}
+
+	/**
+	 * フィールドの定義
+	 */
+	public static final class Field {
+
+		private final String name;
+
+		private final int offset;
+
+		private final FieldType type;
+
+		Field(String name, int offset, FieldType type) {
+			this.name = name;
+			this.offset = offset;
+			this.type = type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return レコード先頭からのオフセット
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		public FieldType getType() {
+			return type;
+		}
+
+		/**
+		 * 指定した位置のレコードからフィールドの値を読み込む.<br>
+		 * バッファの位置は変更しない.<br>
+		 *
+		 * @param buf
+		 *            バッファ
+		 * @param recordPosition
+		 *            レコードの先頭位置
+		 * @return 値
+		 */
+		public Object read(ByteBuffer buf, int recordPosition) {
+			int pos = recordPosition + offset;
+			switch (type) {
+			case BYTE:
+				return Byte.valueOf(buf.get(pos));
+			case SHORT:
+				return Short.valueOf(buf.getShort(pos));
+			case CHAR:
+				return Character.valueOf(buf.getChar(pos));
+			case INT:
+				return Integer.valueOf(buf.getInt(pos));
+			case LONG:
+				return Long.valueOf(buf.getLong(pos));
+			case FLOAT:
+				return Float.valueOf(buf.getFloat(pos));
+			case DOUBLE:
+				return Double.valueOf(buf.getDouble(pos));
+			default:
+				return Boolean.valueOf(buf.get(pos) != 0);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name + "@" + offset + ":" + type;
+		}
+	}
+
+	/**
+	 * フィールド名からフィールドへのマップ
+	 */
+	private final FlatStringMap<Field> fieldMap = new FlatStringMap<Field>();
+
+	/**
+	 * 定義順のフィールド
+	 */
+	private final List<Field> fields = new ArrayList<Field>();
+
+	/**
+	 * バイトオーダー
+	 */
+	private final ByteOrder byteOrder;
+
+	/**
+	 * レコード長
+	 */
+	private int recordSize;
+
+	/**
+	 * ビッグエンディアンのスキーマを作成する.
+	 */
+	public RecordSchema() {
+		this(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param byteOrder
+	 *            バイトオーダー
+	 */
+	public RecordSchema(ByteOrder byteOrder) {
+		if (byteOrder == null) {
+			throw new IllegalArgumentException();
+		}
+		this.byteOrder = byteOrder;
+	}
+
+	/**
+	 * 直前のフィールドの直後にフィールドを追加する.<br>
+	 *
+	 * @param name
+	 *            フィールド名
+	 * @param type
+	 *            型
+	 * @return このスキーマ
+	 */
+	public RecordSchema addField(String name, FieldType type) {
+		int offset = 0;
+		if (!fields.isEmpty()) {
+			Field last = fields.get(fields.size() - 1);
+			offset = last.getOffset() + last.getType().getSize();
+		}
+		return addField(name, offset, type);
+	}
+
+	/**
+	 * オフセットを指定してフィールドを追加する.<br>
+	 * レコード長はフィールドの終端の最大値まで広げられる.<br>
+	 *
+	 * @param name
+	 *            フィールド名
+	 * @param offset
+	 *            レコード先頭からのオフセット
+	 * @param type
+	 *            型
+	 * @return このスキーマ
+	 * @throws IllegalArgumentException
+	 *             名前が重複している場合、オフセットが負の場合
+	 */
+	public RecordSchema addField(String name, int offset, FieldType type) {
+		if (name == null || type == null || offset < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (fieldMap.containsKey(name)) {
+			throw new IllegalArgumentException("duplicate field: " + name);
+		}
+		Field field = new Field(name, offset, type);
+		fieldMap.put(name, field);
+		fields.add(field);
+		recordSize = Math.max(recordSize, offset + type.getSize());
+		return this;
+	}
+
+	/**
+	 * レコード長を設定する.<br>
+	 * フィールドの後ろに詰め物がある場合に用いる.<br>
+	 *
+	 * @param recordSize
+	 *            レコード長
+	 * @return このスキーマ
+	 * @throws IllegalArgumentException
+	 *             フィールドの終端より短い場合
+	 */
+	public RecordSchema setRecordSize(int recordSize) {
+		for (Field field : fields) {
+			if (field.getOffset() + field.getType().getSize() > recordSize) {
+				throw new IllegalArgumentException("recordSize=" + recordSize);
+			}
+		}
+		this.recordSize = recordSize;
+		return this;
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * フィールドを取得する.<br>
+	 *
+	 * @param name
+	 *            フィールド名
+	 * @return フィールド、なければnull
+	 */
+	public Field getField(Object name) {
+		return fieldMap.get(name);
+	}
+
+	/**
+	 * @return 定義順のフィールドの読み込み専用リスト
+	 */
+	public List<Field> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+}
@@ -0,0 +1,107 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.List;
+import java.util.RandomAccess;
+
+import javax.el.ELContext;
+import javax.el.ListELResolver;
+
+/**
+ * LinkedListのようなRandomAccessでないリストを効率的に解決するListELResolver.<br>
+ * RandomAccessでないリストのList#get(int)は先頭(または末尾)から辿るため、
+ * ${list[i]}をインデックス順に評価するとO(n^2)となる.<br>
+ * このクラスは、リストごとに最後にアクセスした位置のListIteratorをカーソルとして保持し、
+ * 近い位置へのアクセスはカーソルを移動して解決する.
+ * そのため、順番にアクセスする場合は1要素あたりO(1)となる.<br>
+ * カーソルはELContextごとに保持され(getContext(ListCursorCache.class))、
+ * 最近アクセスした少数のリストについてのみ記憶される.<br>
+ * PagedListの場合は、該当するページから要素を取得する.<br>
+ * RandomAccessなリストはListELResolverと同じ方法で解決する.<br>
+ */
+public class SequentialListELResolver extends ListELResolver {
+
+	public SequentialListELResolver() {
+		super();
+	}
+
+	public SequentialListELResolver(boolean isReadOnly) {
+		super(isReadOnly);
+	}
+
+	@Override
+	public Object getValue(ELContext context, Object base, Object property) {
+		if (context == null) {
+			throw new NullPointerException();
+		}
+		if (base instanceof PagedList) {
+			context.setPropertyResolved(true);
+			return getFromPage((PagedList<?>) base, toIndex(property));
+		}
+		if (base instanceof List && !(base instanceof RandomAccess)) {
+			context.setPropertyResolved(true);
+			return getCursorCache(context).get((List<?>) base,
+					toIndex(property));
+		}
+		return super.getValue(context, base, property);
+	}
+
+	/**
+	 * ページから要素を取得する.<br>
+	 *
+	 * @param list
+	 *            リスト
+	 * @param index
+	 *            インデックス
+	 * @return 要素、範囲外であればnull
+	 */
+	private static Object getFromPage(PagedList<?> list, int index) {
+		if (index < 0 || index >= list.size()) {
+			return null;
+		}
+		int pageSize = list.getPageSize();
+		List<?> page = list.getPage(index / pageSize);
+		int offset = index % pageSize;
+		return offset < page.size() ? page.get(offset) : null;
+	}
+
+	/**
+	 * コンテキストに保持されているカーソルのキャッシュを取得する.<br>
+	 * なければ作成してコンテキストに設定する.<br>
+	 *
+	 * @param context
+	 * @return カーソルのキャッシュ
+	 */
+	private static ListCursorCache getCursorCache(ELContext context) {
+		ListCursorCache cache = (ListCursorCache) context
+				.getContext(ListCursorCache.class);
+		if (cache == null) {
+			cache = new ListCursorCache();
+			context.putContext(ListCursorCache.class, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * プロパティをリストのインデックスに変換する.<br>
+	 *
+	 * @param property
+	 * @return インデックス
+	 * @throws IllegalArgumentException
+	 *             インデックスに変換できない場合
+	 */
+	private static int toIndex(Object property) {
+		if (property instanceof Integer) {
+			return ((Integer) property).intValue();
+		}
+		if (property instanceof Number) {
+			return ((Number) property).intValue();
+		}
+		if (property instanceof Character) {
+			return ((Character) property).charValue();
+		}
+		if (property instanceof String) {
+			return Integer.parseInt((String) property);
+		}
+		throw new IllegalArgumentException("index=" + property);
+	}
+}
@@ -2,18 +2,18 @@ package jp.seraphyware.sample.standaloneELContext;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import javax.el.ArrayELResolver;
-import javax.el.BeanELResolver;
 import javax.el.CompositeELResolver;
 import javax.el.ELContext;
 import javax.el.ELException;
 import javax.el.ELResolver;
 import javax.el.ExpressionFactory;
 import javax.el.FunctionMapper;
-import javax.el.ListELResolver;
 import javax.el.MapELResolver;
 import javax.el.PropertyNotFoundException;
 import javax.el.PropertyNotWritableException;
@@ -34,12 +34,12 @@ public class SimpleELContext extends ELContext {
 	/**
 	 * 変数を保持するマップ.<br>
 	 */
-	private Map<String, ValueExpression> varMap = new HashMap<String, ValueExpression>();
+	private Map<String, ValueExpression> varMap = new FlatStringMap<ValueExpression>();
 
 	/**
 	 * ローカル変数用のビーンマップ.<br>
 	 */
-	private Map<String, Object> beansMap = new HashMap<String, Object>();
+	private Map<String, Object> beansMap = new FlatStringMap<Object>();
 
 	/**
 	 * 関数を保持するマップ.<br>
@@ -67,6 +67,63 @@ public class SimpleELContext extends ELContext {
 	 */
 	private CompositeELResolver customResolvers;
 
+	/**
+	 * ビーン名・変数名ごとの最終変更リビジョン
+	 */
+	private Map<String, Long> revisions = new FlatStringMap<Long>();
+
+	/**
+	 * 最新のリビジョン.<br>
+	 * ビーンや変数が変更されるたびに増加する.<br>
+	 */
+	private long revision;
+
+	/**
+	 * 評価中に参照されたビーン名・変数名の記録先.<br>
+	 * 記録していない場合はnull
+	 */
+	private ELDependencies recorder;
+
+	/**
+	 * 評価エポック.<br>
+	 * メモ化された変数は、エポックが変わると再評価される.<br>
+	 */
+	private long epoch;
+
+	/**
+	 * 現在の評価パス.<br>
+	 * 評価パス中でなければnull
+	 */
+	private ELEvaluationPass pass;
+
+	/**
+	 * 現在のインラインキャッシュ.<br>
+	 * 使用していなければnull
+	 */
+	private ELInlineCache inlineCache;
+
+	/**
+	 * 変更を通知するリスナ
+	 */
+	private List<ELChangeListener> changeListeners = new ArrayList<ELChangeListener>();
+
+	/**
+	 * 最後にリセットされたときのリビジョン.<br>
+	 * リセット以降に変更されていないビーン名・変数名のリビジョンとなる.<br>
+	 */
+	private long resetRevision;
+
+	/**
+	 * putContextで設定されたオブジェクト.<br>
+	 * リセット時に破棄できるようにするため、ELContextのものとは別に保持する.<br>
+	 */
+	private Map<Class<?>, Object> contextObjects = new HashMap<Class<?>, Object>();
+
+	/**
+	 * lenientモードであるか?
+	 */
+	private boolean lenient;
+
 	/**
 	 * 初期化子
 	 */
@@ -75,13 +132,19 @@ public class SimpleELContext extends ELContext {
 		varMapper = new VariableMapper() {
 			@Override
 			public ValueExpression resolveVariable(String variable) {
-				return varMap.get(variable);
+				ValueExpression ve = varMap.get(variable);
+				if (ve != null && recorder != null) {
+					recorder.addVariable(variable);
+				}
+				return ve;
 			}
 
 			@Override
 			public ValueExpression setVariable(String variable,
 					ValueExpression expression) {
-				return varMap.put(variable, expression);
+				ValueExpression prev = varMap.put(variable, expression);
+				touch(variable);
+				return prev;
 			}
 		};
 
@@ -91,7 +154,11 @@ public class SimpleELContext extends ELContext {
 			public Method resolveFunction(String prefix, String localName) {
 				Map<String, Method> methods = funcMap.get(prefix);
 				if (methods != null) {
-					return methods.get(localName);
+					Method method = methods.get(localName);
+					if (method != null && recorder != null) {
+						recorder.addFunction(prefix, localName);
+					}
+					return method;
 				}
 				// 登録されていない場合
 				return null;
@@ -107,16 +174,83 @@ public class SimpleELContext extends ELContext {
 		resolver.add(customResolvers);
 		resolver.add(new MapELResolver());
 		resolver.add(new ResourceBundleELResolver());
-		resolver.add(new ListELResolver());
-		resolver.add(new ArrayELResolver());
-		resolver.add(new BeanELResolver());
-		elResolver = resolver;
+		resolver.add(new SequentialListELResolver());
+		resolver.add(new PrimitiveArrayELResolver());
+		resolver.add(new LenientBeanELResolver());
+		resolver.add(new LenientELResolver());
+		elResolver = new DependencyTrackingELResolver(this, resolver);
+
+		// EL実装によってラップされたELContextからも参照できるようにする.
+		putContext(SimpleELContext.class, this);
+		putContext(LenientELResolver.class, Boolean.FALSE);
+	}
+
+	/**
+	 * ELContextに対応するSimpleELContextを取得する.<br>
+	 * EL実装によってラップされたELContextの場合は、
+	 * ラップされているSimpleELContextを取得する.<br>
+	 *
+	 * @param context
+	 *            ELContext
+	 * @return SimpleELContext、該当しなければnull
+	 */
+	public static SimpleELContext of(ELContext context) {
+		if (context instanceof SimpleELContext) {
+			return (SimpleELContext) context;
+		}
+		if (context == null) {
+			return null;
+		}
+		return (SimpleELContext) context.getContext(SimpleELContext.class);
 	}
 
 	public static ExpressionFactory getFactory() {
 		return exprFactory;
 	}
 
+	/**
+	 * コンテキストを再利用できるように、評価ごとの状態をクリアする.<br>
+	 * ビーン、変数、putContextで設定されたオブジェクト、変更リスナ、
+	 * プロパティの解決状態、ロケールをクリアし、新しい評価エポックを開始する.<br>
+	 * 追加されたカスタムELResolverと、定義された関数はそのまま残る.<br>
+	 * 作成済みのPreparedExpressionは、次の評価時に再評価される.<br>
+	 */
+	public void reset() {
+		beansMap.clear();
+		varMap.clear();
+		contextObjects.clear();
+		contextObjects.put(SimpleELContext.class, this);
+		contextObjects.put(LenientELResolver.class, Boolean.valueOf(lenient));
+		changeListeners.clear();
+		recorder = null;
+		pass = null;
+		inlineCache = null;
+		// リセット前のリビジョンで評価された結果が変更されたものとみなされるようにする.
+		revisions.clear();
+		resetRevision = ++revision;
+		epoch++;
+		setPropertyResolved(false);
+		setLocale(null);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void putContext(Class key, Object contextObject) {
+		if (key == null || contextObject == null) {
+			throw new NullPointerException();
+		}
+		contextObjects.put(key, contextObject);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Object getContext(Class key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		return contextObjects.get(key);
+	}
+
 	@Override
 	public VariableMapper getVariableMapper() {
 		return varMapper;
@@ -132,6 +266,25 @@ public class SimpleELContext extends ELContext {
 		return elResolver;
 	}
 
+	/**
+	 * lenientモードを設定する.<br>
+	 * lenientモードのときは、未定義のビーン名、存在しないビーンのプロパティ、
+	 * ClassELResolverで存在しないクラスやフィールドを参照した場合に、
+	 * 例外を発生させずにnullとして評価する.<br>
+	 * この設定はreset()しても維持される.<br>
+	 *
+	 * @param lenient
+	 *            lenientモードにする場合はtrue
+	 */
+	public void setLenient(boolean lenient) {
+		this.lenient = lenient;
+		putContext(LenientELResolver.class, Boolean.valueOf(lenient));
+	}
+
+	public boolean isLenient() {
+		return lenient;
+	}
+
 	/**
 	 * カスタムELResolverをコンテキストに追加する.<br>
 	 * 
@@ -165,6 +318,8 @@ public class SimpleELContext extends ELContext {
 	/**
 	 * 変数を定義する.<br>
 	 * VariableMapperに直接、オブジェクトをValueExpressionへのラッパにして設定する.<br>
+	 * すでにこのメソッドで定義された変数であれば、ラッパの値を差し替える.<br>
+	 * (そのため、作成済みのEL式からも新しい値が参照される.)<br>
 	 * 
 	 * @param variable
 	 *            変数名
@@ -172,9 +327,47 @@ public class SimpleELContext extends ELContext {
 	 *            変数の値
 	 */
 	public void setVariable(String variable, Object expression) {
-		ValueExpression exp = exprFactory.createValueExpression(expression,
-				Object.class);
-		getVariableMapper().setVariable(variable, exp);
+		ValueExpression current = varMap.get(variable);
+		if (current instanceof ConstantValueExpression) {
+			((ConstantValueExpression) current).set(expression);
+			touch(variable);
+			return;
+		}
+		getVariableMapper().setVariable(variable,
+				new ConstantValueExpression(expression));
+	}
+
+	/**
+	 * 複数の変数をまとめて定義する.<br>
+	 * 
+	 * @param variables
+	 *            変数名をキーとし、変数の値を値とするマップ
+	 * @see #setVariable(String, Object)
+	 */
+	public void setVariables(Map<String, ?> variables) {
+		for (Map.Entry<String, ?> entry : variables.entrySet()) {
+			setVariable(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * メモ化された変数を定義する.<br>
+	 * 変数の値となるEL式は最初に参照されたときに評価され、
+	 * その値は、式が参照しているビーンや変数が変更されるか、
+	 * 新しい評価エポックが開始されるまで再利用される.<br>
+	 * 変数の式が参照する変数は、この時点で定義されているものが使われる.<br>
+	 *
+	 * @param variable
+	 *            変数名
+	 * @param expression
+	 *            変数の値となるEL式(${}で囲まないもの)
+	 * @see #newEpoch()
+	 */
+	public void setLazyVariable(String variable, String expression) {
+		ValueExpression exp = exprFactory.createValueExpression(this,
+				bracket(expression), Object.class);
+		getVariableMapper().setVariable(variable,
+				new MemoizedValueExpression(exp));
 	}
 
 	/**
@@ -190,6 +383,242 @@ public class SimpleELContext extends ELContext {
 			throw new IllegalArgumentException();
 		}
 		beansMap.put(name, bean);
+		touch(name);
+	}
+
+	/**
+	 * 遅延して作成されるローカル変数を定義する.<br>
+	 * ビーンはEL式から最初に参照されたときに作成され、コンテキストがリセットされるまで保持される.<br>
+	 *
+	 * @param name
+	 *            ビーン名
+	 * @param supplier
+	 *            ビーンのファクトリ
+	 * @see #defineLazyBean(String, BeanSupplier, BeanScope)
+	 */
+	public void defineLazyBean(String name, BeanSupplier<?> supplier) {
+		defineLazyBean(name, supplier, BeanScope.CONTEXT);
+	}
+
+	/**
+	 * 遅延して作成されるローカル変数を定義する.<br>
+	 * ビーンはEL式から最初に参照されたときに作成され、指定した範囲の間保持される.<br>
+	 * 参照されなければ作成されない.<br>
+	 * (getBeans()のマップには、作成されたビーンではなく内部的なホルダが格納される.)<br>
+	 *
+	 * @param name
+	 *            ビーン名
+	 * @param supplier
+	 *            ビーンのファクトリ
+	 * @param scope
+	 *            ビーンを保持する範囲
+	 * @see #isBeanMaterialized(String)
+	 */
+	public void defineLazyBean(String name, BeanSupplier<?> supplier,
+			BeanScope scope) {
+		if (name == null) {
+			throw new IllegalArgumentException();
+		}
+		beansMap.put(name, new LazyBean(supplier, scope));
+		touch(name);
+	}
+
+	/**
+	 * ローカル変数のビーンが作成済みであるか判定する.<br>
+	 * defineBeanで定義されたビーンは常に作成済みとなる.<br>
+	 *
+	 * @param name
+	 *            ビーン名
+	 * @return 作成済みであればtrue、未定義または未作成であればfalse
+	 */
+	public boolean isBeanMaterialized(String name) {
+		Object bean = beansMap.get(name);
+		if (bean instanceof LazyBean) {
+			return ((LazyBean) bean).isMaterialized(this);
+		}
+		return bean != null || beansMap.containsKey(name);
+	}
+
+	/**
+	 * ビーンまたは変数が変更されたことを通知する.<br>
+	 * defineBean, setVariable, setValueなどのAPIを通じて変更した場合は
+	 * 自動的に通知されるため呼び出す必要はない.<br>
+	 * getBeans()のマップを直接変更した場合や、ビーンの内容を
+	 * EL式を介さずに変更した場合に呼び出す.<br>
+	 *
+	 * @param name
+	 *            変更されたビーン名または変数名
+	 */
+	public void touch(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException();
+		}
+		revisions.put(name, Long.valueOf(++revision));
+		if (pass != null) {
+			pass.clear();
+		}
+		for (int idx = 0; idx < changeListeners.size(); idx++) {
+			changeListeners.get(idx).changed(this, name);
+		}
+	}
+
+	/**
+	 * ビーンまたは変数の変更を受け取るリスナを登録する.<br>
+	 *
+	 * @param listener
+	 *            リスナ
+	 */
+	public void addChangeListener(ELChangeListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * リスナの登録を解除する.<br>
+	 *
+	 * @param listener
+	 *            リスナ
+	 */
+	public void removeChangeListener(ELChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	/**
+	 * 新しい評価エポックを開始する.<br>
+	 * メモ化された変数は、次に参照されたときに再評価される.<br>
+	 */
+	public void newEpoch() {
+		epoch++;
+	}
+
+	/**
+	 * 現在の評価エポックを取得する.<br>
+	 *
+	 * @return エポック
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * 最新のリビジョンを取得する.<br>
+	 *
+	 * @return リビジョン
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * 指定したビーン名・変数名が最後に変更されたリビジョンを取得する.<br>
+	 *
+	 * @param name
+	 *            ビーン名または変数名
+	 * @return リビジョン、最後のリセット以降に変更されていなければリセット時のリビジョン
+	 *         (一度もリセットされていなければ0)
+	 */
+	public long getRevision(String name) {
+		Long rev = revisions.get(name);
+		return rev != null ? rev.longValue() : resetRevision;
+	}
+
+	/**
+	 * 評価中に参照されたビーン名・変数名の記録を開始する.<br>
+	 *
+	 * @param deps
+	 *            記録先
+	 * @return それまでの記録先、なければnull
+	 */
+	ELDependencies startRecording(ELDependencies deps) {
+		ELDependencies prev = recorder;
+		recorder = deps;
+		return prev;
+	}
+
+	/**
+	 * 評価中に参照されたビーン名・変数名の記録を終了する.<br>
+	 *
+	 * @param prev
+	 *            記録開始前の記録先
+	 */
+	void endRecording(ELDependencies prev) {
+		recorder = prev;
+	}
+
+	/**
+	 * 評価パスを開始する.<br>
+	 * 評価パスの間は、解決済みのプロパティの値が再利用される.<br>
+	 *
+	 * @param newPass
+	 *            評価パス
+	 * @return それまでの評価パス、なければnull
+	 */
+	ELEvaluationPass startPass(ELEvaluationPass newPass) {
+		ELEvaluationPass prev = pass;
+		pass = newPass;
+		return prev;
+	}
+
+	/**
+	 * 評価パスを終了する.<br>
+	 *
+	 * @param prev
+	 *            開始前の評価パス
+	 */
+	void endPass(ELEvaluationPass prev) {
+		pass = prev;
+	}
+
+	/**
+	 * 現在の評価パスを取得する.<br>
+	 *
+	 * @return 評価パス、評価パス中でなければnull
+	 */
+	ELEvaluationPass getPass() {
+		return pass;
+	}
+
+	/**
+	 * インラインキャッシュの使用を開始する.<br>
+	 *
+	 * @param newCache
+	 *            インラインキャッシュ
+	 * @return それまでのインラインキャッシュ、なければnull
+	 */
+	ELInlineCache startInlineCache(ELInlineCache newCache) {
+		ELInlineCache prev = inlineCache;
+		inlineCache = newCache;
+		return prev;
+	}
+
+	/**
+	 * インラインキャッシュの使用を終了する.<br>
+	 *
+	 * @param prev
+	 *            開始前のインラインキャッシュ
+	 */
+	void endInlineCache(ELInlineCache prev) {
+		inlineCache = prev;
+	}
+
+	/**
+	 * 現在のインラインキャッシュを取得する.<br>
+	 *
+	 * @return インラインキャッシュ、使用していなければnull
+	 */
+	ELInlineCache getInlineCache() {
+		return inlineCache;
+	}
+
+	/**
+	 * 現在の記録先を取得する.<br>
+	 *
+	 * @return 記録先、記録中でなければnull
+	 */
+	ELDependencies getRecorder() {
+		return recorder;
 	}
 
 	/**
@@ -229,6 +658,7 @@ public class SimpleELContext extends ELContext {
 	 * EL式を評価する.<br>
 	 * 戻り値の型はObject型(汎用)とする.<br>
 	 * 内部的にはgetValueと変わらない.<br>
+	 * 代入やメソッド呼び出しを行った場合は、参照したビーンと変数を変更されたものとして通知する.<br>
 	 * 
 	 * @param expression
 	 *            The EL expression to be evaluated.
@@ -251,7 +681,7 @@ public class SimpleELContext extends ELContext {
 	public Object getValue(String expression, Class<?> expectedType) {
 		ValueExpression exp = exprFactory.createValueExpression(this,
 				bracket(expression), expectedType);
-		return exp.getValue(this);
+		return evaluate(exp);
 	}
 
 	/**
@@ -269,7 +699,68 @@ public class SimpleELContext extends ELContext {
 	public Object getValueNb(String expression, Class<?> expectedType) {
 		ValueExpression exp = exprFactory.createValueExpression(this,
 				expression, expectedType);
-		return exp.getValue(this);
+		return evaluate(exp);
+	}
+
+	/**
+	 * 依存関係を記録しながらEL式を評価する.<br>
+	 * ${bean.x = 3}や${bean.setX(5)}のように評価中に代入やメソッド呼び出しが行われた場合は、
+	 * ルート要素への代入でなくても変更を検出できるように、参照したビーンと変数を変更されたものとして通知する.<br>
+	 *
+	 * @param exp
+	 *            評価するEL式
+	 * @return 評価結果
+	 */
+	private Object evaluate(ValueExpression exp) {
+		ELDependencies deps = new ELDependencies();
+		ELDependencies prev = startRecording(deps);
+		Object value;
+		try {
+			value = exp.getValue(this);
+
+		} finally {
+			endRecording(prev);
+		}
+		if (prev != null) {
+			// 入れ子で評価されている場合は外側の評価にも依存関係を伝搬する.
+			prev.addAll(deps);
+		}
+		touchSideEffects(deps);
+		return value;
+	}
+
+	/**
+	 * 代入やメソッド呼び出しが記録されていれば、
+	 * 評価中に参照したビーンと変数を変更されたものとして通知する.<br>
+	 * どのプロパティが変更されたかは特定できないため、参照したものすべてを通知する.<br>
+	 *
+	 * @param deps
+	 *            評価したときの依存関係
+	 */
+	void touchSideEffects(ELDependencies deps) {
+		if (!deps.hasSideEffect()) {
+			return;
+		}
+		for (String name : new ArrayList<String>(deps.getIdentifiers())) {
+			touch(name);
+		}
+		for (String name : new ArrayList<String>(deps.getVariables())) {
+			touch(name);
+		}
+	}
+
+	/**
+	 * 繰り返し評価するためのEL式を準備する.<br>
+	 *
+	 * @param expression
+	 *            The EL expression to be evaluated.
+	 * @param expectedType
+	 *            Specifies the type that the resultant evaluation will be
+	 *            coerced to.
+	 * @return 準備されたEL式
+	 */
+	public PreparedExpression prepare(String expression, Class<?> expectedType) {
+		return new PreparedExpression(bracket(expression), expectedType);
 	}
 
 	/**
@@ -293,6 +784,19 @@ public class SimpleELContext extends ELContext {
 	public void setValue(String expression, Object value) {
 		ValueExpression exp = exprFactory.createValueExpression(this,
 				bracket(expression), Object.class);
-		exp.setValue(this, value);
+		ELDependencies deps = new ELDependencies();
+		ELDependencies prev = startRecording(deps);
+		try {
+			exp.setValue(this, value);
+
+		} finally {
+			endRecording(prev);
+		}
+		// ${bean.x}のような代入先のルート要素を変更されたものとして通知する.
+		// (ルート要素自身への代入はELResolverで通知済み)
+		Iterator<String> ite = deps.getIdentifiers().iterator();
+		if (ite.hasNext()) {
+			touch(ite.next());
+		}
 	}
 }
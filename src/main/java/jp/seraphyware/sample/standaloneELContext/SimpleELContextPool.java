@@ -0,0 +1,102 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimpleELContextを再利用するためのプール.<br>
+ * 借り出したコンテキストは、返却時にreset()されてプールに戻される.<br>
+ * プールが空であれば新しいコンテキストを作成し、
+ * プールが一杯であれば返却されたコンテキストは破棄される.<br>
+ * カスタムELResolverや関数を設定したコンテキストをプールする場合は、
+ * createContext()をオーバーライドする.<br>
+ * このクラスはスレッドセーフである.<br>
+ */
+public class SimpleELContextPool {
+
+	/**
+	 * 使用されていないコンテキスト
+	 */
+	private final BlockingQueue<SimpleELContext> idles;
+
+	/**
+	 * 作成したコンテキストの数
+	 */
+	private final AtomicLong createdCount = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param capacity
+	 *            プールに保持するコンテキストの最大数
+	 */
+	public SimpleELContextPool(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity=" + capacity);
+		}
+		this.idles = new ArrayBlockingQueue<SimpleELContext>(capacity);
+	}
+
+	/**
+	 * 新しいコンテキストを作成する.<br>
+	 * カスタムELResolverや関数を設定する場合のフックをかけられる場所.<br>
+	 *
+	 * @return コンテキスト
+	 */
+	protected SimpleELContext createContext() {
+		return new SimpleELContext();
+	}
+
+	/**
+	 * コンテキストを借り出す.<br>
+	 * プールが空であれば新しいコンテキストを作成する.<br>
+	 *
+	 * @return コンテキスト
+	 */
+	public SimpleELContext borrow() {
+		SimpleELContext context = idles.poll();
+		if (context == null) {
+			context = createContext();
+			createdCount.incrementAndGet();
+		}
+		return context;
+	}
+
+	/**
+	 * コンテキストを返却する.<br>
+	 * コンテキストはリセットされ、プールが一杯でなければプールに戻される.<br>
+	 * 返却したコンテキストは、以降使用してはならない.<br>
+	 *
+	 * @param context
+	 *            借り出したコンテキスト
+	 */
+	public void release(SimpleELContext context) {
+		if (context == null) {
+			throw new IllegalArgumentException();
+		}
+		context.reset();
+		idles.offer(context);
+	}
+
+	/**
+	 * プールしているコンテキストをすべて破棄する.<br>
+	 */
+	public void clear() {
+		idles.clear();
+	}
+
+	/**
+	 * @return プールされている使用されていないコンテキストの数
+	 */
+	public int getIdleCount() {
+		return idles.size();
+	}
+
+	/**
+	 * @return これまでに作成したコンテキストの数
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+}
@@ -0,0 +1,31 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import javax.el.PropertyNotFoundException;
+
+/**
+ * スタックトレースを持たないPropertyNotFoundException.<br>
+ * 存在しないプロパティやクラスの参照が頻繁に発生する場合に、
+ * スタックトレースの構築による負荷を避けるために用いる.<br>
+ */
+class StacklessPropertyNotFoundException extends PropertyNotFoundException {
+
+	private static final long serialVersionUID = 4217635498813204217L;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param message
+	 *            メッセージ
+	 */
+	public StacklessPropertyNotFoundException(String message) {
+		super(message);
+	}
+
+	/**
+	 * スタックトレースを構築しない.<br>
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
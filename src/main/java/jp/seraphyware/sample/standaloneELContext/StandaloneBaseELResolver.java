@@ -1,9 +1,12 @@
 package jp.seraphyware.sample.standaloneELContext;
 
 import java.beans.FeatureDescriptor;
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 import javax.el.ELContext;
 import javax.el.ELException;
@@ -97,26 +100,275 @@ public abstract class StandaloneBaseELResolver extends ELResolver {
 		}
 	}
 
+	/**
+	 * ローカルコンテキストのバージョンを取得する.<br>
+	 * バージョンが同じであれば内容は変更されていないものとし、
+	 * 構築済みのFeatureDescriptorの索引を再利用する.<br>
+	 * 既定ではFlatStringMapの場合のみバージョンを返す.
+	 * 独自に変更を検出できる場合は派生クラスでオーバーライドする.<br>
+	 *
+	 * @param elContext
+	 * @param ctx
+	 *            ローカルコンテキスト
+	 * @return バージョン、変更を検出できなければ-1
+	 */
+	protected long getLocalContextVersion(ELContext elContext,
+			Map<String, Object> ctx) {
+		if (ctx instanceof FlatStringMap) {
+			return ((FlatStringMap<?>) ctx).getVersion();
+		}
+		return -1;
+	}
+
+	/**
+	 * ローカルコンテキストの変数のFeatureDescriptorを返す.<br>
+	 * ローカルコンテキストのバージョンがわかる場合は、名前順の索引を構築して
+	 * 変更されるまで再利用する.
+	 * 索引はFlatStringMapであればマップごとに保持し、それ以外は最後のマップの分だけを弱参照で保持する.
+	 * バージョンがわからない場合は、要素を列挙しながら必要になった時点でFeatureDescriptorを作成する.<br>
+	 * いずれの場合もFeatureDescriptorは呼び出しごとに作成されるため、呼び出し元で変更してもよい.<br>
+	 */
 	@Override
 	public Iterator<FeatureDescriptor> getFeatureDescriptors(
 			ELContext elContext, Object base) {
-		 ArrayList<FeatureDescriptor> list = new ArrayList<FeatureDescriptor>();
-			Map<String, Object> ctx = getLocalContext(elContext);
-		 for (Map.Entry<String, Object> entry : ctx.entrySet()) {
-			 String key = entry.getKey();
-			 Object val = entry.getValue();
-			 FeatureDescriptor descriptor = new FeatureDescriptor();
-			 descriptor.setName(key);
-			 descriptor.setDisplayName(key);
-			 descriptor.setShortDescription(key);
-			 descriptor.setExpert(false);
-			 descriptor.setHidden(false);
-			 descriptor.setPreferred(true);
-			 descriptor.setValue("type", val != null ? val.getClass() : Object.class);
-			 descriptor.setValue("resolvableAtDesignTime", Boolean.TRUE);
-			 list.add(descriptor);
-		 }
-		 return list.iterator();
+		return getFeatureDescriptors(elContext, base, null);
+	}
+
+	/**
+	 * 指定した接頭辞で始まる名前の変数のFeatureDescriptorを返す.<br>
+	 * 入力補完などで候補を絞り込むために用いる.<br>
+	 *
+	 * @param elContext
+	 * @param base
+	 * @param prefix
+	 *            名前の接頭辞、nullの場合はすべて
+	 * @return FeatureDescriptorのイテレータ
+	 * @see #getFeatureDescriptors(ELContext, Object)
+	 */
+	public Iterator<FeatureDescriptor> getFeatureDescriptors(
+			ELContext elContext, Object base, String prefix) {
+		Map<String, Object> ctx = getLocalContext(elContext);
+		long version = getLocalContextVersion(elContext, ctx);
+		if (version < 0) {
+			return new DescriptorIterator(ctx.entrySet().iterator(), prefix);
+		}
+		return getDescriptorIndex(ctx, version).iterator(prefix);
+	}
+
+	/**
+	 * FlatStringMap以外のローカルコンテキストについて、最後に構築した索引.<br>
+	 * ローカルコンテキストは弱参照で保持する.<br>
+	 */
+	private volatile IndexSlot lastIndex;
+
+	/**
+	 * FlatStringMap以外のローカルコンテキストの索引を保持するスロット
+	 */
+	private static final class IndexSlot {
+
+		final WeakReference<Map<String, Object>> ctx;
+
+		final DescriptorIndex index;
+
+		IndexSlot(Map<String, Object> ctx, DescriptorIndex index) {
+			this.ctx = new WeakReference<Map<String, Object>>(ctx);
+			this.index = index;
+		}
+	}
+
+	/**
+	 * ローカルコンテキストの索引を取得する.<br>
+	 * 同じバージョンの索引がなければ構築する.<br>
+	 *
+	 * @param ctx
+	 *            ローカルコンテキスト
+	 * @param version
+	 *            バージョン
+	 * @return 索引
+	 */
+	private DescriptorIndex getDescriptorIndex(Map<String, Object> ctx,
+			long version) {
+		if (ctx instanceof FlatStringMap) {
+			FlatStringMap<?> map = (FlatStringMap<?>) ctx;
+			Object derived = map.getDerived();
+			if (derived instanceof DescriptorIndex
+					&& ((DescriptorIndex) derived).version == version) {
+				return (DescriptorIndex) derived;
+			}
+			DescriptorIndex index = new DescriptorIndex(ctx, version);
+			map.setDerived(index);
+			return index;
+		}
+		IndexSlot slot = lastIndex;
+		if (slot != null && slot.ctx.get() == ctx
+				&& slot.index.version == version) {
+			return slot.index;
+		}
+		DescriptorIndex index = new DescriptorIndex(ctx, version);
+		lastIndex = new IndexSlot(ctx, index);
+		return index;
+	}
+
+	/**
+	 * 変数のFeatureDescriptorを作成する.<br>
+	 *
+	 * @param key
+	 *            変数名
+	 * @param type
+	 *            値の型
+	 * @return FeatureDescriptor
+	 */
+	private static FeatureDescriptor createDescriptor(String key, Class<?> type) {
+		FeatureDescriptor descriptor = new FeatureDescriptor();
+		descriptor.setName(key);
+		descriptor.setDisplayName(key);
+		descriptor.setShortDescription(key);
+		descriptor.setExpert(false);
+		descriptor.setHidden(false);
+		descriptor.setPreferred(true);
+		descriptor.setValue("type", type);
+		descriptor.setValue("resolvableAtDesignTime", Boolean.TRUE);
+		return descriptor;
+	}
+
+	private static Class<?> typeOf(Object val) {
+		return val != null ? val.getClass() : Object.class;
+	}
+
+	/**
+	 * ローカルコンテキストの変数名と型を名前順に並べた索引.<br>
+	 * 構築後は変更されない.
+	 * FeatureDescriptorは変更可能なため、索引には保持せずに列挙するたびに作成する.<br>
+	 */
+	private static final class DescriptorIndex {
+
+		/**
+		 * 索引を構築したときのバージョン
+		 */
+		final long version;
+
+		/**
+		 * 名前順の変数名
+		 */
+		final String[] names;
+
+		/**
+		 * 変数名に対応する値の型
+		 */
+		final Class<?>[] types;
+
+		DescriptorIndex(Map<String, Object> ctx, long version) {
+			this.version = version;
+			TreeMap<String, Object> sorted = new TreeMap<String, Object>(ctx);
+			names = new String[sorted.size()];
+			types = new Class<?>[sorted.size()];
+			int idx = 0;
+			for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+				names[idx] = entry.getKey();
+				types[idx] = typeOf(entry.getValue());
+				idx++;
+			}
+		}
+
+		/**
+		 * 接頭辞に一致する範囲のイテレータを返す.<br>
+		 *
+		 * @param prefix
+		 *            接頭辞、nullの場合はすべて
+		 * @return イテレータ
+		 */
+		Iterator<FeatureDescriptor> iterator(String prefix) {
+			int from = 0;
+			int to = names.length;
+			if (prefix != null) {
+				from = Arrays.binarySearch(names, prefix);
+				if (from < 0) {
+					from = -(from + 1);
+				}
+				to = from;
+				while (to < names.length && names[to].startsWith(prefix)) {
+					to++;
+				}
+			}
+			final int end = to;
+			final int begin = from;
+			return new Iterator<FeatureDescriptor>() {
+
+				private int pos = begin;
+
+				@Override
+				public boolean hasNext() {
+					return pos < end;
+				}
+
+				@Override
+				public FeatureDescriptor next() {
+					if (pos >= end) {
+						throw new NoSuchElementException();
+					}
+					FeatureDescriptor descriptor = createDescriptor(names[pos],
+							types[pos]);
+					pos++;
+					return descriptor;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	/**
+	 * ローカルコンテキストを列挙しながらFeatureDescriptorを作成するイテレータ
+	 */
+	private static final class DescriptorIterator implements
+			Iterator<FeatureDescriptor> {
+
+		private final Iterator<Map.Entry<String, Object>> ite;
+
+		private final String prefix;
+
+		private Map.Entry<String, Object> next;
+
+		DescriptorIterator(Iterator<Map.Entry<String, Object>> ite, String prefix) {
+			this.ite = ite;
+			this.prefix = prefix;
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (ite.hasNext()) {
+				Map.Entry<String, Object> entry = ite.next();
+				if (prefix == null || entry.getKey().startsWith(prefix)) {
+					next = entry;
+					break;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public FeatureDescriptor next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			FeatureDescriptor descriptor = createDescriptor(next.getKey(),
+					typeOf(next.getValue()));
+			advance();
+			return descriptor;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	@Override
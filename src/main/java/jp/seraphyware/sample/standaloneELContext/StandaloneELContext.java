@@ -3,12 +3,9 @@ package jp.seraphyware.sample.standaloneELContext;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.el.ArrayELResolver;
-import javax.el.BeanELResolver;
 import javax.el.CompositeELResolver;
 import javax.el.ELContext;
 import javax.el.FunctionMapper;
-import javax.el.ListELResolver;
 import javax.el.MapELResolver;
 import javax.el.ResourceBundleELResolver;
 import javax.el.ValueExpression;
@@ -39,11 +36,61 @@ public class StandaloneELContext extends ELContext {
 	 */
 	private Map<String, ValueExpression> variables = new HashMap<String, ValueExpression>();
 
+	/**
+	 * 評価エポック
+	 */
+	private long epoch;
+
+	/**
+	 * lenientモードであるか?
+	 */
+	private boolean lenient;
+
+	/**
+	 * LenientELResolverをリゾルバに追加済みであるか?
+	 */
+	private boolean lenientResolverAdded;
+
+	/**
+	 * リゾルバをこのコンテキストで作成したか?<br>
+	 * 共有するリゾルバが指定された場合はfalse
+	 */
+	private boolean ownResolver;
+
 	/**
 	 * コンストラクタ.<br>
 	 */
 	public StandaloneELContext() {
 		init();
+		// EL実装によってラップされたELContextからも参照できるようにする.
+		putContext(StandaloneELContext.class, this);
+	}
+
+	/**
+	 * 共有するリゾルバと関数マップを指定するコンストラクタ.<br>
+	 * リゾルバの連鎖や関数マップを毎回構築せず、
+	 * 一度構築したものを多数のコンテキストで共有する場合に用いる.<br>
+	 * この場合、initELResolverは呼び出されない.<br>
+	 * 複数のスレッドで共有する場合は、凍結したFreezableCompositeELResolverを使用すること.<br>
+	 * 共有するリゾルバにはsetLenientでLenientELResolverが追加されないため、
+	 * lenientモードで使用する場合は、あらかじめ末尾にLenientELResolverを追加しておくこと.<br>
+	 *
+	 * @param resolver
+	 *            リゾルバ
+	 * @param funcMapper
+	 *            関数マップ
+	 * @see #createSharedELResolver()
+	 */
+	public StandaloneELContext(CompositeELResolver resolver,
+			FunctionMapper funcMapper) {
+		if (resolver == null || funcMapper == null) {
+			throw new IllegalArgumentException();
+		}
+		initVariableMapper();
+		this.resolver = resolver;
+		this.funcMapper = funcMapper;
+		// EL実装によってラップされたELContextからも参照できるようにする.
+		putContext(StandaloneELContext.class, this);
 	}
 
 	/**
@@ -54,6 +101,20 @@ public class StandaloneELContext extends ELContext {
 		this.funcMapper = new SimpleELFunctionMapper();
 
 		// 変数の解決
+		initVariableMapper();
+
+		// EL式のリゾルバの複合体.
+		// (解決する順序で設定する.)
+		final CompositeELResolver resolver = new CompositeELResolver();
+		initELResolver(resolver);
+		this.resolver = resolver;
+		this.ownResolver = true;
+	}
+
+	/**
+	 * 変数マップを初期化します.<br>
+	 */
+	private final void initVariableMapper() {
 		this.varMapper = new VariableMapper() {
 			@Override
 			public ValueExpression resolveVariable(String variable) {
@@ -66,12 +127,6 @@ public class StandaloneELContext extends ELContext {
 				return variables.put(variable, expression);
 			}
 		};
-
-		// EL式のリゾルバの複合体.
-		// (解決する順序で設定する.)
-		final CompositeELResolver resolver = new CompositeELResolver();
-		initELResolver(resolver);
-		this.resolver = resolver;
 	}
 
 	/**
@@ -79,11 +134,92 @@ public class StandaloneELContext extends ELContext {
 	 * @param resolver
 	 */
 	protected void initELResolver(CompositeELResolver resolver) {
+		addDefaultELResolvers(resolver);
+	}
+
+	/**
+	 * 標準のELResolverを、解決する順序で追加する.<br>
+	 *
+	 * @param resolver
+	 *            追加先のリゾルバ
+	 */
+	public static void addDefaultELResolvers(CompositeELResolver resolver) {
 		resolver.add(new ResourceBundleELResolver()); // リソースバンドルの解決用
 		resolver.add(new MapELResolver()); // Map, Propertiesの解決用
-		resolver.add(new ListELResolver()); // Listの解決用
-		resolver.add(new ArrayELResolver()); // 配列の解決用
-		resolver.add(new BeanELResolver()); // Beanのsetter/getterの解決用
+		resolver.add(new SequentialListELResolver()); // Listの解決用
+		resolver.add(new PrimitiveArrayELResolver()); // 配列の解決用
+		resolver.add(new LenientBeanELResolver()); // Beanのsetter/getterの解決用
+	}
+
+	/**
+	 * 複数のコンテキストで共有するための、標準のELResolverを凍結したリゾルバを作成する.<br>
+	 * 独自のELResolverを加える場合は、FreezableCompositeELResolverを作成して
+	 * addDefaultELResolversで標準のELResolverを追加したあとに凍結すればよい.<br>
+	 * (lenientモードで使用する場合は、最後にLenientELResolverを追加しておくこと.)<br>
+	 *
+	 * @return 凍結されたリゾルバ
+	 */
+	public static FreezableCompositeELResolver createSharedELResolver() {
+		FreezableCompositeELResolver resolver = new FreezableCompositeELResolver();
+		addDefaultELResolvers(resolver);
+		resolver.add(new LenientELResolver()); // lenientモードの未定義の変数の解決用
+		return resolver.freeze();
+	}
+
+	/**
+	 * lenientモードを設定する.<br>
+	 * lenientモードのときは、未定義の変数、存在しないビーンのプロパティ、
+	 * ClassELResolverで存在しないクラスやフィールドを参照した場合に、
+	 * 例外を発生させずにnullとして評価する.<br>
+	 * 未定義の変数をnullとするため、最初にlenientモードにしたときに
+	 * このコンテキストが作成したリゾルバの末尾にLenientELResolverを追加する.
+	 * そのため、ルート要素を解決するELResolverはそれより前に追加しておくこと.<br>
+	 * 共有するリゾルバを指定して作成したコンテキストでは、リゾルバは変更しない.
+	 * 共有するリゾルバには、あらかじめLenientELResolverを追加しておくこと.<br>
+	 *
+	 * @param lenient
+	 *            lenientモードにする場合はtrue
+	 * @throws IllegalStateException
+	 *             共有するリゾルバがFreezableCompositeELResolverで、
+	 *             LenientELResolverを含まない場合
+	 * @see #createSharedELResolver()
+	 */
+	public void setLenient(boolean lenient) {
+		if (lenient && !lenientResolverAdded) {
+			if (ownResolver) {
+				resolver.add(new LenientELResolver());
+
+			} else if (resolver instanceof FreezableCompositeELResolver
+					&& !((FreezableCompositeELResolver) resolver)
+							.contains(LenientELResolver.class)) {
+				throw new IllegalStateException(
+						"shared resolver has no LenientELResolver.");
+			}
+			lenientResolverAdded = true;
+		}
+		this.lenient = lenient;
+		putContext(LenientELResolver.class, Boolean.valueOf(lenient));
+	}
+
+	public boolean isLenient() {
+		return lenient;
+	}
+
+	/**
+	 * 新しい評価エポックを開始する.<br>
+	 * 変数として設定されたMemoizedValueExpressionは、次に参照されたときに再評価される.<br>
+	 */
+	public void newEpoch() {
+		epoch++;
+	}
+
+	/**
+	 * 現在の評価エポックを取得する.<br>
+	 *
+	 * @return エポック
+	 */
+	public long getEpoch() {
+		return epoch;
 	}
 
 	@Override
@@ -0,0 +1,133 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.BitSet;
+
+import javax.el.PropertyNotFoundException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ColumnarExpressionのテスト.<br>
+ */
+public class ColumnarExpressionTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ColumnarExpressionTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ColumnarExpressionTest.class);
+	}
+
+	/**
+	 * チャンクをまたぐ行数のテストデータを作成する.
+	 */
+	private static ColumnarBatch createBatch(int rows) {
+		double[] price = new double[rows];
+		int[] qty = new int[rows];
+		long[] code = new long[rows];
+		boolean[] active = new boolean[rows];
+		for (int row = 0; row < rows; row++) {
+			price[row] = row % 100 + 0.5;
+			qty[row] = row % 30;
+			code[row] = row;
+			active[row] = row % 3 == 0;
+		}
+		return new ColumnarBatch().addColumn("price", price)
+				.addColumn("qty", qty).addColumn("code", code)
+				.addColumn("active", active);
+	}
+
+	public void testFilter() {
+		int rows = ColumnarExpression.CHUNK_SIZE * 2 + 17;
+		ColumnarBatch batch = createBatch(rows);
+		String[] expressions = { "price * qty > 1000",
+				"price * qty gt 1000 and (active || code % 7 == 0)",
+				"!(qty <= 3) && -price < -50 or code == 2",
+				"not active and code div 2 >= 100" };
+		for (String expression : expressions) {
+			ColumnarExpression expr = new ColumnarExpression(expression);
+			assertTrue(expression, expr.isCompiled());
+			BitSet bits = expr.filter(batch);
+			assertTrue(expr.isVectorized());
+			assertEquals(expression, rowWise(expression, batch), bits);
+		}
+
+		// カーネルに変換できない構文は1行ごとに評価する.
+		String expression = "empty price ? false : price > 50";
+		ColumnarExpression expr = new ColumnarExpression(expression);
+		assertFalse(expr.isCompiled());
+		assertEquals(new ColumnarExpression("price > 50").filter(batch),
+				expr.filter(batch));
+		assertFalse(expr.isVectorized());
+
+		// 型が合わない場合も1行ごとに評価する.
+		expr = new ColumnarExpression("active + 1 > 0");
+		assertTrue(expr.isCompiled());
+		try {
+			expr.filter(batch);
+			assertTrue(false);
+
+		} catch (RuntimeException ex) {
+			// booleanとの加算はELでもエラー
+			assertFalse(expr.isVectorized());
+		}
+
+		try {
+			new ColumnarExpression("unknown > 1").filter(batch);
+			assertTrue(false);
+
+		} catch (PropertyNotFoundException ex) {
+			assertTrue(true);
+		}
+	}
+
+	public void testEvaluate() {
+		ColumnarBatch batch = createBatch(ColumnarExpression.CHUNK_SIZE + 3);
+		ColumnarExpression expr = new ColumnarExpression("price * qty / 2 - 1");
+		double[] values = expr.evaluate(batch);
+		assertTrue(expr.isVectorized());
+		SimpleELContext elProc = new SimpleELContext();
+		for (int row = 0; row < batch.getRowCount(); row++) {
+			for (String name : batch.getColumnNames()) {
+				elProc.setVariable(name, batch.getValue(name, row));
+			}
+			assertEquals(((Number) elProc.getValue(expr.getExpressionString(),
+					Double.class)).doubleValue(), values[row], 1e-9);
+		}
+
+		expr = new ColumnarExpression("qty > 10 ? price : 0");
+		values = expr.evaluate(batch);
+		assertFalse(expr.isVectorized());
+		assertEquals(11.5, values[11], 1e-9);
+		assertEquals(0.0, values[10], 1e-9);
+	}
+
+	/**
+	 * 1行ごとにSimpleELContextで評価した結果
+	 */
+	private static BitSet rowWise(String expression, ColumnarBatch batch) {
+		SimpleELContext elProc = new SimpleELContext();
+		BitSet bits = new BitSet();
+		for (int row = 0; row < batch.getRowCount(); row++) {
+			for (String name : batch.getColumnNames()) {
+				elProc.setVariable(name, batch.getValue(name, row));
+			}
+			if (Boolean.TRUE.equals(elProc.getValue(expression, Boolean.class))) {
+				bits.set(row);
+			}
+		}
+		return bits;
+	}
+}
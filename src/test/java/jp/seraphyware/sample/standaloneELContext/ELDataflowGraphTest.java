@@ -0,0 +1,126 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ELDataflowGraphによる派生値の再計算のテスト.<br>
+ */
+public class ELDataflowGraphTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ELDataflowGraphTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ELDataflowGraphTest.class);
+	}
+
+	/**
+	 * EL式からBeanによるアクセスのテスト用のクラス.
+	 */
+	public static final class MyBean {
+		private int x;
+
+		public int getX() {
+			return x;
+		}
+
+		public void setX(int x) {
+			this.x = x;
+		}
+	}
+
+	public static int twice(int v) {
+		return v * 2;
+	}
+
+	public void testDependencies() throws Exception {
+		SimpleELContext elContext = new SimpleELContext();
+		elContext.defineFunction("my", "twice", getClass().getMethod("twice", int.class));
+		MyBean bean = new MyBean();
+		bean.setX(10);
+		elContext.defineBean("bean", bean);
+		elContext.defineBean("num", Integer.valueOf(1));
+
+		PreparedExpression expr = elContext.prepare("my:twice(bean.x) + num", Integer.class);
+		assertEquals(Integer.valueOf(21), expr.getValue(elContext));
+
+		ELDependencies deps = expr.getDependencies();
+		assertTrue(deps.getIdentifiers().contains("bean"));
+		assertTrue(deps.getIdentifiers().contains("num"));
+		assertTrue(deps.getPaths().contains("bean.x"));
+		assertTrue(deps.getFunctions().contains("my:twice"));
+	}
+
+	public void testPropagation() {
+		SimpleELContext elContext = new SimpleELContext();
+		MyBean bean = new MyBean();
+		bean.setX(10);
+		elContext.defineBean("bean", bean);
+		elContext.defineBean("a", Integer.valueOf(1));
+		elContext.defineBean("b", Integer.valueOf(2));
+
+		ELDataflowGraph graph = new ELDataflowGraph(elContext);
+		final List<String> notified = new ArrayList<String>();
+		graph.addListener(new ELDataflowGraph.Listener() {
+			@Override
+			public void valueChanged(String name, Object oldValue, Object newValue) {
+				notified.add(name + "=" + newValue);
+			}
+		});
+
+		graph.define("sum", "a + bean.x", Integer.class);
+		graph.define("total", "sum * 10", Integer.class);
+		graph.define("other", "b + 1", Integer.class);
+		assertEquals(Integer.valueOf(11), graph.getValue("sum"));
+		assertEquals(Integer.valueOf(110), graph.getValue("total"));
+		assertEquals(Integer.valueOf(110), elContext.getValue("total", Integer.class));
+
+		long count = graph.getRecomputeCount();
+
+		// aに依存するものだけが依存順に再計算される.
+		elContext.defineBean("a", Integer.valueOf(5));
+		assertEquals(Integer.valueOf(15), graph.getValue("sum"));
+		assertEquals(Integer.valueOf(150), graph.getValue("total"));
+		assertEquals(count + 2, graph.getRecomputeCount());
+		assertEquals("[sum=15, total=150]", notified.toString());
+
+		// EL式によるビーンのプロパティの変更も伝搬する.
+		notified.clear();
+		elContext.setValue("bean.x", Integer.valueOf(20));
+		assertEquals("[sum=25, total=250]", notified.toString());
+
+		// EL式の評価中の代入やメソッド呼び出しによる変更も伝搬する.
+		notified.clear();
+		elContext.eval("bean.x = 30");
+		assertEquals("[sum=35, total=350]", notified.toString());
+		notified.clear();
+		elContext.eval("bean.setX(40)");
+		assertEquals("[sum=45, total=450]", notified.toString());
+
+		// 値が変化しなければ下流は再計算されない.
+		notified.clear();
+		count = graph.getRecomputeCount();
+		elContext.defineBean("b", Integer.valueOf(2));
+		assertEquals(count + 1, graph.getRecomputeCount());
+		assertTrue(notified.isEmpty());
+
+		// 派生値を再定義すると、それに依存するものも再計算される.
+		graph.define("sum", "a - bean.x", Integer.class);
+		assertEquals(Integer.valueOf(-350), graph.getValue("total"));
+	}
+}
@@ -0,0 +1,327 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.el.PropertyNotFoundException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ELEvaluationProcessorのテスト.<br>
+ */
+public class ELEvaluationProcessorTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ELEvaluationProcessorTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ELEvaluationProcessorTest.class);
+	}
+
+	/**
+	 * 入力のビーン
+	 */
+	public static final class Record {
+
+		private final int x;
+
+		public Record(int x) {
+			this.x = x;
+		}
+
+		public int getX() {
+			return x;
+		}
+	}
+
+	/**
+	 * リストの要素を要求された数だけ通知する発行者
+	 */
+	private static final class ListPublisher implements ELFlow.Publisher<Object> {
+
+		private final List<?> items;
+
+		private int index;
+
+		private long requested;
+
+		private boolean emitting;
+
+		private boolean cancelled;
+
+		/**
+		 * 要求されて、まだ通知していない数の最大値
+		 */
+		private long maxOutstanding;
+
+		ListPublisher(List<?> items) {
+			this.items = items;
+		}
+
+		@Override
+		public void subscribe(final ELFlow.Subscriber<? super Object> subscriber) {
+			subscriber.onSubscribe(new ELFlow.Subscription() {
+				@Override
+				public void request(long n) {
+					emit(subscriber, n);
+				}
+
+				@Override
+				public void cancel() {
+					synchronized (ListPublisher.this) {
+						cancelled = true;
+					}
+				}
+			});
+		}
+
+		synchronized void emit(ELFlow.Subscriber<? super Object> subscriber,
+				long n) {
+			requested += n;
+			maxOutstanding = Math.max(maxOutstanding, requested);
+			if (emitting) {
+				return;
+			}
+			emitting = true;
+			while (requested > 0 && index < items.size() && !cancelled) {
+				requested--;
+				subscriber.onNext(items.get(index++));
+			}
+			if (index == items.size() && !cancelled) {
+				index++;
+				subscriber.onComplete();
+			}
+			emitting = false;
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		synchronized long getMaxOutstanding() {
+			return maxOutstanding;
+		}
+	}
+
+	/**
+	 * 一定数ずつ要求して結果を集める購読者
+	 */
+	private static final class CollectingSubscriber implements
+			ELFlow.Subscriber<Map<String, Object>> {
+
+		private final int batch;
+
+		private final int cancelAfter;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private final List<Map<String, Object>> results = Collections
+				.synchronizedList(new ArrayList<Map<String, Object>>());
+
+		private ELFlow.Subscription subscription;
+
+		private volatile long outstanding;
+
+		private volatile boolean overflow;
+
+		private volatile Throwable error;
+
+		private volatile boolean completed;
+
+		CollectingSubscriber(int batch, int cancelAfter) {
+			this.batch = batch;
+			this.cancelAfter = cancelAfter;
+		}
+
+		@Override
+		public void onSubscribe(ELFlow.Subscription subscription) {
+			this.subscription = subscription;
+			outstanding = batch;
+			subscription.request(batch);
+		}
+
+		@Override
+		public void onNext(Map<String, Object> item) {
+			if (--outstanding < 0) {
+				overflow = true;
+			}
+			results.add(item);
+			if (results.size() == cancelAfter) {
+				subscription.cancel();
+				done.countDown();
+				return;
+			}
+			if (outstanding == 0) {
+				outstanding = batch;
+				subscription.request(batch);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	private static List<Object> createRecords(int count) {
+		List<Object> records = new ArrayList<Object>();
+		for (int idx = 0; idx < count; idx++) {
+			records.add(new Record(idx));
+		}
+		return records;
+	}
+
+	private static Map<String, String> createExpressions() {
+		Map<String, String> expressions = new LinkedHashMap<String, String>();
+		expressions.put("twice", "item.x * 2");
+		expressions.put("odd", "item.x % 2 == 1");
+		return expressions;
+	}
+
+	/**
+	 * 返却されたコンテキストの数が指定した数になるまで待つ.
+	 */
+	private static void awaitIdle(SimpleELContextPool pool, int count)
+			throws InterruptedException {
+		for (int loop = 0; loop < 100 && pool.getIdleCount() < count; loop++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, pool.getIdleCount());
+	}
+
+	public void testOrdered() throws Exception {
+		ExecutorService executor = ELAsyncEvaluator.newTaskExecutor();
+		try {
+			SimpleELContextPool pool = new SimpleELContextPool(8);
+			ELEvaluationProcessor processor = new ELEvaluationProcessor("item",
+					createExpressions(), pool, executor, 4);
+			ListPublisher publisher = new ListPublisher(createRecords(1000));
+			CollectingSubscriber subscriber = new CollectingSubscriber(7, -1);
+			processor.subscribe(subscriber);
+			publisher.subscribe(processor);
+			subscriber.await();
+
+			assertTrue(subscriber.completed);
+			assertFalse(subscriber.overflow);
+			assertEquals(1000, subscriber.results.size());
+			for (int idx = 0; idx < 1000; idx++) {
+				Map<String, Object> result = subscriber.results.get(idx);
+				assertEquals(Long.valueOf(idx * 2), result.get("twice"));
+				assertEquals(Boolean.valueOf(idx % 2 == 1), result.get("odd"));
+			}
+
+			// 上流には下流の要求と並列度に応じた数までしか要求しない.
+			assertTrue(publisher.getMaxOutstanding() <= 7);
+			// コンテキストはワーカーごとに使い回され、終了時に返却される.
+			assertTrue(processor.getWorkerCount() <= 4);
+			awaitIdle(pool, processor.getWorkerCount());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testUnordered() throws Exception {
+		ExecutorService executor = ELAsyncEvaluator.newTaskExecutor();
+		try {
+			SimpleELContextPool pool = new SimpleELContextPool(8);
+			ELEvaluationProcessor processor = new ELEvaluationProcessor("item",
+					createExpressions(), pool, executor, 3, false);
+			ListPublisher publisher = new ListPublisher(createRecords(500));
+			CollectingSubscriber subscriber = new CollectingSubscriber(100, -1);
+			processor.subscribe(subscriber);
+			publisher.subscribe(processor);
+			subscriber.await();
+
+			assertTrue(subscriber.completed);
+			assertFalse(subscriber.overflow);
+			List<Long> values = new ArrayList<Long>();
+			for (Map<String, Object> result : subscriber.results) {
+				values.add((Long) result.get("twice"));
+			}
+			Collections.sort(values);
+			for (int idx = 0; idx < 500; idx++) {
+				assertEquals(Long.valueOf(idx * 2), values.get(idx));
+			}
+			assertTrue(publisher.getMaxOutstanding() <= 6);
+			awaitIdle(pool, processor.getWorkerCount());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testErrorAndCancel() throws Exception {
+		ExecutorService executor = ELAsyncEvaluator.newTaskExecutor();
+		try {
+			// 評価の例外は下流に通知され、上流は取り消される.
+			SimpleELContextPool pool = new SimpleELContextPool(8);
+			Map<String, String> expressions = createExpressions();
+			expressions.put("missing", "item.x > 50 ? item.missing : 0");
+			ELEvaluationProcessor processor = new ELEvaluationProcessor("item",
+					expressions, pool, executor, 2);
+			ListPublisher publisher = new ListPublisher(createRecords(100));
+			CollectingSubscriber subscriber = new CollectingSubscriber(10, -1);
+			processor.subscribe(subscriber);
+			publisher.subscribe(processor);
+			subscriber.await();
+
+			assertTrue(subscriber.error instanceof PropertyNotFoundException);
+			assertFalse(subscriber.completed);
+			assertTrue(subscriber.results.size() <= 51);
+			assertTrue(publisher.isCancelled());
+			awaitIdle(pool, processor.getWorkerCount());
+
+			// 下流から取り消すと上流も取り消される.
+			processor = new ELEvaluationProcessor("item", createExpressions(),
+					pool, executor, 2);
+			publisher = new ListPublisher(createRecords(100));
+			subscriber = new CollectingSubscriber(4, 10);
+			processor.subscribe(subscriber);
+			publisher.subscribe(processor);
+			subscriber.await();
+
+			assertEquals(10, subscriber.results.size());
+			assertTrue(publisher.isCancelled());
+
+			// 2つ目の購読者は受け付けない.
+			CollectingSubscriber second = new CollectingSubscriber(1, -1);
+			processor.subscribe(second);
+			second.await();
+			assertTrue(second.error instanceof IllegalStateException);
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ELRuleSet, ELRuleNetworkおよびPreparedExpressionによるプロパティの共有のテスト.<br>
+ */
+public class ELRuleSetTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ELRuleSetTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ELRuleSetTest.class);
+	}
+
+	/**
+	 * getterの呼び出し回数を数えるビーン
+	 */
+	public static final class CountingBean {
+		private int x = 100;
+		private int y = 200;
+		private int count;
+
+		public int getX() {
+			count++;
+			return x;
+		}
+
+		public int getY() {
+			count++;
+			return y;
+		}
+
+		public void setX(int x) {
+			this.x = x;
+		}
+	}
+
+	public void testPreparedExpression() {
+		SimpleELContext elContext = new SimpleELContext();
+		CountingBean bean = new CountingBean();
+		elContext.defineBean("bean", bean);
+
+		PreparedExpression expr = elContext.prepare("bean.x - bean.y - bean.x", Integer.class);
+		expr.setSubexpressionSharing(true);
+
+		assertEquals(Integer.valueOf(-200), expr.getValue(elContext));
+		assertEquals(2, bean.count);
+		assertTrue(expr.getDependencies().getRepeatedPaths().contains("bean.x"));
+
+		bean.count = 0;
+		assertEquals(Integer.valueOf(-200), expr.getValue(elContext));
+		assertEquals(2, bean.count);
+
+		// 共有しない場合は参照のたびに解決される.
+		expr.setSubexpressionSharing(false);
+		bean.count = 0;
+		assertEquals(Integer.valueOf(-200), expr.getValue(elContext));
+		assertEquals(3, bean.count);
+	}
+
+	public void testRuleSet() {
+		SimpleELContext elContext = new SimpleELContext();
+		CountingBean bean = new CountingBean();
+		elContext.defineBean("bean", bean);
+
+		ELRuleSet ruleSet = new ELRuleSet();
+		ruleSet.add("r1", "bean.x > 10", Boolean.class);
+		ruleSet.add("r2", "bean.x - bean.y", Integer.class);
+		ruleSet.add("r3", "bean.y > 1000", Boolean.class);
+
+		for (int loop = 0; loop < 3; loop++) {
+			bean.count = 0;
+			Map<String, Object> results = ruleSet.evaluate(elContext);
+			assertEquals(Boolean.TRUE, results.get("r1"));
+			assertEquals(Integer.valueOf(-100), results.get("r2"));
+			assertEquals(Boolean.FALSE, results.get("r3"));
+			assertEquals(2, bean.count);
+		}
+		assertTrue(ruleSet.getSharedPaths().contains("bean.x"));
+		assertTrue(ruleSet.getSharedPaths().contains("bean.y"));
+
+		// 評価パスごとに解決し直される.
+		bean.setX(5);
+		Map<String, Object> results = ruleSet.evaluate(elContext);
+		assertEquals(Boolean.FALSE, results.get("r1"));
+		assertEquals(Integer.valueOf(-195), results.get("r2"));
+	}
+
+	public void testSplitConjuncts() {
+		assertEquals(Arrays.asList("a > 1", "b.c == 'x && y'", "f(p && q)"),
+				ELRuleNetwork.splitConjuncts(" a  > 1 && b.c == 'x && y' and f(p && q)"));
+		// ||や?:を含む場合は分解しない.
+		assertEquals(Arrays.asList("a && b || c"),
+				ELRuleNetwork.splitConjuncts("a && b || c"));
+		assertEquals(Arrays.asList("a && b ? c : d"),
+				ELRuleNetwork.splitConjuncts("a && b ? c : d"));
+		assertEquals(Arrays.asList("brand", "x >= 1"),
+				ELRuleNetwork.splitConjuncts("brand && x >= 1"));
+
+		assertEquals("event.type",
+				ELRuleNetwork.parseEquality("event.type == 'X'")[0]);
+		assertEquals(Long.valueOf(3), ELRuleNetwork.parseEquality("3 eq code")[2]);
+		assertNull(ELRuleNetwork.parseEquality("event.type != 'X'"));
+		assertNull(ELRuleNetwork.parseEquality("event.type == other"));
+	}
+
+	public void testRuleNetwork() {
+		ELRuleNetwork network = new ELRuleNetwork();
+		ELRuleSet naive = new ELRuleSet();
+		for (int idx = 0; idx < 1000; idx++) {
+			String rule = "event.type == 'T" + (idx % 100) + "' && event.amount > "
+					+ (idx % 10);
+			network.add("r" + idx, rule);
+			naive.add("r" + idx, rule, Boolean.class);
+		}
+		String[] others = { "event.amount > 5 || event.type == 'X'",
+				"event.code == 3 && event.amount > 1", "'T7' eq event.type" };
+		for (int idx = 0; idx < others.length; idx++) {
+			network.add("o" + idx, others[idx]);
+			naive.add("o" + idx, others[idx], Boolean.class);
+		}
+		assertEquals(1002, network.getIndexedRuleCount());
+
+		Map<String, Object> event = new HashMap<String, Object>();
+		SimpleELContext elContext = new SimpleELContext();
+		elContext.defineBean("event", event);
+		for (int loop = 0; loop < 3; loop++) {
+			event.put("type", "T" + (loop * 7));
+			event.put("amount", Integer.valueOf(loop * 3 + 2));
+			event.put("code", loop == 1 ? (Object) Double.valueOf(3) : Long.valueOf(3));
+			elContext.touch("event");
+
+			Set<String> expected = new LinkedHashSet<String>();
+			for (Map.Entry<String, Object> entry : naive.evaluate(elContext)
+					.entrySet()) {
+				if (Boolean.TRUE.equals(entry.getValue())) {
+					expected.add(entry.getKey());
+				}
+			}
+			assertEquals(expected, network.evaluate(elContext));
+			// 振り分け表で選ばれたルールだけが評価される.
+			assertTrue(network.getLastCandidateCount() <= 13);
+			assertTrue(network.getLastConjunctEvaluations() <= 13);
+		}
+	}
+}
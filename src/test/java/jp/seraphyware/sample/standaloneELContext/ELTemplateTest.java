@@ -0,0 +1,107 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ELTemplateの差分描画のテスト.<br>
+ */
+public class ELTemplateTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ELTemplateTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ELTemplateTest.class);
+	}
+
+	public void testRender() {
+		SimpleELContext elContext = new SimpleELContext();
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("key1", "VAL1");
+		elContext.defineBean("map", map);
+		elContext.defineBean("num", Integer.valueOf(10));
+		elContext.defineBean("str", "abc");
+
+		ELTemplate template = new ELTemplate("A:${num + 1}/B:${map.key1}/C:${str}/\\${str}");
+
+		{
+			// 初回は全体が変化したものとする.
+			ELTemplate.RenderResult result = template.render(elContext);
+			assertEquals("A:11/B:VAL1/C:abc/${str}", result.getText());
+			assertEquals(3, result.getEvaluatedCount());
+			assertEquals(1, result.getChangedRanges().size());
+			assertEquals(new ELTemplate.Range(0, 24), result.getChangedRanges().get(0));
+		}
+
+		{
+			// 変更がなければ何も評価されない.
+			ELTemplate.RenderResult result = template.render(elContext);
+			assertEquals("A:11/B:VAL1/C:abc/${str}", result.getText());
+			assertEquals(0, result.getEvaluatedCount());
+			assertFalse(result.isChanged());
+		}
+
+		{
+			// 変更したビーンを参照している式のみ評価される.
+			elContext.defineBean("num", Integer.valueOf(100));
+			ELTemplate.RenderResult result = template.render(elContext);
+			assertEquals("A:101/B:VAL1/C:abc/${str}", result.getText());
+			assertEquals(1, result.getEvaluatedCount());
+			assertEquals(1, result.getChangedRanges().size());
+			assertEquals(new ELTemplate.Range(2, 5), result.getChangedRanges().get(0));
+		}
+
+		{
+			// マップを直接変更した場合はtouchで通知する.
+			map.put("key1", "VALUE1");
+			elContext.touch("map");
+			ELTemplate.RenderResult result = template.render(elContext);
+			assertEquals("A:101/B:VALUE1/C:abc/${str}", result.getText());
+			assertEquals(1, result.getEvaluatedCount());
+			assertEquals(new ELTemplate.Range(8, 14), result.getChangedRanges().get(0));
+		}
+
+		{
+			// EL式による代入も変更として検出される.
+			elContext.setValue("map.key1", "V1");
+			elContext.setValue("str", "xyz");
+			ELTemplate.RenderResult result = template.render(elContext);
+			assertEquals("A:101/B:V1/C:xyz/${str}", result.getText());
+			assertEquals(2, result.getEvaluatedCount());
+			assertEquals(2, result.getChangedRanges().size());
+			assertEquals(new ELTemplate.Range(8, 10), result.getChangedRanges().get(0));
+			assertEquals(new ELTemplate.Range(13, 16), result.getChangedRanges().get(1));
+		}
+	}
+
+	public void testVariable() {
+		SimpleELContext elContext = new SimpleELContext();
+		elContext.setVariable("v1", "foo");
+
+		ELTemplate template = new ELTemplate("[${v1}]");
+		assertEquals("[foo]", template.render(elContext).getText());
+		assertFalse(template.render(elContext).isChanged());
+
+		// 変数が差し替えられた場合は式が作り直される.
+		elContext.setVariable("v1", "bar");
+		ELTemplate.RenderResult result = template.render(elContext);
+		assertEquals("[bar]", result.getText());
+		assertEquals(new ELTemplate.Range(1, 4), result.getChangedRanges().get(0));
+	}
+}
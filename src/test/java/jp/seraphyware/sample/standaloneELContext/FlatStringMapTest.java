@@ -0,0 +1,124 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * FlatStringMapのテスト.<br>
+ */
+public class FlatStringMapTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public FlatStringMapTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(FlatStringMapTest.class);
+	}
+
+	public void testBasic() {
+		FlatStringMap<Object> map = new FlatStringMap<Object>();
+		assertTrue(map.isEmpty());
+		assertNull(map.put("a", Integer.valueOf(1)));
+		assertNull(map.put("b", null));
+		assertEquals(Integer.valueOf(1), map.put("a", Integer.valueOf(2)));
+		assertEquals(2, map.size());
+
+		assertEquals(Integer.valueOf(2), map.get("a"));
+		assertTrue(map.containsKey("b"));
+		assertNull(map.get("b"));
+		assertFalse(map.containsKey("c"));
+		assertFalse(map.containsKey(Integer.valueOf(1)));
+		assertSame("x", map.getOrDefault("c", "x"));
+		assertNull(map.getOrDefault("b", "x"));
+
+		// 変更されるとバージョンが変わる.
+		long version = map.getVersion();
+		map.get("a");
+		assertEquals(version, map.getVersion());
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			if (entry.getKey().equals("b")) {
+				entry.setValue("v");
+			}
+		}
+		assertTrue(version < map.getVersion());
+		assertEquals("v", map.get("b"));
+
+		assertEquals(Integer.valueOf(2), map.remove("a"));
+		assertNull(map.remove("a"));
+		assertEquals(1, map.size());
+
+		try {
+			map.put(null, "x");
+			assertTrue(false);
+
+		} catch (NullPointerException ex) {
+			assertTrue(true);
+		}
+	}
+
+	/**
+	 * HashMapと同じ結果になることを確認する.
+	 */
+	public void testRandom() throws Exception {
+		FlatStringMap<Integer> map = new FlatStringMap<Integer>(0);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		Random rnd = new Random(12345);
+		for (int loop = 0; loop < 20000; loop++) {
+			String key = "k" + rnd.nextInt(500);
+			switch (rnd.nextInt(3)) {
+			case 0:
+				assertEquals(expected.put(key, Integer.valueOf(loop)),
+						map.put(key, Integer.valueOf(loop)));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		assertEquals(expected, map);
+		assertEquals(expected.hashCode(), map.hashCode());
+
+		// イテレータで削除する.
+		Iterator<Map.Entry<String, Integer>> ite = map.entrySet().iterator();
+		while (ite.hasNext()) {
+			Map.Entry<String, Integer> entry = ite.next();
+			if (entry.getValue().intValue() % 2 == 0) {
+				ite.remove();
+				expected.remove(entry.getKey());
+			}
+		}
+		assertEquals(expected, map);
+
+		// シリアライズできる.
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(map);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+				bos.toByteArray()));
+		assertEquals(expected, ois.readObject());
+	}
+}
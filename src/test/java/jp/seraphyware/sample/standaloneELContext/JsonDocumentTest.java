@@ -0,0 +1,117 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.PropertyNotWritableException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * JsonDocumentとJsonELResolverのテスト.<br>
+ */
+public class JsonDocumentTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public JsonDocumentTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(JsonDocumentTest.class);
+	}
+
+	public void testParse() {
+		JsonDocument doc = JsonDocument.parse(" {\"name\": \"a\\\"b\\u0041\", \"n\": -12,"
+				+ " \"d\": 1.5e1, \"big\": 123456789012345678901,"
+				+ " \"flags\": [true, false, null], \"empty\": {}, \"none\": [] } ");
+		assertEquals(0, doc.getMaterializedCount());
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> root = (Map<String, Object>) doc.getRoot();
+		assertEquals(7, root.size());
+		assertEquals("a\"bA", root.get("name"));
+		assertEquals(Long.valueOf(-12), root.get("n"));
+		assertEquals(Double.valueOf(15), root.get("d"));
+		assertEquals(new BigInteger("123456789012345678901"), root.get("big"));
+		assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE, null),
+				root.get("flags"));
+		assertTrue(((Map<?, ?>) root.get("empty")).isEmpty());
+		assertTrue(((List<?>) root.get("none")).isEmpty());
+		assertNull(root.get("unknown"));
+		assertTrue(root.containsKey("name"));
+
+		// 同じ値は一度だけ実体化される.
+		assertSame(root.get("name"), root.get("name"));
+
+		// Mapとして比較できる.
+		Map<String, Object> copy = new HashMap<String, Object>(root);
+		assertEquals(copy, root);
+
+		String[] invalids = { "", "{", "[1,]", "{\"a\" 1}", "[1] 2", "tru",
+				"{\"a\":1,}", "\"abc", "01", "[1.2.3]", "[1-]", "[-e]", "[-]",
+				"[1.]", "[.5]", "[1e]", "[1e+]", "[\"\\x\"]", "[\"\\u12\"]",
+				"[\"\\u12g4\"]", "[\"\\" };
+		for (String invalid : invalids) {
+			try {
+				JsonDocument.parse(invalid);
+				assertTrue(invalid, false);
+
+			} catch (IllegalArgumentException ex) {
+				assertTrue(true);
+			}
+		}
+	}
+
+	public void testResolver() {
+		StringBuilder json = new StringBuilder("{\"items\": [");
+		for (int idx = 0; idx < 100; idx++) {
+			if (idx > 0) {
+				json.append(',');
+			}
+			json.append("{\"id\": ").append(idx).append(", \"price\": ")
+					.append(idx * 10).append(", \"tags\": [\"t").append(idx)
+					.append("\"]}");
+		}
+		json.append("], \"total\": 100}");
+		JsonDocument doc = JsonDocument.parse(json.toString().getBytes());
+
+		SimpleELContext elProc = new SimpleELContext();
+		elProc.addELResolver(new JsonELResolver());
+		elProc.defineBean("doc", doc);
+
+		assertEquals(Integer.valueOf(100),
+				elProc.getValue("doc.total", Integer.class));
+		assertEquals("t42", elProc.getValue("doc.items[42].tags[0]", String.class));
+		assertEquals(Boolean.TRUE,
+				elProc.getValue("doc.items[5].price > 40", Boolean.class));
+		assertNull(elProc.eval("doc.items[1000]"));
+		assertNull(elProc.eval("doc.unknown"));
+
+		// 参照された値だけが実体化される.
+		int materialized = doc.getMaterializedCount();
+		assertTrue(materialized < 20);
+		assertTrue(doc.getTapeSize() > 500);
+
+		try {
+			elProc.setValue("doc.total", Integer.valueOf(1));
+			assertTrue(false);
+
+		} catch (PropertyNotWritableException ex) {
+			assertTrue(true);
+		}
+	}
+}
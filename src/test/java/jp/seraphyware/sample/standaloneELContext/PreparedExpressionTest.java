@@ -0,0 +1,490 @@
+package jp.seraphyware.sample.standaloneELContext;
+
+import java.awt.Color;
+import java.beans.FeatureDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.el.ELResolver;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * PreparedExpressionの定数の畳み込みのテスト.<br>
+ */
+public class PreparedExpressionTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public PreparedExpressionTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(PreparedExpressionTest.class);
+	}
+
+	/**
+	 * 呼び出し回数を数えるだけで何も解決しないELResolver
+	 */
+	private static final class CountingELResolver extends ELResolver {
+
+		private int count;
+
+		@Override
+		public Object getValue(ELContext context, Object base, Object property) {
+			count++;
+			return null;
+		}
+
+		@Override
+		public Class<?> getType(ELContext context, Object base, Object property) {
+			return null;
+		}
+
+		@Override
+		public void setValue(ELContext context, Object base, Object property,
+				Object value) {
+		}
+
+		@Override
+		public boolean isReadOnly(ELContext context, Object base, Object property) {
+			return false;
+		}
+
+		@Override
+		public Iterator<FeatureDescriptor> getFeatureDescriptors(
+				ELContext context, Object base) {
+			return null;
+		}
+
+		@Override
+		public Class<?> getCommonPropertyType(ELContext context, Object base) {
+			return null;
+		}
+	}
+
+	/**
+	 * staticフィールドのテスト用のクラス
+	 */
+	public static final class Holder {
+
+		public static final String CONST = "CONST";
+
+		public static String mutable = "mutable";
+	}
+
+	/**
+	 * インラインキャッシュのテスト用のビーン
+	 */
+	public static class Point {
+
+		private final int x;
+
+		public Point(int x) {
+			this.x = x;
+		}
+
+		public int getX() {
+			return x;
+		}
+	}
+
+	public void testInlineCache() {
+		SimpleELContext elContext = new SimpleELContext();
+		CountingELResolver counter = new CountingELResolver();
+		elContext.addELResolver(counter);
+		elContext.addELResolver(new ClassELResolver());
+
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		map.put("k", Integer.valueOf(10));
+		elContext.defineBean("bean", new Point(1));
+		elContext.defineBean("map", map);
+		elContext.defineBean("list", Arrays.asList(Integer.valueOf(100),
+				Integer.valueOf(200)));
+		elContext.defineBean("arr", new int[] { 1000 });
+
+		PreparedExpression expr = elContext.prepare(
+				"bean.x + map.k + list[1] + arr[0] + Class['java.awt.Color'].red.red",
+				Integer.class);
+		expr.setInlineCacheSize(2);
+		assertEquals(Integer.valueOf(1211 + 255), expr.getValue(elContext));
+		assertEquals(0, expr.getInlineCacheHitCount());
+
+		// 2回目以降は、"Class"要素とクラス名以外はカスタムELResolverまで探索されない.
+		int cnt = counter.count;
+		elContext.defineBean("bean", new Point(2));
+		assertEquals(Integer.valueOf(1212 + 255), expr.getValue(elContext));
+		assertEquals(2, counter.count - cnt);
+		assertEquals(6, expr.getInlineCacheHitCount());
+
+		// 上限を超えるクラスが現れた参照はキャッシュしない.
+		PreparedExpression expr2 = elContext.prepare("bean.x", Integer.class);
+		expr2.setInlineCacheSize(2);
+		// 2つのクラスまではキャッシュされ、3つ目のクラスが現れた時点でキャッシュしなくなる.
+		Object[] beans = { new Point(1), new Point(2), new Point(3) {},
+				new Point(4) {} };
+		for (int loop = 0; loop < 2; loop++) {
+			for (Object bean : beans) {
+				elContext.defineBean("bean", bean);
+				assertEquals(Integer.valueOf(((Point) bean).getX()),
+						expr2.getValue(elContext));
+			}
+		}
+		assertEquals(1, expr2.getInlineCacheHitCount());
+
+		// カスタムELResolverが解決するビーンのプロパティはgetterで置き換えない.
+		SimpleELContext jsonContext = new SimpleELContext();
+		jsonContext.addELResolver(new JsonELResolver());
+		jsonContext.defineBean("doc",
+				JsonDocument.parse("{\"tapeSize\":\"json-value\"}"));
+		PreparedExpression expr3 = jsonContext.prepare("doc.tapeSize",
+				Object.class);
+		expr3.setInlineCacheSize(2);
+		for (int loop = 0; loop < 3; loop++) {
+			jsonContext.touch("doc");
+			assertEquals("json-value", expr3.getValue(jsonContext));
+		}
+		assertEquals(0, expr3.getInlineCacheHitCount());
+	}
+
+	public void testConstantFolding() {
+		SimpleELContext elContext = new SimpleELContext();
+		CountingELResolver counter = new CountingELResolver();
+		elContext.addELResolver(counter);
+		elContext.addELResolver(new ClassELResolver());
+		elContext.defineBean("num", Integer.valueOf(10));
+
+		{
+			// リテラルの演算
+			PreparedExpression expr = elContext.prepare("1 + 2 * 3", Integer.class);
+			assertEquals(Integer.valueOf(7), expr.getValue(elContext));
+			assertTrue(expr.isConstant());
+			assertFalse(expr.isModified(elContext));
+		}
+
+		{
+			// 文字列結合
+			PreparedExpression expr = elContext.prepare("'a' += 'b'", String.class);
+			assertEquals("ab", expr.getValue(elContext));
+			assertTrue(expr.isConstant());
+		}
+
+		{
+			// static finalフィールドは畳み込まれ、以降はELResolverが呼び出されない.
+			PreparedExpression expr = elContext.prepare("Class['java.awt.Color'].red", Object.class);
+			assertEquals(Color.red, expr.getValue(elContext));
+			assertTrue(expr.isConstant());
+
+			int count = counter.count;
+			assertEquals(Color.red, expr.getValue(elContext));
+			assertEquals(count, counter.count);
+		}
+
+		{
+			String clsName = Holder.class.getName();
+			PreparedExpression expr1 = elContext.prepare("Class['" + clsName + "'].CONST", String.class);
+			assertEquals("CONST", expr1.getValue(elContext));
+			assertTrue(expr1.isConstant());
+
+			// finalでないフィールドは畳み込まない.
+			PreparedExpression expr2 = elContext.prepare("Class['" + clsName + "'].mutable", String.class);
+			assertEquals("mutable", expr2.getValue(elContext));
+			assertFalse(expr2.isConstant());
+		}
+
+		{
+			// ビーンを参照するものは畳み込まない.
+			PreparedExpression expr = elContext.prepare("num + 1", Integer.class);
+			assertEquals(Integer.valueOf(11), expr.getValue(elContext));
+			assertFalse(expr.isConstant());
+			elContext.defineBean("num", Integer.valueOf(20));
+			assertEquals(Integer.valueOf(21), expr.getValue(elContext));
+		}
+
+		{
+			// 評価のたびに作成される可変なオブジェクトは畳み込まない.
+			PreparedExpression expr = elContext.prepare("[1, 2, 3]", Object.class);
+			assertNotSame(expr.getValue(elContext), expr.getValue(elContext));
+			assertFalse(expr.isConstant());
+		}
+
+		{
+			// 畳み込みを無効にした場合
+			PreparedExpression expr = elContext.prepare("1 + 2", Integer.class);
+			expr.setConstantFolding(false);
+			assertEquals(Integer.valueOf(3), expr.getValue(elContext));
+			assertFalse(expr.isConstant());
+		}
+	}
+
+	/**
+	 * 時間のかかる関数
+	 */
+	public static boolean slow(int x) {
+		slowCount++;
+		double sum = 0;
+		for (int idx = 0; idx < 200000; idx++) {
+			sum += Math.sqrt(idx + x);
+		}
+		return sum > 0 && x > 90;
+	}
+
+	private static int slowCount;
+
+	/**
+	 * 待機する関数
+	 */
+	public static boolean sleepy(int x) throws InterruptedException {
+		Thread.sleep(3);
+		return x > 90;
+	}
+
+	/**
+	 * 0で例外となる関数
+	 */
+	public static int inverse(int y) {
+		return 100 / y;
+	}
+
+	/**
+	 * 比較のためのビーン
+	 */
+	public static final class XY {
+		private int x;
+		private int y;
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+	}
+
+	public void testAdaptivePredicate() throws Exception {
+		assertTrue(AdaptivePredicate.isPure("a.b > 1 && not(empty c)",
+				new HashSet<String>()));
+		assertFalse(AdaptivePredicate.isPure("fn:slow(a) == 1",
+				new HashSet<String>()));
+		assertTrue(AdaptivePredicate.isPure("fn:slow(a) == 1",
+				new HashSet<String>(Arrays.asList("fn:slow"))));
+		assertFalse(AdaptivePredicate.isPure("a.run() == 1",
+				new HashSet<String>()));
+		assertFalse(AdaptivePredicate.isPure("(a = 1) > 0",
+				new HashSet<String>()));
+		assertTrue(AdaptivePredicate.isPure("a += 'x' != 'y' && a <= 2",
+				new HashSet<String>()));
+		assertFalse(AdaptivePredicate.isPure("list['clear']() == null",
+				new HashSet<String>()));
+		assertFalse(AdaptivePredicate.isPure("fn:get(a) ( ) == null",
+				new HashSet<String>(Arrays.asList("fn:get"))));
+		assertTrue(AdaptivePredicate.isPure("list['size'] + (1) > 0",
+				new HashSet<String>()));
+
+		// 括弧で呼び出すメソッドを含む項は、安価でも前に移動しない.
+		{
+			SimpleELContext listContext = new SimpleELContext();
+			listContext.defineFunction("fn", "slow",
+					PreparedExpressionTest.class.getMethod("slow", int.class));
+			List<String> list = new ArrayList<String>(Arrays.asList("a"));
+			listContext.defineBean("list", list);
+			listContext.defineBean("n", Integer.valueOf(0));
+			AdaptivePredicate pred = new AdaptivePredicate(
+					"fn:slow(n) && list['clear']() == null",
+					new HashSet<String>(Arrays.asList("fn:slow")));
+			pred.setAdaptInterval(10);
+			for (int loop = 0; loop < 30; loop++) {
+				assertFalse(pred.test(listContext));
+			}
+			assertEquals(Arrays.asList("fn:slow(n)", "list['clear']() == null"),
+					pred.getConjuncts());
+			assertEquals(1, list.size());
+		}
+
+		SimpleELContext elContext = new SimpleELContext();
+		elContext.defineFunction("fn", "slow",
+				PreparedExpressionTest.class.getMethod("slow", int.class));
+		elContext.defineFunction("fn", "inverse",
+				PreparedExpressionTest.class.getMethod("inverse", int.class));
+		XY bean = new XY();
+		elContext.defineBean("bean", bean);
+
+		// 純粋と宣言された関数は、安価で選択的な比較の後ろに回される.
+		AdaptivePredicate pred = new AdaptivePredicate(
+				"fn:slow(bean.x) && bean.x % 10 == 0",
+				new HashSet<String>(Arrays.asList("fn:slow")));
+		pred.setAdaptInterval(100);
+		AdaptivePredicate fixed = new AdaptivePredicate(
+				"fn:slow(bean.x) && bean.x % 10 == 0");
+		fixed.setAdaptInterval(100);
+		for (int loop = 0; loop < 500; loop++) {
+			bean.x = loop % 100;
+			elContext.touch("bean");
+			boolean expected = bean.x > 90 && bean.x % 10 == 0;
+			assertEquals(expected, pred.test(elContext));
+			assertEquals(expected, fixed.test(elContext));
+		}
+		assertEquals(Arrays.asList("bean.x % 10 == 0", "fn:slow(bean.x)"),
+				pred.getConjuncts());
+		assertEquals(Arrays.asList("fn:slow(bean.x)", "bean.x % 10 == 0"),
+				fixed.getConjuncts());
+		slowCount = 0;
+		for (int loop = 0; loop < 100; loop++) {
+			bean.x = loop;
+			elContext.touch("bean");
+			pred.test(elContext);
+		}
+		assertEquals(10, slowCount);
+
+		// 入れ替えた順序で例外となる場合は、元の式で評価し直し、以降は入れ替えない.
+		elContext.defineFunction("fn", "sleepy",
+				PreparedExpressionTest.class.getMethod("sleepy", int.class));
+		pred = new AdaptivePredicate("fn:sleepy(bean.x) && fn:inverse(bean.y) > 1",
+				new HashSet<String>(Arrays.asList("fn:sleepy", "fn:inverse")));
+		pred.setAdaptInterval(100);
+		for (int loop = 0; loop < 200; loop++) {
+			bean.x = loop % 100;
+			bean.y = bean.x > 95 ? 1 : (bean.x > 90 ? 200 : 0);
+			elContext.touch("bean");
+			assertEquals(bean.x > 95, pred.test(elContext));
+		}
+		assertEquals(Arrays.asList("fn:sleepy(bean.x)", "fn:inverse(bean.y) > 1"),
+				pred.getConjuncts());
+		assertEquals(1, pred.getFallbackCount());
+	}
+
+	private static int countedCount;
+
+	/**
+	 * 呼び出し回数を数える関数
+	 */
+	public static int counted(int x) {
+		countedCount++;
+		return x * 10;
+	}
+
+	public void testMemoTable() throws Exception {
+		ELMemoTable table = new ELMemoTable(3);
+		SimpleELContext elContext = new SimpleELContext();
+		elContext.defineFunction("fn", "counted",
+				PreparedExpressionTest.class.getMethod("counted", int.class));
+		elContext.defineBean("tier", new Point(3));
+		elContext.setVariable("qty", Integer.valueOf(5));
+
+		PreparedExpression expr = elContext.prepare("fn:counted(tier.x) * qty",
+				Integer.class);
+		expr.setMemoTable(table);
+		countedCount = 0;
+		assertEquals(Integer.valueOf(150), expr.getValue(elContext));
+		assertEquals(Integer.valueOf(150), expr.getValue(elContext));
+		assertEquals(1, countedCount);
+		assertEquals(1, table.getHitCount());
+		assertEquals(1, table.getMissCount());
+
+		// コンテキストのAPIで変更されると再評価される.
+		elContext.setVariable("qty", Integer.valueOf(6));
+		assertEquals(Integer.valueOf(180), expr.getValue(elContext));
+		assertEquals(2, countedCount);
+		elContext.defineBean("tier", new Point(4));
+		assertEquals(Integer.valueOf(240), expr.getValue(elContext));
+		elContext.touch("tier");
+		assertEquals(Integer.valueOf(240), expr.getValue(elContext));
+		assertEquals(Integer.valueOf(240), expr.getValue(elContext));
+		assertEquals(4, countedCount);
+		assertEquals(3, table.size());
+
+		// 別のコンテキストの結果は区別され、上限を超えると古いものから破棄される.
+		SimpleELContext elContext2 = new SimpleELContext();
+		elContext2.defineFunction("fn", "counted",
+				PreparedExpressionTest.class.getMethod("counted", int.class));
+		elContext2.defineBean("tier", new Point(1));
+		elContext2.setVariable("qty", Integer.valueOf(1));
+		assertEquals(Integer.valueOf(10), expr.getValue(elContext2));
+		assertEquals(Integer.valueOf(240), expr.getValue(elContext));
+		assertEquals(Integer.valueOf(10), expr.getValue(elContext2));
+		assertEquals(5, countedCount);
+		assertEquals(3, table.size());
+		assertEquals(2, table.getEvictionCount());
+
+		// 同じ表を共有する式
+		PreparedExpression expr2 = elContext.prepare("tier.x + qty",
+				Integer.class);
+		expr2.setMemoTable(table);
+		assertEquals(Integer.valueOf(10), expr2.getValue(elContext));
+		assertEquals(Integer.valueOf(10), expr2.getValue(elContext));
+		assertEquals(5, table.getHitCount());
+
+		// メソッド呼び出しを含む評価は記憶しない.
+		PreparedExpression expr3 = elContext.prepare("tier.toString()",
+				String.class);
+		expr3.setMemoTable(table);
+		expr3.getValue(elContext);
+		expr3.getValue(elContext);
+		assertEquals(5, table.getHitCount());
+		assertEquals(8, table.getMissCount());
+		assertEquals(5 / 13d, table.getHitRate(), 1e-9);
+
+		// エポックの範囲のビーンとメモ化された変数は、新しいエポックで再評価される.
+		table = new ELMemoTable(16);
+		expr2.setMemoTable(table);
+		expr2.getValue(elContext);
+		final int[] ticks = new int[1];
+		elContext.defineLazyBean("tick", new BeanSupplier<Integer>() {
+			@Override
+			public Integer get() {
+				return Integer.valueOf(++ticks[0]);
+			}
+		}, BeanScope.EPOCH);
+		elContext.setLazyVariable("v", "tick * 100");
+		PreparedExpression tickExpr = elContext.prepare("tick + 0", Integer.class);
+		tickExpr.setMemoTable(table);
+		PreparedExpression varExpr = elContext.prepare("v + 0", Integer.class);
+		varExpr.setMemoTable(table);
+		assertEquals(Integer.valueOf(1), tickExpr.getValue(elContext));
+		assertEquals(Integer.valueOf(100), varExpr.getValue(elContext));
+		assertEquals(Integer.valueOf(1), tickExpr.getValue(elContext));
+		assertEquals(Integer.valueOf(100), varExpr.getValue(elContext));
+		elContext.newEpoch();
+		assertEquals(Integer.valueOf(2), tickExpr.getValue(elContext));
+		assertEquals(Integer.valueOf(200), varExpr.getValue(elContext));
+
+		// エポックに依存しない式は、新しいエポックでも記憶した結果を返す.
+		long hits = table.getHitCount();
+		assertEquals(Integer.valueOf(10), expr2.getValue(elContext));
+		assertEquals(hits + 1, table.getHitCount());
+
+		// EL式の評価中にプロパティへの代入やメソッド呼び出しで変更された場合も再評価される.
+		ELDataflowGraphTest.MyBean bean = new ELDataflowGraphTest.MyBean();
+		bean.setX(1);
+		elContext.defineBean("bean", bean);
+		PreparedExpression beanExpr = elContext.prepare("bean.x", Integer.class);
+		beanExpr.setMemoTable(table);
+		assertEquals(Integer.valueOf(1), beanExpr.getValue(elContext));
+		assertEquals(Integer.valueOf(1), beanExpr.getValue(elContext));
+		elContext.eval("bean.x = 3");
+		assertEquals(Integer.valueOf(3), elContext.eval("bean.x"));
+		assertEquals(Integer.valueOf(3), beanExpr.getValue(elContext));
+		elContext.eval("bean.setX(5)");
+		assertEquals(Integer.valueOf(5), beanExpr.getValue(elContext));
+		PreparedExpression assign = elContext.prepare("bean.x = 7", Object.class);
+		assign.getValue(elContext);
+		assertEquals(Integer.valueOf(7), beanExpr.getValue(elContext));
+	}
+}
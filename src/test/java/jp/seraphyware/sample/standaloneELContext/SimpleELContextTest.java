@@ -1,7 +1,26 @@
 package jp.seraphyware.sample.standaloneELContext;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.el.ELContext;
+import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
 import javax.el.ValueExpression;
 import javax.el.VariableMapper;
 
@@ -67,5 +86,428 @@ public class SimpleELContextTest extends TestCase {
 			assertNull(veBaz);
 		}
 	}
-	
+
+	public void testVariable() {
+		SimpleELContext elProc = new SimpleELContext();
+		elProc.setVariable("v1", Integer.valueOf(1));
+		ValueExpression ve = elProc.getVariableMapper().resolveVariable("v1");
+
+		PreparedExpression expr = elProc.prepare("v1 + v2", Integer.class);
+		elProc.setVariable("v2", Integer.valueOf(2));
+		assertEquals(Integer.valueOf(3), expr.getValue(elProc));
+
+		// 再定義しても同じValueExpressionの値が差し替えられる.
+		Map<String, Object> vars = new HashMap<String, Object>();
+		vars.put("v1", Integer.valueOf(10));
+		vars.put("v2", Integer.valueOf(20));
+		elProc.setVariables(vars);
+		assertSame(ve, elProc.getVariableMapper().resolveVariable("v1"));
+		assertTrue(expr.isModified(elProc));
+		assertEquals(Integer.valueOf(30), expr.getValue(elProc));
+
+		// 変数には代入できない.
+		try {
+			elProc.setValue("v1", Integer.valueOf(100));
+			assertTrue(false);
+
+		} catch (PropertyNotWritableException ex) {
+			assertTrue(true);
+		}
+	}
+
+	public void testReset() {
+		SimpleELContextPool pool = new SimpleELContextPool(1);
+		SimpleELContext elProc = pool.borrow();
+		elProc.defineBean("a", Integer.valueOf(1));
+		elProc.setVariable("v", Integer.valueOf(2));
+		elProc.putContext(ImplicitContext.class, new ImplicitContext());
+		PreparedExpression expr = elProc.prepare("a + v", Integer.class);
+		assertEquals(Integer.valueOf(3), expr.getValue(elProc));
+		pool.release(elProc);
+		assertEquals(1, pool.getIdleCount());
+
+		// 同じインスタンスがリセットされた状態で再利用される.
+		assertSame(elProc, pool.borrow());
+		assertEquals(1, pool.getCreatedCount());
+		assertTrue(elProc.getBeans().isEmpty());
+		assertNull(elProc.getVariableMapper().resolveVariable("v"));
+		assertNull(elProc.getContext(ImplicitContext.class));
+		assertSame(elProc, SimpleELContext.of(elProc));
+
+		// リセット前の評価結果は再利用されない.
+		assertTrue(expr.isModified(elProc));
+		elProc.defineBean("a", Integer.valueOf(10));
+		elProc.setVariable("v", Integer.valueOf(20));
+		assertEquals(Integer.valueOf(30), expr.getValue(elProc));
+
+		// プールが空であれば新しく作成される.
+		assertNotSame(elProc, pool.borrow());
+		assertEquals(2, pool.getCreatedCount());
+	}
+
+	/**
+	 * 読み込みに時間のかかるビーン
+	 */
+	public static final class BlockingBean {
+
+		private final int value;
+
+		public BlockingBean(int value) {
+			this.value = value;
+		}
+
+		public int getValue() throws InterruptedException {
+			Thread.sleep(10);
+			return value;
+		}
+	}
+
+	public void testAsyncEvaluator() throws Exception {
+		SimpleELContextPool pool = new SimpleELContextPool(4);
+		ExecutorService executor = ELAsyncEvaluator.newTaskExecutor();
+		try {
+			ELAsyncEvaluator evaluator = new ELAsyncEvaluator(pool, executor);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int idx = 0; idx < 16; idx++) {
+				Map<String, Object> beans = new HashMap<String, Object>();
+				beans.put("bean", new BlockingBean(idx));
+				beans.put("base", Integer.valueOf(100));
+				futures.add(evaluator.submit("bean.value + base", Integer.class,
+						beans));
+			}
+			for (int idx = 0; idx < 16; idx++) {
+				assertEquals(Integer.valueOf(100 + idx), futures.get(idx).get());
+			}
+
+			// 評価の例外はコールバックとFutureの両方に通知される.
+			final CountDownLatch latch = new CountDownLatch(1);
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			Future<Object> future = evaluator.submit("bean.value", Object.class,
+					null, new ELAsyncCallback<Object>() {
+						@Override
+						public void onSuccess(Object value) {
+							latch.countDown();
+						}
+
+						@Override
+						public void onFailure(Throwable cause) {
+							failure.set(cause);
+							latch.countDown();
+						}
+					});
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			assertTrue(failure.get() instanceof PropertyNotFoundException);
+			try {
+				future.get();
+				assertTrue(false);
+
+			} catch (ExecutionException ex) {
+				assertSame(failure.get(), ex.getCause());
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+		// 返却されたコンテキストには前の評価のビーンが残らない.
+		assertTrue(pool.getIdleCount() > 0);
+		while (pool.getIdleCount() > 0) {
+			assertTrue(pool.borrow().getBeans().isEmpty());
+		}
+	}
+
+	public void testLenient() {
+		SimpleELContext elProc = new SimpleELContext();
+		elProc.addELResolver(new ClassELResolver());
+		elProc.defineBean("bean", new CountingBean(1));
+
+		String[] expressions = { "undefined", "undefined.x", "bean.missing",
+				"Class['no.such.Class']", "Class['java.awt.Color'].missing" };
+		for (String expression : expressions) {
+			// 通常は例外となる.
+			try {
+				elProc.eval(expression);
+				assertTrue(false);
+
+			} catch (PropertyNotFoundException ex) {
+				assertTrue(true);
+			}
+		}
+
+		// lenientモードではnullとなる.
+		elProc.setLenient(true);
+		for (String expression : expressions) {
+			assertNull(expression, elProc.eval(expression));
+		}
+		assertEquals(Integer.valueOf(1), elProc.getValue("bean.x", Integer.class));
+		assertNotNull(elProc.eval("Class['java.awt.Color'].red"));
+
+		// リセットしても維持される.
+		elProc.reset();
+		assertTrue(elProc.isLenient());
+		assertNull(elProc.eval("bean"));
+	}
+
+	public void testPrimitiveArray() {
+		SimpleELContext elProc = new SimpleELContext();
+		double[] samples = { 1.5, 2.5, 3.5 };
+		int[] counts = new int[2];
+		elProc.defineBean("samples", samples);
+		elProc.defineBean("counts", counts);
+
+		assertEquals(Double.valueOf(2.5), elProc.eval("samples[1]"));
+		assertEquals(Double.valueOf(7.5),
+				elProc.eval("samples[0] + samples[1] + samples[2]"));
+		assertNull(elProc.eval("samples[3]"));
+
+		// 要素の型に変換して代入される.
+		elProc.setValue("samples[1]", "10");
+		assertEquals(10d, samples[1]);
+		elProc.setValue("counts[0]", Long.valueOf(3));
+		elProc.setValue("counts[1]", "4");
+		assertEquals(3, counts[0]);
+		assertEquals(4, counts[1]);
+		assertEquals(Integer.valueOf(7), elProc.getValue("counts[0] + counts[1]", Integer.class));
+
+		try {
+			elProc.setValue("counts[2]", Integer.valueOf(1));
+			assertTrue(false);
+
+		} catch (PropertyNotFoundException ex) {
+			assertTrue(true);
+		}
+	}
+
+	/**
+	 * 呼び出し回数を数えるファクトリ
+	 */
+	private static final class CountingSupplier implements
+			BeanSupplier<CountingBean> {
+		private int count;
+
+		@Override
+		public CountingBean get() {
+			count++;
+			return new CountingBean(count * 10);
+		}
+	}
+
+	public void testLazyBean() {
+		SimpleELContext elProc = new SimpleELContext();
+		CountingSupplier profile = new CountingSupplier();
+		CountingSupplier document = new CountingSupplier();
+		elProc.defineLazyBean("profile", profile);
+		elProc.defineLazyBean("document", document, BeanScope.EPOCH);
+		elProc.defineBean("flag", Boolean.FALSE);
+
+		// 参照されないビーンは作成されない.
+		assertEquals(Integer.valueOf(0),
+				elProc.getValue("flag ? document.x : 0", Integer.class));
+		assertEquals(0, document.count);
+		assertFalse(elProc.isBeanMaterialized("document"));
+
+		// 最初に参照されたときに一度だけ作成される.
+		assertEquals(Integer.valueOf(20),
+				elProc.getValue("profile.x + profile.x", Integer.class));
+		assertEquals(Integer.valueOf(10), elProc.getValue("document.x", Integer.class));
+		assertEquals(1, profile.count);
+		assertTrue(elProc.isBeanMaterialized("profile"));
+		assertTrue(elProc.isBeanMaterialized("document"));
+		assertTrue(elProc.isBeanMaterialized("flag"));
+
+		// エポックの範囲のビーンだけが作り直される.
+		elProc.newEpoch();
+		assertFalse(elProc.isBeanMaterialized("document"));
+		assertEquals(Integer.valueOf(30),
+				elProc.getValue("profile.x + document.x", Integer.class));
+		assertEquals(1, profile.count);
+		assertEquals(2, document.count);
+	}
+
+	/**
+	 * getterの呼び出し回数を数えるビーン
+	 */
+	public static final class CountingBean {
+		private int x;
+		private int count;
+
+		public CountingBean(int x) {
+			this.x = x;
+		}
+
+		public int getX() {
+			count++;
+			return x;
+		}
+	}
+
+	public void testLazyVariable() {
+		SimpleELContext elProc = new SimpleELContext();
+		CountingBean bean = new CountingBean(10);
+		elProc.defineBean("bean", bean);
+		elProc.setLazyVariable("v1", "bean.x * 2");
+
+		// 参照されるまで評価されない.
+		assertEquals(0, bean.count);
+
+		// 同じエポックでは一度だけ評価される.
+		assertEquals(Integer.valueOf(40), elProc.getValue("v1 + v1", Integer.class));
+		assertEquals(Integer.valueOf(20), elProc.getValue("v1", Integer.class));
+		assertEquals(1, bean.count);
+
+		// 新しいエポックでは再評価される.
+		elProc.newEpoch();
+		assertEquals(Integer.valueOf(20), elProc.getValue("v1", Integer.class));
+		assertEquals(2, bean.count);
+
+		// 依存しているビーンが変更された場合も再評価される.
+		CountingBean bean2 = new CountingBean(100);
+		elProc.defineBean("bean", bean2);
+		assertEquals(Integer.valueOf(200), elProc.getValue("v1", Integer.class));
+		assertEquals(Integer.valueOf(200), elProc.getValue("v1", Integer.class));
+		assertEquals(1, bean2.count);
+
+		// 依存関係は外側の式にも伝搬する.
+		PreparedExpression expr = elProc.prepare("v1 + 1", Integer.class);
+		assertEquals(Integer.valueOf(201), expr.getValue(elProc));
+		assertTrue(expr.getDependencies().getIdentifiers().contains("bean"));
+		assertFalse(expr.isModified(elProc));
+		elProc.touch("bean");
+		assertTrue(expr.isModified(elProc));
+	}
+
+	public void testPathIndex() {
+		Map<String, Object> db = new HashMap<String, Object>();
+		db.put("host", "localhost");
+		db.put("port", Integer.valueOf(5432));
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put("db", db);
+		final Map<String, Object> data = new HashMap<String, Object>();
+		data.put("config", config);
+
+		SimpleELContext elProc = new SimpleELContext();
+		PathIndexedELResolver resolver = new PathIndexedELResolver() {
+			@Override
+			protected Map<String, Object> getLocalContext(ELContext elContext) {
+				return data;
+			}
+		};
+		elProc.addELResolver(resolver);
+
+		assertEquals("config.db.port",
+				PathIndexedELResolver.toStaticPath("${config . db.port}"));
+		assertNull(PathIndexedELResolver.toStaticPath("${config.db.port + 1}"));
+		assertEquals(db, resolver.getValueByPath(elProc, "config.db"));
+
+		// 静的なパスは索引から取得し、それ以外は式を評価する.
+		assertEquals(Long.valueOf(5432),
+				resolver.evaluate(elProc, "${config.db.port}", Long.class));
+		assertEquals(Integer.valueOf(5433),
+				resolver.evaluate(elProc, "${config.db.port + 1}", Integer.class));
+		assertEquals("localhost", elProc.getValue("config.db.host", String.class));
+
+		// 変数や前にあるELResolverが同じ名前を解決する場合は、索引よりもそちらを優先する.
+		Map<String, Object> shadowDb = new HashMap<String, Object>();
+		shadowDb.put("port", Integer.valueOf(3306));
+		Map<String, Object> shadow = new HashMap<String, Object>();
+		shadow.put("db", shadowDb);
+		elProc.setVariable("config", shadow);
+		assertEquals(Long.valueOf(3306),
+				resolver.evaluate(elProc, "${config.db.port}", Long.class));
+		elProc.getVariableMapper().setVariable("config", null);
+		elProc.defineBean("config", shadow);
+		assertEquals(Long.valueOf(3306),
+				resolver.evaluate(elProc, "${config.db.port}", Long.class));
+		elProc.getBeans().remove("config");
+		elProc.touch("config");
+		assertEquals(Long.valueOf(5432),
+				resolver.evaluate(elProc, "${config.db.port}", Long.class));
+
+		// ELResolverを経由した代入は索引に反映される.
+		elProc.setValue("config.db.host", "example.com");
+		assertEquals("example.com", db.get("host"));
+		assertEquals("example.com", resolver.getValueByPath(elProc, "config.db.host"));
+
+		Map<String, Object> db2 = new HashMap<String, Object>();
+		db2.put("host", "replica");
+		elProc.setValue("config.db", db2);
+		assertEquals("replica", resolver.getValueByPath(elProc, "config.db.host"));
+		assertFalse(resolver.containsPath(elProc, "config.db.port"));
+
+		// 直接変更した場合はreindexで反映する.
+		db2.put("port", Integer.valueOf(1));
+		assertFalse(resolver.containsPath(elProc, "config.db.port"));
+		resolver.reindex(elProc);
+		assertEquals(Integer.valueOf(1),
+				resolver.getValueByPath(elProc, "config.db.port"));
+
+		// 循環していても索引を作成できる.
+		config.put("self", config);
+		resolver.reindex(elProc);
+		assertSame(config, resolver.getValueByPath(elProc, "config.self"));
+		assertEquals("replica", elProc.getValue("config.self.db.host", String.class));
+	}
+
+	public void testBinaryRecord() throws IOException {
+		RecordSchema schema = new RecordSchema(ByteOrder.LITTLE_ENDIAN)
+				.addField("id", RecordSchema.FieldType.INT)
+				.addField("price", RecordSchema.FieldType.DOUBLE)
+				.addField("active", RecordSchema.FieldType.BOOLEAN)
+				.setRecordSize(16);
+
+		File file = File.createTempFile("records", ".bin");
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(16 * 5).order(
+					ByteOrder.LITTLE_ENDIAN);
+			for (int idx = 0; idx < 5; idx++) {
+				buf.putInt(idx * 16, idx);
+				buf.putDouble(idx * 16 + 4, idx * 50.0);
+				buf.put(idx * 16 + 12, (byte) (idx % 2));
+			}
+			FileOutputStream os = new FileOutputStream(file);
+			try {
+				os.write(buf.array());
+
+			} finally {
+				os.close();
+			}
+
+			RecordCursor rec = RecordCursor.map(schema, file);
+			assertEquals(5, rec.getRecordCount());
+
+			SimpleELContext elProc = new SimpleELContext();
+			elProc.addELResolver(new BinaryRecordELResolver());
+			elProc.defineBean("rec", rec);
+			PreparedExpression expr = elProc.prepare(
+					"rec.price > 100 && rec.active", Boolean.class);
+			List<Object> ids = new ArrayList<Object>();
+			while (rec.hasNext()) {
+				rec.next();
+				if (Boolean.TRUE.equals(expr.getValue(elProc))) {
+					ids.add(elProc.getValue("rec.id", Integer.class));
+				}
+			}
+			assertEquals(Arrays.asList(Integer.valueOf(3)), ids);
+
+			rec.moveTo(4);
+			assertEquals(Double.valueOf(200), elProc.eval("rec.price"));
+			try {
+				elProc.eval("rec.unknown");
+				assertTrue(false);
+
+			} catch (PropertyNotFoundException ex) {
+				assertTrue(true);
+			}
+			try {
+				elProc.setValue("rec.price", Double.valueOf(1));
+				assertTrue(false);
+
+			} catch (PropertyNotWritableException ex) {
+				assertTrue(true);
+			}
+
+		} finally {
+			file.delete();
+		}
+	}
 }
@@ -1,10 +1,14 @@
 package jp.seraphyware.sample.standaloneELContext;
 
 import java.awt.Color;
+import java.beans.FeatureDescriptor;
 import java.math.BigDecimal;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -12,6 +16,7 @@ import java.util.ResourceBundle;
 
 import javax.el.CompositeELResolver;
 import javax.el.ELContext;
+import javax.el.ELResolver;
 import javax.el.ExpressionFactory;
 import javax.el.MethodExpression;
 import javax.el.PropertyNotFoundException;
@@ -124,6 +129,298 @@ public class StandaloneELContextTest extends TestCase {
 		doTest(elContext);
 	}
 
+	/**
+	 * [テスト3] 凍結したリゾルバを複数のコンテキストで共有する
+	 */
+	public void testSharedELResolver() {
+		FreezableCompositeELResolver resolver = StandaloneELContext
+				.createSharedELResolver();
+		SimpleELFunctionMapper funcMapper = new SimpleELFunctionMapper();
+
+		ExpressionFactory ef = ExpressionFactory.newInstance();
+		for (int idx = 0; idx < 3; idx++) {
+			StandaloneELContext elContext = new StandaloneELContext(resolver,
+					funcMapper);
+			assertSame(resolver, elContext.getELResolver());
+
+			MyBean bean = new MyBean();
+			bean.setX(idx);
+			elContext.getVariableMapper().setVariable("bean",
+					ef.createValueExpression(bean, MyBean.class));
+			ValueExpression ve = ef.createValueExpression(elContext,
+					"${bean.x + fn:length('abc')}", Integer.class);
+			assertEquals(Integer.valueOf(idx + 3), ve.getValue(elContext));
+		}
+
+		try {
+			// 凍結後は追加できない.
+			resolver.add(new ClassELResolver());
+			assertTrue(false);
+
+		} catch (IllegalStateException ex) {
+			assertTrue(true);
+		}
+
+		// 共有するリゾルバに含まれるLenientELResolverでlenientモードになる.
+		StandaloneELContext lenientContext = new StandaloneELContext(resolver,
+				funcMapper);
+		lenientContext.setLenient(true);
+		assertNull(ef.createValueExpression(lenientContext, "${undefined}",
+				Object.class).getValue(lenientContext));
+
+		// LenientELResolverを含まない凍結したリゾルバではlenientモードにできない.
+		FreezableCompositeELResolver strict = new FreezableCompositeELResolver();
+		StandaloneELContext.addDefaultELResolvers(strict);
+		strict.freeze();
+		try {
+			new StandaloneELContext(strict, funcMapper).setLenient(true);
+			assertTrue(false);
+
+		} catch (IllegalStateException ex) {
+			assertTrue(true);
+		}
+
+		// 共有する凍結していないリゾルバにも追加しない.
+		CompositeELResolver shared = new CompositeELResolver();
+		StandaloneELContext.addDefaultELResolvers(shared);
+		for (int idx = 0; idx < 2; idx++) {
+			new StandaloneELContext(shared, funcMapper).setLenient(true);
+		}
+		StandaloneELContext strictContext = new StandaloneELContext(shared,
+				funcMapper);
+		try {
+			ef.createValueExpression(strictContext, "${undefined}",
+					Object.class).getValue(strictContext);
+			assertTrue(false);
+
+		} catch (PropertyNotFoundException ex) {
+			assertTrue(true);
+		}
+	}
+
+	/**
+	 * get(int)を使わずにアクセスされることを確認するためのLinkedList
+	 */
+	@SuppressWarnings("serial")
+	private static final class NoGetLinkedList<E> extends LinkedList<E> {
+		@Override
+		public E get(int index) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * ページ単位でアクセスされるリスト
+	 */
+	private static final class Pages extends AbstractList<Integer> implements
+			PagedList<Integer> {
+
+		private int pageCount;
+
+		@Override
+		public int size() {
+			return 25;
+		}
+
+		@Override
+		public Integer get(int index) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getPageSize() {
+			return 10;
+		}
+
+		@Override
+		public List<Integer> getPage(int pageIndex) {
+			pageCount++;
+			List<Integer> page = new ArrayList<Integer>();
+			for (int idx = pageIndex * 10; idx < Math.min(size(),
+					(pageIndex + 1) * 10); idx++) {
+				page.add(Integer.valueOf(idx));
+			}
+			return page;
+		}
+	}
+
+	/**
+	 * [テスト4] RandomAccessでないリストとページ単位のリストの解決
+	 */
+	public void testSequentialList() {
+		StandaloneELContext elContext = new StandaloneELContext();
+		ExpressionFactory ef = ExpressionFactory.newInstance();
+		VariableMapper varMapper = elContext.getVariableMapper();
+
+		NoGetLinkedList<Integer> linked = new NoGetLinkedList<Integer>();
+		for (int idx = 0; idx < 100; idx++) {
+			linked.add(Integer.valueOf(idx));
+		}
+		Pages pages = new Pages();
+		varMapper.setVariable("linked", ef.createValueExpression(linked, List.class));
+		varMapper.setVariable("pages", ef.createValueExpression(pages, List.class));
+
+		int[] indexes = { 0, 1, 2, 50, 51, 49, 99, 3, 98 };
+		for (int idx : indexes) {
+			varMapper.setVariable("idx",
+					ef.createValueExpression(Integer.valueOf(idx), Integer.class));
+			ValueExpression ve = ef.createValueExpression(elContext,
+					"${linked[idx]}", Integer.class);
+			assertEquals(Integer.valueOf(idx), ve.getValue(elContext));
+		}
+
+		// 変更後も正しく解決される.
+		linked.removeFirst();
+		ValueExpression ve = ef.createValueExpression(elContext,
+				"${linked[0]}", Integer.class);
+		assertEquals(Integer.valueOf(1), ve.getValue(elContext));
+
+		ve = ef.createValueExpression(elContext,
+				"${pages[3] + pages[24]}", Integer.class);
+		assertEquals(Integer.valueOf(27), ve.getValue(elContext));
+		assertEquals(2, pages.pageCount);
+		ve = ef.createValueExpression(elContext, "${pages[25]}", Object.class);
+		assertNull(ve.getValue(elContext));
+	}
+
+	/**
+	 * [テスト5] 登録した暗黙のオブジェクトの解決
+	 */
+	public void testImplicitObjects() {
+		Map<String, Class<?>> implicits = new HashMap<String, Class<?>>();
+		String[] names = { "request", "tenant", "clock", "locale", "user",
+				"session", "config", "env", "now", "zone", "app", "implicit" };
+		for (String name : names) {
+			implicits.put(name, name.equals("implicit") ? ImplicitContext.class
+					: StringBuilder.class);
+		}
+		ImplicitObjectELResolver implicitResolver = new ImplicitObjectELResolver(
+				implicits);
+		assertEquals(implicits, implicitResolver.getImplicits());
+
+		StandaloneELContext elContext = new StandaloneELContext();
+		elContext.getELResolver().add(implicitResolver);
+
+		for (String name : names) {
+			if (!name.equals("implicit")) {
+				implicitResolver.bind(elContext, name, new StringBuilder(name));
+			}
+		}
+		// bindしていないものはgetContextから取得する.
+		ImplicitContext implicitContext = new ImplicitContext();
+		implicitContext.put("idx", Integer.valueOf(3));
+		elContext.putContext(ImplicitContext.class, implicitContext);
+
+		ExpressionFactory ef = ExpressionFactory.newInstance();
+		ValueExpression ve = ef.createValueExpression(elContext,
+				"${tenant}:${clock}:${app}:${implicit.idx}", String.class);
+		assertEquals("tenant:clock:app:3", ve.getValue(elContext));
+
+		// 2つ目のリゾルバが値を設定しても、1つ目のリゾルバの値は失われない.
+		ImplicitObjectELResolver appResolver = new ImplicitObjectELResolver(
+				"operator", StringBuilder.class);
+		elContext.getELResolver().add(appResolver);
+		appResolver.bind(elContext, "operator", new StringBuilder("alice"));
+		implicitResolver.bind(elContext, "app", new StringBuilder("app2"));
+		ve = ef.createValueExpression(elContext,
+				"${tenant}:${clock}:${app}:${operator}", String.class);
+		assertEquals("tenant:clock:app2:alice", ve.getValue(elContext));
+
+		try {
+			ve = ef.createValueExpression(elContext, "${unknown}", Object.class);
+			ve.getValue(elContext);
+			assertTrue(false);
+
+		} catch (PropertyNotFoundException ex) {
+			assertTrue(true);
+		}
+	}
+
+	/**
+	 * [テスト6] ローカルコンテキストのFeatureDescriptorの列挙
+	 */
+	public void testFeatureDescriptors() {
+		final FlatStringMap<Object> flat = new FlatStringMap<Object>();
+		flat.put("alpha", "a");
+		flat.put("apple", Integer.valueOf(1));
+		flat.put("beta", null);
+		StandaloneBaseELResolver flatResolver = new StandaloneBaseELResolver() {
+			@Override
+			protected Map<String, Object> getLocalContext(ELContext elContext) {
+				return flat;
+			}
+		};
+		StandaloneELContext elContext = new StandaloneELContext();
+
+		// 変更されるまでは構築済みの索引を再利用するが、FeatureDescriptorは毎回作成する.
+		FeatureDescriptor first = flatResolver.getFeatureDescriptors(elContext,
+				null).next();
+		assertEquals("alpha", first.getName());
+		assertEquals(String.class, first.getValue(ELResolver.TYPE));
+		first.setName("changed");
+		first.setValue(ELResolver.TYPE, Void.class);
+		FeatureDescriptor again = flatResolver.getFeatureDescriptors(elContext,
+				null).next();
+		assertNotSame(first, again);
+		assertEquals("alpha", again.getName());
+		assertEquals(String.class, again.getValue(ELResolver.TYPE));
+
+		List<String> names = new ArrayList<String>();
+		Iterator<FeatureDescriptor> ite = flatResolver.getFeatureDescriptors(
+				elContext, null, "ap");
+		while (ite.hasNext()) {
+			names.add(ite.next().getName());
+		}
+		assertEquals(Arrays.asList("apple"), names);
+
+		flat.put("alpha", Integer.valueOf(2));
+		first = flatResolver.getFeatureDescriptors(elContext, null).next();
+		assertEquals(Integer.class, first.getValue(ELResolver.TYPE));
+		assertFalse(flatResolver.getFeatureDescriptors(elContext, null, "x")
+				.hasNext());
+
+		// 索引はマップごとに保持するため、共有したリゾルバで交互に列挙しても互いに影響しない.
+		final FlatStringMap<Object> other = new FlatStringMap<Object>();
+		other.put("gamma", Boolean.TRUE);
+		final StandaloneELContext otherContext = new StandaloneELContext();
+		StandaloneBaseELResolver sharedResolver = new StandaloneBaseELResolver() {
+			@Override
+			protected Map<String, Object> getLocalContext(ELContext elContext) {
+				return elContext == otherContext ? other : flat;
+			}
+		};
+		for (int loop = 0; loop < 3; loop++) {
+			assertEquals("alpha",
+					sharedResolver.getFeatureDescriptors(elContext, null)
+							.next().getName());
+			assertEquals("gamma",
+					sharedResolver.getFeatureDescriptors(otherContext, null)
+							.next().getName());
+		}
+
+		// バージョンのないマップは列挙しながら作成する.
+		final Map<String, Object> data = createTestData();
+		StandaloneBaseELResolver dataResolver = new StandaloneBaseELResolver() {
+			@Override
+			protected Map<String, Object> getLocalContext(ELContext elContext) {
+				return data;
+			}
+		};
+		names.clear();
+		ite = dataResolver.getFeatureDescriptors(elContext, null, "st");
+		while (ite.hasNext()) {
+			names.add(ite.next().getName());
+		}
+		assertEquals(Arrays.asList("str"), names);
+		int count = 0;
+		ite = dataResolver.getFeatureDescriptors(elContext, null);
+		while (ite.hasNext()) {
+			ite.next();
+			count++;
+		}
+		assertEquals(data.size(), count);
+	}
+
 	/**
 	 * テストデータの作成
 	 * @return テストデータを格納したマップ
@@ -592,6 +889,60 @@ public class StandaloneELContextTest extends TestCase {
 				assertTrue(true);
 			}
 		}
+
+		{
+			// 見つからなかったクラス名もキャッシュされ、2回目以降はクラスローダで検索しない.
+			// キャッシュするクラス名の数は上限までとする.
+			final ClassELResolver classResolver = new ClassELResolver(2);
+			StandaloneELContext limited = new StandaloneELContext() {
+				@Override
+				protected void initELResolver(CompositeELResolver resolver) {
+					resolver.add(classResolver);
+					super.initELResolver(resolver);
+				}
+			};
+			limited.setLenient(true);
+			final List<String> loaded = new ArrayList<String>();
+			ClassLoader countingLoader = new ClassLoader(getClass().getClassLoader()) {
+				@Override
+				public Class<?> loadClass(String name) throws ClassNotFoundException {
+					loaded.add(name);
+					return super.loadClass(name);
+				}
+			};
+			Thread thread = Thread.currentThread();
+			ClassLoader prevLoader = thread.getContextClassLoader();
+			thread.setContextClassLoader(countingLoader);
+			try {
+				for (int loop = 0; loop < 5; loop++) {
+					String expression = "${Class['no.such.Class']}";
+					ValueExpression ve = ef.createValueExpression(limited, expression, Object.class);
+					assertNull(ve.getValue(limited));
+				}
+				assertEquals(Arrays.asList("no.such.Class"), loaded);
+				assertEquals(1, classResolver.getCachedMissingCount());
+
+				for (int idx = 0; idx < 10; idx++) {
+					String expression = "${Class['no.such.Class" + idx + "']}";
+					ValueExpression ve = ef.createValueExpression(limited, expression, Object.class);
+					assertNull(ve.getValue(limited));
+				}
+				assertEquals(2, classResolver.getCachedMissingCount());
+
+				String[] names = {"java.awt.Color", "java.lang.Integer", "java.lang.Long"};
+				for (int loop = 0; loop < 2; loop++) {
+					for (String name : names) {
+						String expression = "${Class['" + name + "']}";
+						ValueExpression ve = ef.createValueExpression(limited, expression, Object.class);
+						assertEquals(name, ((Class<?>) ve.getValue(limited)).getName());
+					}
+				}
+				assertEquals(2, classResolver.getCachedClassCount());
+
+			} finally {
+				thread.setContextClassLoader(prevLoader);
+			}
+		}
 	}
 
 	/**